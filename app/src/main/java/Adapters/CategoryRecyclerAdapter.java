@@ -1,6 +1,7 @@
 package Adapters;
 
 import android.content.Context;
+import android.graphics.drawable.Drawable;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -8,26 +9,88 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.ListPreloader;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.load.DecodeFormat;
 import com.bumptech.glide.request.RequestOptions;
 import com.example.spotifylearn.R;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import Models.Artist;
 
-public class CategoryRecyclerAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+/**
+ * Artist rows. Images are decoded at the view size as RGB_565, and the adapter is the model
+ * provider of a Glide RecyclerViewPreloader, which loads the rows ahead of the scroll within
+ * {@link #SCREEN_IMAGE_BUDGET_BYTES}.
+ */
+public class CategoryRecyclerAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
+        implements ListPreloader.PreloadModelProvider<Artist> {
+
+    private static final int SCREEN_IMAGE_BUDGET_BYTES = 2 * 1024 * 1024;                          // decoded artwork of one screen, visible + preloaded rows
+    private static final int MAX_PRELOAD = 20;
 
     private ArrayList<Artist> mArtists = new ArrayList<>();
     private Context mContext;
     private ICategorySelector mICategorySelector;
+    private final int mImageSize;                                                                   // px, the row's ImageView
+    private final ImageDecodeMeter mDecodeMeter = new ImageDecodeMeter();
+    private final RequestBuilder<Drawable> mRequestBuilder;
 
     public CategoryRecyclerAdapter(Context context, ArrayList<Artist> artists, ICategorySelector categorySelector) {
         this.mArtists = artists;
         this.mContext = context;
         this.mICategorySelector = categorySelector;
+        mImageSize = context.getResources().getDimensionPixelSize(R.dimen.artistImageSize);
+
+        RequestOptions options = new RequestOptions()
+                .override(mImageSize)                                                               // decode at the view size, not the full photo
+                .format(DecodeFormat.PREFER_RGB_565)                                                // artist photos have no alpha, half the bytes
+                .placeholder(R.drawable.ic_launcher_background)
+                .error(R.drawable.ic_launcher_background);
+        mRequestBuilder = Glide.with(context)
+                .asDrawable()
+                .apply(options)
+                .listener(mDecodeMeter);
+    }
+
+    public int getImageSize() {
+        return mImageSize;
+    }
+
+    /**
+     * How many rows to preload: what the image budget holds beyond one screen of rows.
+     */
+    public int getPreloadCount() {
+        int bytesPerImage = mImageSize * mImageSize * 2;                                            // RGB_565
+        int visibleRows = mContext.getResources().getDisplayMetrics().heightPixels / mImageSize + 1;
+        int preload = SCREEN_IMAGE_BUDGET_BYTES / bytesPerImage - visibleRows;
+        return Math.max(1, Math.min(MAX_PRELOAD, preload));
+    }
+
+    public ImageDecodeMeter getDecodeMeter() {
+        return mDecodeMeter;
+    }
+
+    @NonNull
+    @Override
+    public List<Artist> getPreloadItems(int position) {
+        if (position < 0 || position >= mArtists.size()) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(mArtists.get(position));
+    }
+
+    @Nullable
+    @Override
+    public RequestBuilder<?> getPreloadRequestBuilder(@NonNull Artist artist) {
+        return mRequestBuilder.clone().load(artist.getImage());
     }
 
     @NonNull
@@ -43,11 +106,8 @@ public class CategoryRecyclerAdapter extends RecyclerView.Adapter<RecyclerView.V
 
         ((ViewHolder)viewHolder).title.setText(mArtists.get(i).getTitle());
 
-        RequestOptions options = new RequestOptions()
-                .error(R.drawable.ic_launcher_background);
-
-        Glide.with(mContext)
-                .setDefaultRequestOptions(options)
+        // same request as the preload, so it's served from memory
+        mRequestBuilder.clone()
                 .load(mArtists.get(i).getImage())
                 .into(((ViewHolder)viewHolder).image);
 
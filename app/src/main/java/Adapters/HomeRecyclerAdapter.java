@@ -13,8 +13,6 @@ import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.request.RequestOptions;
 import com.example.spotifylearn.R;
 
 import java.util.ArrayList;
@@ -46,8 +44,6 @@ public class HomeRecyclerAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
         Log.d(TAG, "onBindViewHolder: METHOD CALLED");
 
         ((ViewHolder)viewHolder).category.setText(mCategories.get(i));
-        RequestOptions requestOptions = new RequestOptions()
-                .error(R.drawable.ic_launcher_background);
 
         Drawable iconResource = null;
         switch(mCategories.get(i)){
@@ -65,10 +61,11 @@ public class HomeRecyclerAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
         }
 
 
-        Glide.with(mContext)
-                .setDefaultRequestOptions(requestOptions)
-                .load(iconResource)
-                .into(((ViewHolder)viewHolder).category_icon);
+        // bundled vector icons, nothing to download or decode so they don't go through Glide
+        if(iconResource == null){
+            iconResource = ContextCompat.getDrawable(mContext, R.drawable.ic_launcher_background);
+        }
+        ((ViewHolder)viewHolder).category_icon.setImageDrawable(iconResource);
 
     }
 
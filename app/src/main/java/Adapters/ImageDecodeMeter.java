@@ -0,0 +1,91 @@
+package Adapters;
+
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.engine.GlideException;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.Target;
+
+/**
+ * Counts the bitmap bytes Glide decodes for a list, per scroll gesture (drag to idle) and in
+ * total. Loads served from the memory cache aren't decodes and are counted separately.
+ * Attach it as the request listener of the list's images and as a scroll listener.
+ */
+public class ImageDecodeMeter extends RecyclerView.OnScrollListener implements RequestListener<Drawable> {
+
+    private static final String TAG = "ImageDecodeMeter";
+
+    private boolean mScrolling;
+    private long mScrollBytes;                                                                      // current (or last) scroll
+    private int mScrollDecodes;
+    private int mScrollMemoryHits;
+
+    private long mTotalBytes;
+    private int mTotalDecodes;
+    private int mScrollCount;
+
+    @Override
+    public boolean onResourceReady(Drawable resource, Object model, Target<Drawable> target, DataSource dataSource, boolean isFirstResource) {
+        if(dataSource == DataSource.MEMORY_CACHE){
+            mScrollMemoryHits++;
+            return false;
+        }
+        long bytes = getByteCount(resource);
+        mScrollBytes += bytes;
+        mScrollDecodes++;
+        mTotalBytes += bytes;
+        mTotalDecodes++;
+        return false;                                                                               // let Glide set the image
+    }
+
+    @Override
+    public boolean onLoadFailed(@Nullable GlideException e, Object model, Target<Drawable> target, boolean isFirstResource) {
+        return false;
+    }
+
+    @Override
+    public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+        if(newState == RecyclerView.SCROLL_STATE_DRAGGING && !mScrolling){
+            mScrolling = true;
+            mScrollBytes = 0;
+            mScrollDecodes = 0;
+            mScrollMemoryHits = 0;
+        }
+        else if(newState == RecyclerView.SCROLL_STATE_IDLE && mScrolling){
+            mScrolling = false;
+            mScrollCount++;
+            Log.d(TAG, "scroll " + mScrollCount + ": decoded " + mScrollBytes / 1024 + "KB in " + mScrollDecodes
+                    + " images, " + mScrollMemoryHits + " from memory, " + mTotalBytes / 1024 + "KB in total");
+        }
+    }
+
+    public long getLastScrollDecodedBytes(){
+        return mScrollBytes;
+    }
+
+    public long getTotalDecodedBytes(){
+        return mTotalBytes;
+    }
+
+    public int getTotalDecodes(){
+        return mTotalDecodes;
+    }
+
+    public int getScrollCount(){
+        return mScrollCount;
+    }
+
+    private static long getByteCount(Drawable drawable){
+        if(drawable instanceof BitmapDrawable && ((BitmapDrawable) drawable).getBitmap() != null){
+            return ((BitmapDrawable) drawable).getBitmap().getAllocationByteCount();
+        }
+        return (long) Math.max(drawable.getIntrinsicWidth(), 0) * Math.max(drawable.getIntrinsicHeight(), 0) * 4;   // a guess, ARGB
+    }
+}
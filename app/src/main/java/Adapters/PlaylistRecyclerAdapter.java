@@ -1,7 +1,7 @@
 package Adapters;
 
 import android.content.Context;
-import android.support.v4.media.MediaMetadataCompat;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -10,27 +10,85 @@ import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.spotifylearn.R;
 
 import java.util.ArrayList;
-
+import java.util.HashMap;
+import java.util.List;
+
+import Models.Track;
+import util.MediaIdIndex;
+
+/**
+ * Playlist rows, updated incrementally: list changes are diffed off the main thread by an
+ * AsyncListDiffer, selection changes only rebind the old and the new row (with a payload, so
+ * only the title colour is touched). Item ids are stable per media id, and positions are looked
+ * up through a {@link MediaIdIndex} rebuilt whenever a new list is committed.
+ */
 public class PlaylistRecyclerAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
     private static final String TAG = "PlaylistRecyclerAdapter";
 
-    private ArrayList<MediaMetadataCompat> mMediaList = new ArrayList<>();
+    private static final Object PAYLOAD_SELECTION = new Object();                                   // only the highlight changed
+
+    private static final DiffUtil.ItemCallback<Track> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<Track>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull Track oldItem, @NonNull Track newItem) {
+                    return TextUtils.equals(getMediaId(oldItem), getMediaId(newItem));
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull Track oldItem, @NonNull Track newItem) {
+                    // what a row shows
+                    return TextUtils.equals(oldItem.getTitle(), newItem.getTitle())
+                            && TextUtils.equals(oldItem.getArtist(), newItem.getArtist());
+                }
+            };
+
+    private final AsyncListDiffer<Track> mDiffer = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+    private final HashMap<String, Long> mStableIds = new HashMap<>();                               // media id -> item id, never reused
+    private final MediaIdIndex mIndex = new MediaIdIndex();                                         // media id -> position in the current list
     private Context mContext;
     private IMediaSelector mIMediaSelector;
-    private int mSelectedIndex;
+    private String mSelectedMediaId;
 
-    public PlaylistRecyclerAdapter(Context context, ArrayList<MediaMetadataCompat> mediaList, IMediaSelector mediaSelector) {
+    public PlaylistRecyclerAdapter(Context context, IMediaSelector mediaSelector) {
         Log.d(TAG, "PlaylistRecyclerAdapter: called.");
-        this.mMediaList = mediaList;
         this.mContext = context;
         this.mIMediaSelector = mediaSelector;
-        mSelectedIndex = -1;
+        setHasStableIds(true);
+
+        mDiffer.addListListener(new AsyncListDiffer.ListListener<Track>() {
+            @Override
+            public void onCurrentListChanged(@NonNull List<Track> previousList, @NonNull List<Track> currentList) {
+                List<String> ids = new ArrayList<>(currentList.size());
+                for (Track media : currentList) {
+                    ids.add(getMediaId(media));
+                }
+                mIndex.set(ids);
+            }
+        });
+    }
+
+    /**
+     * Diffs the new list against the current one in the background, commitCallback runs once
+     * the changes are dispatched (it may be null). Pass a list that won't be mutated afterwards.
+     */
+    public void submitList(List<Track> mediaList, Runnable commitCallback) {
+        mDiffer.submitList(mediaList, commitCallback);
+    }
+
+    public List<Track> getCurrentList() {
+        return mDiffer.getCurrentList();
+    }
+
+    public Track getItem(int position) {
+        return mDiffer.getCurrentList().get(position);
     }
 
     @NonNull
@@ -43,38 +101,83 @@ public class PlaylistRecyclerAdapter extends RecyclerView.Adapter<RecyclerView.V
 
     @Override
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder viewHolder, int i) {
-        ((ViewHolder) viewHolder).title.setText(mMediaList.get(i).getDescription().getTitle());
-        ((ViewHolder) viewHolder).artist.setText(mMediaList.get(i).getDescription().getSubtitle());
+        Track media = getItem(i);
+        ((ViewHolder) viewHolder).title.setText(media.getTitle());
+        ((ViewHolder) viewHolder).artist.setText(media.getArtist());
+        bindSelection((ViewHolder) viewHolder, media);
+    }
 
+    @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder viewHolder, int i, @NonNull List<Object> payloads) {
+        if (payloads.contains(PAYLOAD_SELECTION) && payloads.size() == 1) {
+            bindSelection((ViewHolder) viewHolder, getItem(i));                                     // no need to rebind the text
+            return;
+        }
+        onBindViewHolder(viewHolder, i);
+    }
+
+    private void bindSelection(ViewHolder viewHolder, Track media) {
         //changing color of playing song
-        if (i == mSelectedIndex) {
-            ((ViewHolder) viewHolder).title.setTextColor(ContextCompat.getColor(mContext, R.color.green));
+        if (TextUtils.equals(getMediaId(media), mSelectedMediaId)) {
+            viewHolder.title.setTextColor(ContextCompat.getColor(mContext, R.color.green));
         } else {
-            ((ViewHolder) viewHolder).title.setTextColor(ContextCompat.getColor(mContext, R.color.white));
+            viewHolder.title.setTextColor(ContextCompat.getColor(mContext, R.color.white));
         }
     }
 
     @Override
     public int getItemCount() {
-        return mMediaList.size();
+        return mDiffer.getCurrentList().size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        String mediaId = getMediaId(getItem(position));
+        Long id = mStableIds.get(mediaId);
+        if (id == null) {
+            id = (long) mStableIds.size();
+            mStableIds.put(mediaId, id);
+        }
+        return id;
     }
 
     public void setSelectedIndex(int index) {
-        mSelectedIndex = index;
-        notifyDataSetChanged();
+        List<Track> list = mDiffer.getCurrentList();
+        setSelectedMediaId(index >= 0 && index < list.size() ? getMediaId(list.get(index)) : null);
+    }
+
+    public void setSelectedMediaId(String mediaId) {
+        if (TextUtils.equals(mediaId, mSelectedMediaId)) {
+            return;
+        }
+        int oldIndex = getIndexOfMediaId(mSelectedMediaId);
+        mSelectedMediaId = mediaId;
+        int newIndex = getIndexOfMediaId(mediaId);
+
+        // only the two rows whose highlight changed
+        if (oldIndex != -1) {
+            notifyItemChanged(oldIndex, PAYLOAD_SELECTION);
+        }
+        if (newIndex != -1) {
+            notifyItemChanged(newIndex, PAYLOAD_SELECTION);
+        }
     }
 
     public int getSelectedIndex() {
-        return mSelectedIndex;
+        return getIndexOfMediaId(mSelectedMediaId);
     }
 
-    public int getIndexOfItem(MediaMetadataCompat mediaItem) {
-        for (int i = 0; i < mMediaList.size(); i++) {
-            if (mMediaList.get(i).getDescription().getMediaId().equals(mediaItem.getDescription().getMediaId())) {
-                return i;
-            }
-        }
-        return -1;
+    public int getIndexOfItem(Track mediaItem) {
+        return getIndexOfMediaId(getMediaId(mediaItem));
+    }
+
+    // O(1), see MediaIdIndex
+    public int getIndexOfMediaId(String mediaId) {
+        return mIndex.indexOf(mediaId);
+    }
+
+    private static String getMediaId(Track media) {
+        return media.getMediaId();
     }
 
     public class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
@@ -93,7 +196,9 @@ public class PlaylistRecyclerAdapter extends RecyclerView.Adapter<RecyclerView.V
 
         @Override
         public void onClick(View view) {
-            iMediaSelector.onMediaSelected(getAdapterPosition());                                       // getting the position of the seleted media
+            if (getAdapterPosition() != RecyclerView.NO_POSITION) {
+                iMediaSelector.onMediaSelected(getAdapterPosition());                                   // getting the position of the seleted media
+            }
         }
     }
 
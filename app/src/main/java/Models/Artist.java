@@ -3,6 +3,8 @@ package Models;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import java.util.Objects;
+
 public class Artist implements Parcelable {
 
     private String title;
@@ -48,6 +50,26 @@ public class Artist implements Parcelable {
         }
     };
 
+    // value equality, so a playlist batch that replays an unchanged artist isn't a change
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Artist other = (Artist) o;
+        return Objects.equals(title, other.title)
+                && Objects.equals(image, other.image)
+                && Objects.equals(artist_id, other.artist_id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(title, image, artist_id);
+    }
+
     public String getTitle() {
         return title;
     }
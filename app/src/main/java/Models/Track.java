@@ -0,0 +1,173 @@
+package Models;
+
+import util.StringPool;
+
+/**
+ * Compact, immutable track of the app's catalog. Plain fields instead of a Bundle of boxed
+ * entries, with the values that repeat across a playlist (artist, artwork URL, the folder of
+ * the media URL) shared through {@link StringPool}.
+ *
+ * Converted to MediaMetadataCompat / MediaItem only where it crosses into the media session,
+ * see util.TrackConverter. Kept free of Android types so it can be exercised from plain JVM
+ * unit tests.
+ */
+public final class Track {
+
+    private static final int OBJECT_BYTES = 48;                                                     // header + 8 references
+    private static final int STRING_BYTES = 40;                                                     // String + char[] headers
+
+    private final String mMediaId;
+    private final String mTitle;
+    private final String mArtist;                                                                   // pooled
+    private final String mUriPrefix;                                                                // pooled, up to and including the last '/'
+    private final String mUriName;
+    private final String mDescription;
+    private final String mDate;
+    private final String mIconUri;                                                                  // pooled
+
+    private Track(Builder builder) {
+        mMediaId = builder.mMediaId;
+        mTitle = builder.mTitle;
+        mArtist = StringPool.intern(builder.mArtist);
+        mDescription = builder.mDescription;
+        mDate = builder.mDate;
+        mIconUri = StringPool.intern(builder.mIconUri);
+
+        String uri = builder.mMediaUri;
+        int slash = uri == null ? -1 : uri.lastIndexOf('/');
+        if (slash == -1) {
+            mUriPrefix = null;
+            mUriName = uri;
+        } else {
+            mUriPrefix = StringPool.intern(uri.substring(0, slash + 1));
+            mUriName = uri.substring(slash + 1);
+        }
+    }
+
+    public String getMediaId() {
+        return mMediaId;
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public String getArtist() {
+        return mArtist;
+    }
+
+    // builds the string, keep it out of hot loops
+    public String getMediaUri() {
+        if (mUriPrefix == null) {
+            return mUriName;
+        }
+        return mUriName == null ? mUriPrefix : mUriPrefix + mUriName;
+    }
+
+    public String getDescription() {
+        return mDescription;
+    }
+
+    public String getDate() {
+        return mDate;
+    }
+
+    public String getIconUri() {
+        return mIconUri;
+    }
+
+    /**
+     * Retained size of this track, not counting pooled strings (shared with other tracks).
+     */
+    public long estimateBytes() {
+        return OBJECT_BYTES + stringBytes(mMediaId) + stringBytes(mTitle) + stringBytes(mUriName)
+                + stringBytes(mDescription) + stringBytes(mDate);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Track)) {
+            return false;
+        }
+        Track other = (Track) o;
+        return equal(mMediaId, other.mMediaId)
+                && equal(mTitle, other.mTitle)
+                && equal(mArtist, other.mArtist)
+                && equal(mUriPrefix, other.mUriPrefix)
+                && equal(mUriName, other.mUriName)
+                && equal(mDescription, other.mDescription)
+                && equal(mDate, other.mDate)
+                && equal(mIconUri, other.mIconUri);
+    }
+
+    @Override
+    public int hashCode() {
+        return mMediaId == null ? 0 : mMediaId.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "Track{" + mMediaId + ", " + mTitle + "}";
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static long stringBytes(String value) {
+        return value == null ? 0 : STRING_BYTES + 2L * value.length();
+    }
+
+    public static class Builder {
+
+        private String mMediaId;
+        private String mTitle;
+        private String mArtist;
+        private String mMediaUri;
+        private String mDescription;
+        private String mDate;
+        private String mIconUri;
+
+        public Builder setMediaId(String mediaId) {
+            mMediaId = mediaId;
+            return this;
+        }
+
+        public Builder setTitle(String title) {
+            mTitle = title;
+            return this;
+        }
+
+        public Builder setArtist(String artist) {
+            mArtist = artist;
+            return this;
+        }
+
+        public Builder setMediaUri(String mediaUri) {
+            mMediaUri = mediaUri;
+            return this;
+        }
+
+        public Builder setDescription(String description) {
+            mDescription = description;
+            return this;
+        }
+
+        public Builder setDate(String date) {
+            mDate = date;
+            return this;
+        }
+
+        public Builder setIconUri(String iconUri) {
+            mIconUri = iconUri;
+            return this;
+        }
+
+        public Track build() {
+            return new Track(this);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package Players;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.spotifylearn.R;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
+import com.google.android.exoplayer2.upstream.FileDataSourceFactory;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSinkFactory;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSourceFactory;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+import com.google.android.exoplayer2.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded on-disk cache for streamed audio, sitting under the ExoPlayer data source.
+ *
+ * Replays and seeks back into already played regions are read from disk. Eviction is LRU with a
+ * size cap (R.integer.audio_cache_max_mb), tracks that were downloaded for offline are pinned
+ * and never evicted. Hit/miss counters are kept for the cache and the network.
+ *
+ * There can only be one SimpleCache per folder, so the app uses {@link #getInstance(Context)}.
+ * The constructor takes the upstream factory and the pinned key store, so the cache can be
+ * pointed at a local HTTP server and run without Android preferences.
+ */
+public class AudioCache {
+
+    private static final String TAG = "AudioCache";
+
+    private static final String CACHE_FOLDER = "audio_cache";
+    private static final String PREFERENCES_NAME = "audio_cache";
+    private static final String PINNED_KEYS = "PINNED_KEYS";
+    private static final long WARM_UP_BYTES = 256 * 1024;                                          // start of upcoming tracks, a few seconds of audio
+    private static final int READ_BUFFER_SIZE = 32 * 1024;
+
+    private static AudioCache instance;
+
+    private final SimpleCache mCache;
+    private final PinningLruCacheEvictor mEvictor;
+    private final CacheDataSourceFactory mDataSourceFactory;
+    private final IPinnedKeyStore mPinnedKeyStore;
+    private final ExecutorService mWarmUpExecutor = Executors.newSingleThreadExecutor();            // its own thread, a long download doesn't hold up the next track's start
+    private final ExecutorService mDownloadExecutor = Executors.newSingleThreadExecutor();
+
+    // counters
+    private final AtomicLong mCacheHits = new AtomicLong();                                         // reads served (partly) from disk
+    private final AtomicLong mCacheMisses = new AtomicLong();                                       // requests that went to the network
+    private final AtomicLong mBytesFromCache = new AtomicLong();
+    private final AtomicLong mBytesFromNetwork = new AtomicLong();
+
+    public static synchronized AudioCache getInstance(Context context){
+        if(instance == null){
+            Context appContext = context.getApplicationContext();
+            long maxBytes = appContext.getResources().getInteger(R.integer.audio_cache_max_mb) * 1024L * 1024L;
+            DataSource.Factory upstreamFactory = new DefaultDataSourceFactory(appContext, null,
+                    new DefaultHttpDataSourceFactory(Util.getUserAgent(appContext, "AudioStreamer")));
+            instance = new AudioCache(new File(appContext.getCacheDir(), CACHE_FOLDER), maxBytes, upstreamFactory,
+                    new PreferencesPinnedKeyStore(appContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)));
+        }
+        return instance;
+    }
+
+    /**
+     * @param upstreamFactory where cache misses are read from, every read through it counts as network
+     * @param pinnedKeyStore keeps the pinned keys across restarts
+     */
+    public AudioCache(File folder, long maxBytes, DataSource.Factory upstreamFactory, IPinnedKeyStore pinnedKeyStore) {
+        mPinnedKeyStore = pinnedKeyStore;
+        mEvictor = new PinningLruCacheEvictor(maxBytes, pinnedKeyStore.load());
+        mCache = new SimpleCache(folder, mEvictor);
+
+        mDataSourceFactory = new CacheDataSourceFactory(
+                mCache,
+                new NetworkDataSourceFactory(upstreamFactory),                                      // counted whichever stack it is
+                new FileDataSourceFactory(),
+                new CacheDataSinkFactory(mCache, CacheDataSource.DEFAULT_MAX_CACHE_FILE_SIZE),
+                CacheDataSource.FLAG_BLOCK_ON_CACHE | CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR,
+                new CacheEventListener());
+    }
+
+    // factory for the player, reads through the disk cache
+    public DataSource.Factory getDataSourceFactory(){
+        return mDataSourceFactory;
+    }
+
+    /**
+     * Reads the first few hundred KB of a track into the cache in the background, so starting it
+     * (or skipping to it) doesn't wait on the network.
+     */
+    public void warmUp(final Uri uri){
+        mWarmUpExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                readThrough(uri, WARM_UP_BYTES);
+            }
+        });
+    }
+
+    /**
+     * Downloads a whole track for offline playback. Pinned tracks are never evicted.
+     */
+    public void download(final Uri uri){
+        pin(uri);
+        mDownloadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                readThrough(uri, C.LENGTH_UNSET);
+            }
+        });
+    }
+
+    public void pin(Uri uri){
+        String key = uri.toString();
+        mEvictor.pin(mCache, key);
+        savePinnedKey(key, true);
+    }
+
+    public void unpin(Uri uri){
+        String key = uri.toString();
+        mEvictor.unpin(mCache, key);
+        savePinnedKey(key, false);
+    }
+
+    public boolean isPinned(Uri uri){
+        return mEvictor.isPinned(uri.toString());
+    }
+
+    public long getCacheHits(){
+        return mCacheHits.get();
+    }
+
+    public long getCacheMisses(){
+        return mCacheMisses.get();
+    }
+
+    public long getBytesFromCache(){
+        return mBytesFromCache.get();
+    }
+
+    public long getBytesFromNetwork(){
+        return mBytesFromNetwork.get();
+    }
+
+    public long getCacheSize(){
+        return mEvictor.getCurrentSize();
+    }
+
+    public long getPinnedSize(){
+        return mEvictor.getPinnedSize();
+    }
+
+    @Override
+    public String toString() {
+        return "AudioCache{hits=" + getCacheHits()
+                + ", misses=" + getCacheMisses()
+                + ", bytesFromCache=" + getBytesFromCache()
+                + ", bytesFromNetwork=" + getBytesFromNetwork()
+                + ", size=" + getCacheSize()
+                + ", pinned=" + getPinnedSize() + "}";
+    }
+
+    private void readThrough(Uri uri, long length){
+        DataSource source = mDataSourceFactory.createDataSource();
+        long bytesRead = 0;
+        try {
+            source.open(new DataSpec(uri, 0, length, null));
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            while (length == C.LENGTH_UNSET || bytesRead < length) {
+                int read = source.read(buffer, 0, buffer.length);
+                if (read == C.RESULT_END_OF_INPUT) {
+                    break;
+                }
+                bytesRead += read;
+            }
+            Log.d(TAG, "readThrough: CACHED " + bytesRead + " BYTES OF " + uri);
+        } catch (IOException e) {
+            Log.e(TAG, "readThrough: failed to cache " + uri, e);
+        } finally {
+            try {
+                source.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    private synchronized void savePinnedKey(String key, boolean pinned){
+        Set<String> keys = new HashSet<>(mPinnedKeyStore.load());
+        if(pinned){
+            keys.add(key);
+        }
+        else{
+            keys.remove(key);
+        }
+        mPinnedKeyStore.save(keys);
+    }
+
+    private class CacheEventListener implements CacheDataSource.EventListener {
+
+        @Override
+        public void onCachedBytesRead(long cacheSizeBytes, long cachedBytesRead) {
+            if(cachedBytesRead > 0){
+                mCacheHits.incrementAndGet();
+                mBytesFromCache.addAndGet(cachedBytesRead);
+            }
+        }
+
+        public void onCacheIgnored(int reason) {
+            Log.d(TAG, "onCacheIgnored: reason " + reason);
+        }
+    }
+
+    // wraps the upstream, so a transfer is counted however the factory builds its data sources
+    private class NetworkDataSourceFactory implements DataSource.Factory {
+
+        private final DataSource.Factory mUpstreamFactory;
+
+        NetworkDataSourceFactory(DataSource.Factory upstreamFactory) {
+            mUpstreamFactory = upstreamFactory;
+        }
+
+        @Override
+        public DataSource createDataSource() {
+            return new NetworkDataSource(mUpstreamFactory.createDataSource());
+        }
+    }
+
+    private class NetworkDataSource implements DataSource {
+
+        private final DataSource mUpstream;
+
+        NetworkDataSource(DataSource upstream) {
+            mUpstream = upstream;
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            long length = mUpstream.open(dataSpec);
+            mCacheMisses.incrementAndGet();                                                         // once connected, like onTransferStart
+            return length;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            int read = mUpstream.read(buffer, offset, readLength);
+            if(read > 0){
+                mBytesFromNetwork.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public Uri getUri() {
+            return mUpstream.getUri();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mUpstream.close();
+        }
+    }
+
+    private static class PreferencesPinnedKeyStore implements IPinnedKeyStore {
+
+        private final SharedPreferences mPreferences;
+
+        PreferencesPinnedKeyStore(SharedPreferences preferences) {
+            mPreferences = preferences;
+        }
+
+        @Override
+        public Set<String> load() {
+            return mPreferences.getStringSet(PINNED_KEYS, new HashSet<String>());
+        }
+
+        @Override
+        public void save(Set<String> keys) {
+            mPreferences.edit().putStringSet(PINNED_KEYS, keys).apply();
+        }
+    }
+
+    /**
+     * Where the keys of the tracks downloaded for offline are kept, load() is read once when the
+     * cache is created.
+     */
+    public interface IPinnedKeyStore {
+        Set<String> load();
+
+        void save(Set<String> keys);
+    }
+}
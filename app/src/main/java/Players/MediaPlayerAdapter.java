@@ -3,6 +3,7 @@ package Players;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.SystemClock;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
@@ -10,6 +11,7 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 
+import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.DefaultLoadControl;
 import com.google.android.exoplayer2.DefaultRenderersFactory;
 import com.google.android.exoplayer2.ExoPlaybackException;
@@ -18,6 +20,7 @@ import com.google.android.exoplayer2.PlaybackParameters;
 import com.google.android.exoplayer2.Player;
 import com.google.android.exoplayer2.SimpleExoPlayer;
 import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.source.ConcatenatingMediaSource;
 import com.google.android.exoplayer2.source.ExtractorMediaSource;
 import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.source.TrackGroupArray;
@@ -25,18 +28,35 @@ import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.google.android.exoplayer2.trackselection.TrackSelector;
 import com.google.android.exoplayer2.upstream.DataSource;
-import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
-import com.google.android.exoplayer2.util.Util;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class MediaPlayerAdapter extends PlayerAdapter {
 
     private static final String TAG = "MediaPlayerAdapter";
 
+    public static final int PREFETCH_WINDOW = 2;                // upcoming queue items kept in the timeline
+    private static final int KEEP_BEHIND = 1;                   // played items kept in the timeline, skip to previous is a seek too
+
     private MediaMetadataCompat mCurrentMedia;
     private boolean mCurrentMediaPlayedToCompletion;
     private int mState;                                         // state of the exoPlayer
-    private long mStartTime;
+    private String mDurationMediaId;                            // media id the duration was last published for
+    private boolean mRepeatOne;                                 // the player loops the current track, the queue doesn't move
     private PlaybackInfoListener mPlaybackInfoListener;
+    private final PlaybackClock mPlaybackClock;                 // the only ticker, runs while playing
+    private final PlaybackMetrics mMetrics = new PlaybackMetrics(new PlaybackMetrics.Clock() {
+        @Override
+        public long now() {
+            return SystemClock.elapsedRealtime();
+        }
+    });
+
+    // the session queue around the current item, played back as one timeline so the player
+    // (and its connections and buffers) survive track changes. mTimelineMedia[i] is window i.
+    private ConcatenatingMediaSource mTimelineSource;
+    private final List<MediaMetadataCompat> mTimelineMedia = new ArrayList<>();
 
     // ExoPlayer objects
     private SimpleExoPlayer mExoPlayer;
@@ -47,32 +67,75 @@ public class MediaPlayerAdapter extends PlayerAdapter {
 
     private final Context mContext;
 
-    public MediaPlayerAdapter(@NonNull Context context,PlaybackInfoListener mPlaybackInfoListener) {
-        super(context);
+    /**
+     * All calls must be made on playerLooper, the ExoPlayer is created on it and reports
+     * its events there too.
+     */
+    public MediaPlayerAdapter(@NonNull Context context, PlaybackInfoListener mPlaybackInfoListener, @NonNull Looper playerLooper) {
+        super(context, playerLooper);
         mContext = context.getApplicationContext();
         this.mPlaybackInfoListener = mPlaybackInfoListener;
+
+        final Handler handler = getPlayerHandler();
+        mPlaybackClock = new PlaybackClock(new PlaybackClock.Scheduler() {
+            @Override
+            public void postDelayed(Runnable runnable, long delayMillis) {
+                handler.postDelayed(runnable, delayMillis);
+            }
+
+            @Override
+            public void removeCallbacks(Runnable runnable) {
+                handler.removeCallbacks(runnable);
+            }
+        }, new PlaybackClock.Listener() {
+            @Override
+            public void onTick() {
+                if (mExoPlayer != null) {
+                    MediaPlayerAdapter.this.mPlaybackInfoListener.onPositionCheckpoint(mExoPlayer.getCurrentPosition());
+                }
+            }
+        });
+    }
+
+    /**
+     * Whether a UI is showing the playback, the clock ticks less often without one.
+     */
+    public void setUiAttached(boolean uiAttached) {
+        mPlaybackClock.setUiAttached(uiAttached);
+    }
+
+    /**
+     * Latency histograms of this session, the service marks the requests, the player resolves them.
+     */
+    public PlaybackMetrics getMetrics() {
+        return mMetrics;
     }
 
     private void initializeExoPlayer(){
         if (mExoPlayer == null) {
             mTrackSelector = new DefaultTrackSelector();
             mRenderersFactory = new DefaultRenderersFactory(mContext);
-            mDataSourceFactory = new DefaultDataSourceFactory(mContext, Util.getUserAgent(mContext, "AudioStreamer"));
+            mDataSourceFactory = AudioCache.getInstance(mContext).getDataSourceFactory();          // reads through the on-disk audio cache
             mExoPlayer = ExoPlayerFactory.newSimpleInstance(mRenderersFactory, mTrackSelector, new DefaultLoadControl());
 
             if(mExoPlayerEventListener == null){
                 mExoPlayerEventListener = new ExoPlayerEventListener();
             }
 
-//            mExoPlayer.addListener(mExoPlayerEventListener);
+            mExoPlayer.addListener(mExoPlayerEventListener);
+            mExoPlayer.setRepeatMode(mRepeatOne ? Player.REPEAT_MODE_ONE : Player.REPEAT_MODE_OFF);
         }
     }
 
     private void release() {
+        mPlaybackClock.stop();
         if (mExoPlayer != null) {
+            mExoPlayer.removeListener(mExoPlayerEventListener);
             mExoPlayer.release();
             mExoPlayer = null;
         }
+        mTimelineSource = null;
+        mTimelineMedia.clear();
     }
 
     @Override
@@ -89,6 +152,7 @@ public class MediaPlayerAdapter extends PlayerAdapter {
     @Override
     protected void onPause() {
         //getPlayWhenReady() boolean that checks if there is a file playing or not
+        mMetrics.onPlaybackHalted();
 
         if (mExoPlayer != null && mExoPlayer.getPlayWhenReady()) {
             mExoPlayer.setPlayWhenReady(false);
@@ -100,9 +164,12 @@ public class MediaPlayerAdapter extends PlayerAdapter {
     public void playFromMedia(MediaMetadataCompat metadata) {
 
         //CALLED WHEN THE A SONG IS SELECTED TO BE STREAMED
-        startTrackingPlayback();
         playFile(metadata);
 
+        // the service just set fresh metadata, re-send the duration if the window already has one
+        mDurationMediaId = null;
+        publishDuration();
+
     }
     @Override
     public MediaMetadataCompat getCurrentMedia() {
@@ -121,6 +188,7 @@ public class MediaPlayerAdapter extends PlayerAdapter {
         // Regardless of whether or not the ExoPlayer has been created / started, the state must
         // be updated, so that MediaNotificationManager can take down the notification.
         Log.d(TAG, "onStop: stopped");
+        mMetrics.onPlaybackHalted();
         setNewState(PlaybackStateCompat.STATE_STOPPED);
         release();   // release exoPlayer when stopped playing media
     }
@@ -156,6 +224,13 @@ public class MediaPlayerAdapter extends PlayerAdapter {
             mCurrentMediaPlayedToCompletion = true;
         }
 
+        if (mState == PlaybackStateCompat.STATE_PLAYING) {
+            mPlaybackClock.start();                                                                 // no-op when it's already running
+        }
+        else {
+            mPlaybackClock.stop();
+        }
+
 
         final long reportPosition = mExoPlayer == null ? 0 : mExoPlayer.getCurrentPosition();
 
@@ -174,82 +249,164 @@ public class MediaPlayerAdapter extends PlayerAdapter {
             // player was released, so force a reload of the media file for playback.
 
             // set up play for next play
-            mediaChanged = true;   // then we can release exo player
+            mediaChanged = true;
             mCurrentMediaPlayedToCompletion = false;
 
         }
-        if (!mediaChanged) {
+        if (!mediaChanged && mExoPlayer != null && mExoPlayer.getPlaybackState() != Player.STATE_ENDED) {
 
             //we clicked the same song
             if (!isPlaying()) {
                 // if the song wan't playing, we play it
                 play();
             }
+            else {
+                mMetrics.onRequestIgnored();                                                        // already audible, e.g. the queue catching up with a gapless transition
+            }
             // song is already playing so kill method
             return;
         }
-        else {
-
-            // release exoPlayer so we play new song,
-            release();
-        }
 
         mCurrentMedia = metadata; //init new song
 
         initializeExoPlayer();
 
-        try {
-            // setting the source to be played
-            MediaSource audioSource =
-                    new ExtractorMediaSource.Factory(mDataSourceFactory)
-                            .createMediaSource(Uri.parse(metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI))); // turning metaData file in media sawce
+        int window = indexOfWindow(mediaId);
+        if (window != -1) {
+            // already in the timeline (usually prefetched), a seek instead of a new player
+            Log.d(TAG, "playFile: SEEKING TO WINDOW " + window);
+            mExoPlayer.seekTo(window, 0);
+        }
+        else {
+            // not queued yet, start a new timeline with this track
+            try {
+                mTimelineSource = new ConcatenatingMediaSource();
+                mTimelineMedia.clear();
+                appendToTimeline(metadata);
 
-            mExoPlayer.prepare(audioSource);                                                        // you have to  prepare the sauce :D :D :D
-            Log.d(TAG, "onPlayerStateChanged: PREPARE");
+                mExoPlayer.prepare(mTimelineSource);                                                // you have to  prepare the sauce :D :D :D
+                Log.d(TAG, "onPlayerStateChanged: PREPARE");
 
-        } catch (Exception e) {
+            } catch (Exception e) {
 
-            throw new RuntimeException("Failed to play media uri: "
-                    + metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI), e);
+                throw new RuntimeException("Failed to play media uri: "
+                        + metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI), e);
+            }
         }
 
-        play();
+        if (isPlaying()) {
+            setNewState(PlaybackStateCompat.STATE_PLAYING);                                         // player kept playing, publish the new track
+        }
+        else {
+            play();
+        }
 
     }
 
-    private void startTrackingPlayback() {
+    /**
+     * Keeps the tracks that follow the current one in the timeline, so the player buffers into
+     * them and skipping to one of them is a seek. upcoming is in queue order, only the first
+     * {@link #PREFETCH_WINDOW} items are used.
+     */
+    @Override
+    public void setUpcomingMedia(List<MediaMetadataCompat> upcoming) {
+        if (mExoPlayer == null || mTimelineSource == null || mCurrentMedia == null) {
+            return;
+        }
+        int current = indexOfWindow(mCurrentMedia.getDescription().getMediaId());
+        if (current == -1) {
+            return;
+        }
 
-        // UPDATES THE SEEKBAR
-        final Handler handler = new Handler();
-        final Runnable runnable = new Runnable() {
-            @Override
-            public void run() {
-                if (isPlaying()) {
-                    mPlaybackInfoListener.onSeekTo(
-                            mExoPlayer.getContentPosition(), mExoPlayer.getDuration()
-                    );
-                    handler.postDelayed(this, 100);
-                }
+        // drop played windows we no longer need, removing windows before the playing one doesn't interrupt it
+        while (current > KEEP_BEHIND) {
+            removeWindow(0);
+            current--;
+        }
+
+        // keep the matching prefix of what is already queued after the current window
+        int count = Math.min(upcoming.size(), PREFETCH_WINDOW);
+        int matched = 0;
+        while (matched < count && current + 1 + matched < mTimelineMedia.size()
+                && sameMedia(mTimelineMedia.get(current + 1 + matched), upcoming.get(matched))) {
+            matched++;
+        }
+        while (mTimelineMedia.size() > current + 1 + matched) {
+            removeWindow(mTimelineMedia.size() - 1);
+        }
+        for (int i = matched; i < count; i++) {
+            appendToTimeline(upcoming.get(i));
+            // the player only loads the next window once the current one is fully buffered,
+            // warm the start of it on disk so skipping to it doesn't wait on the network
+            AudioCache.getInstance(mContext).warmUp(
+                    Uri.parse(upcoming.get(i).getString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI)));
+        }
+    }
 
-                if(mExoPlayer.getContentPosition() >= mExoPlayer.getDuration()
-                        && mExoPlayer.getDuration() > 0){
+    /**
+     * Loops the current track in the player. Shuffle and the other repeat modes are the
+     * service's business, it picks what goes into the timeline next.
+     */
+    @Override
+    public void setRepeatOne(boolean repeatOne) {
+        mRepeatOne = repeatOne;
+        if (mExoPlayer != null) {
+            mExoPlayer.setRepeatMode(repeatOne ? Player.REPEAT_MODE_ONE : Player.REPEAT_MODE_OFF);
+        }
+    }
 
-                    //mExoPlayer.getContentPosition() is the current position while mExoPlayer.getDuration() is the max position
-                    mPlaybackInfoListener.onPlaybackComplete();
-                }
+    private void appendToTimeline(MediaMetadataCompat metadata) {
+        MediaSource audioSource =
+                new ExtractorMediaSource.Factory(mDataSourceFactory)
+                        .createMediaSource(Uri.parse(metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI))); // turning metaData file in media sawce
+        mTimelineSource.addMediaSource(audioSource);
+        mTimelineMedia.add(metadata);
+    }
+
+    private void removeWindow(int index) {
+        mTimelineSource.removeMediaSource(index);
+        mTimelineMedia.remove(index);
+    }
+
+    private int indexOfWindow(String mediaId) {
+        for (int i = 0; i < mTimelineMedia.size(); i++) {                                          // at most PREFETCH_WINDOW + KEEP_BEHIND + 1 items
+            if (mediaId.equals(mTimelineMedia.get(i).getDescription().getMediaId())) {
+                return i;
             }
-        };
+        }
+        return -1;
+    }
+
+    private static boolean sameMedia(MediaMetadataCompat a, MediaMetadataCompat b) {
+        return a.getDescription().getMediaId().equals(b.getDescription().getMediaId());
+    }
 
-        handler.postDelayed(runnable, 100);
+    private void publishDuration() {
+        // the seek bar max, sent once per track as soon as the player knows it
+        if (mExoPlayer == null || mCurrentMedia == null) {
+            return;
+        }
+        long duration = mExoPlayer.getDuration();
+        String mediaId = mCurrentMedia.getDescription().getMediaId();
+        if (duration == C.TIME_UNSET || mediaId.equals(mDurationMediaId)) {
+            return;
+        }
+        mDurationMediaId = mediaId;
+        mPlaybackInfoListener.onDurationChanged(mCurrentMedia, duration);
     }
 
     private void publishStateBuilder(long reportPosition){
 
+        // position is only published on changes (play, pause, seek, buffering, new track), clients
+        // extrapolate it from the update time and speed. Speed is 0 while the player is buffering.
+        boolean advancing = mState == PlaybackStateCompat.STATE_PLAYING
+                && mExoPlayer != null && mExoPlayer.getPlaybackState() == Player.STATE_READY;
+
         final PlaybackStateCompat.Builder stateBuilder = new PlaybackStateCompat.Builder();         // sends states to the mSession in the session class
         stateBuilder.setActions(getAvailableActions());
         stateBuilder.setState(mState,
                 reportPosition,
-                1.0f,
+                advancing ? 1.0f : 0f,
                 SystemClock.elapsedRealtime());
         mPlaybackInfoListener.onPlaybackStateChange(stateBuilder.build());                          // This method is also called in the session
         mPlaybackInfoListener.updateUI(mCurrentMedia.getDescription().getMediaId());                // sending the id of the currently playing media to the service
@@ -266,7 +423,10 @@ public class MediaPlayerAdapter extends PlayerAdapter {
         long actions = PlaybackStateCompat.ACTION_PLAY_FROM_MEDIA_ID
                 | PlaybackStateCompat.ACTION_PLAY_FROM_SEARCH
                 | PlaybackStateCompat.ACTION_SKIP_TO_NEXT
-                | PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS;
+                | PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS
+                | PlaybackStateCompat.ACTION_SKIP_TO_QUEUE_ITEM
+                | PlaybackStateCompat.ACTION_SET_SHUFFLE_MODE
+                | PlaybackStateCompat.ACTION_SET_REPEAT_MODE;
 
         switch (mState) {
             case PlaybackStateCompat.STATE_STOPPED:
@@ -296,9 +456,11 @@ public class MediaPlayerAdapter extends PlayerAdapter {
     // listener for the exoPlayer
     private class ExoPlayerEventListener implements Player.EventListener{
 
+        private int mLastPlaybackState = Player.STATE_IDLE;
+
         @Override
         public void onTimelineChanged(Timeline timeline, Object manifest, int reason) {
-
+            publishDuration();
         }
 
         @Override
@@ -313,14 +475,23 @@ public class MediaPlayerAdapter extends PlayerAdapter {
 
         @Override
         public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+            boolean stateChanged = playbackState != mLastPlaybackState;
+            mLastPlaybackState = playbackState;
             switch (playbackState){
                 case Player.STATE_ENDED:{
-                    setNewState(PlaybackStateCompat.STATE_PAUSED);
+                    // the last track in the timeline finished, let the service pick what's next
+                    if(stateChanged){
+                        mMetrics.onPlaybackHalted();
+                        mPlaybackInfoListener.onPlaybackComplete();
+                    }
                     break;
                 }
                 case Player.STATE_BUFFERING:{
                     Log.d(TAG, "onPlayerStateChanged: BUFFERING");
-                    mStartTime = System.currentTimeMillis();
+                    mMetrics.onBuffering();
+                    if(stateChanged && mState == PlaybackStateCompat.STATE_PLAYING){
+                        setNewState(mState);                                                        // position stops advancing
+                    }
                     break;
                 }
                 case Player.STATE_IDLE:{
@@ -329,8 +500,11 @@ public class MediaPlayerAdapter extends PlayerAdapter {
                 }
                 case Player.STATE_READY:{
                     Log.d(TAG, "onPlayerStateChanged: READY");
-                    Log.d(TAG, "onPlayerStateChanged: TIME ELAPSED: " + (System.currentTimeMillis() - mStartTime));
-                    //shouldn't we reset mStartTime?
+                    mMetrics.onReady(playWhenReady);                                                // resolves a pending play, skip or seek, ends a rebuffer
+                    publishDuration();
+                    if(stateChanged && mState == PlaybackStateCompat.STATE_PLAYING){
+                        setNewState(mState);                                                        // position starts advancing again
+                    }
                     break;
                 }
             }
@@ -338,20 +512,40 @@ public class MediaPlayerAdapter extends PlayerAdapter {
 
         @Override
         public void onRepeatModeChanged(int repeatMode) {
-
+            Log.d(TAG, "onRepeatModeChanged: " + repeatMode);
         }
 
         @Override
         public void onShuffleModeEnabledChanged(boolean shuffleModeEnabled) {
+            // never turned on, the service shuffles its own queue and feeds the timeline in that order
+            Log.d(TAG, "onShuffleModeEnabledChanged: " + shuffleModeEnabled);
         }
 
         @Override
         public void onPlayerError(ExoPlaybackException error) {
-
+            Log.e(TAG, "onPlayerError: " + error.getMessage());
+            mMetrics.onPlaybackHalted();
         }
 
         @Override
         public void onPositionDiscontinuity(int reason) {
+            if (reason == Player.DISCONTINUITY_REASON_PERIOD_TRANSITION) {
+                // the player moved on to the next (already buffered) track by itself
+                int window = mExoPlayer.getCurrentWindowIndex();
+                if (window < 0 || window >= mTimelineMedia.size()) {
+                    return;
+                }
+                if (mCurrentMedia != null && sameMedia(mTimelineMedia.get(window), mCurrentMedia)) {
+                    Log.d(TAG, "onPositionDiscontinuity: REPEATING WINDOW " + window);             // repeat one looped the track, the queue stays put
+                    setNewState(mState);
+                    return;
+                }
+                mCurrentMedia = mTimelineMedia.get(window);
+                Log.d(TAG, "onPositionDiscontinuity: GAPLESS TRANSITION TO WINDOW " + window);
+                setNewState(mState);                                                                // publish the new track
+                publishDuration();
+                mPlaybackInfoListener.onPlaybackComplete();                                         // the service advances its queue, which resolves to this window
+            }
         }
 
         @Override
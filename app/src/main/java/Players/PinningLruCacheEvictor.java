@@ -0,0 +1,139 @@
+package Players;
+
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.CacheSpan;
+
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Least recently used evictor (same policy as ExoPlayer's LeastRecentlyUsedCacheEvictor) that
+ * never evicts spans of pinned keys. Pinned spans are the "downloaded for offline" tracks, they
+ * don't count against the size cap.
+ *
+ * Lock order is always cache -> evictor, SimpleCache calls into the evictor while holding its
+ * own lock, so pin/unpin take the cache lock first.
+ */
+public class PinningLruCacheEvictor implements CacheEvictor, Comparator<CacheSpan> {
+
+    private final long mMaxBytes;
+    private final TreeSet<CacheSpan> mLeastRecentlyUsed;
+    private final Set<String> mPinnedKeys = new HashSet<>();
+    private long mCurrentSize;                                                                      // bytes of evictable spans
+    private long mPinnedSize;                                                                       // bytes of pinned spans
+
+    public PinningLruCacheEvictor(long maxBytes, Set<String> pinnedKeys) {
+        mMaxBytes = maxBytes;
+        mLeastRecentlyUsed = new TreeSet<>(this);
+        mPinnedKeys.addAll(pinnedKeys);
+    }
+
+    public void pin(Cache cache, String key) {
+        synchronized (cache) {
+            synchronized (this) {
+                if (!mPinnedKeys.add(key)) {
+                    return;
+                }
+                for (CacheSpan span : cache.getCachedSpans(key)) {
+                    if (mLeastRecentlyUsed.remove(span)) {
+                        mCurrentSize -= span.length;
+                        mPinnedSize += span.length;
+                    }
+                }
+            }
+        }
+    }
+
+    public void unpin(Cache cache, String key) {
+        synchronized (cache) {
+            synchronized (this) {
+                if (!mPinnedKeys.remove(key)) {
+                    return;
+                }
+                for (CacheSpan span : cache.getCachedSpans(key)) {
+                    mLeastRecentlyUsed.add(span);
+                    mCurrentSize += span.length;
+                    mPinnedSize -= span.length;
+                }
+                evictCache(cache, 0);
+            }
+        }
+    }
+
+    public synchronized boolean isPinned(String key) {
+        return mPinnedKeys.contains(key);
+    }
+
+    public synchronized long getCurrentSize() {
+        return mCurrentSize;
+    }
+
+    public synchronized long getPinnedSize() {
+        return mPinnedSize;
+    }
+
+    public boolean requiresCacheSpanTouches() {
+        return true;
+    }
+
+    @Override
+    public void onCacheInitialized() {
+        // Do nothing.
+    }
+
+    @Override
+    public synchronized void onStartFile(Cache cache, String key, long position, long length) {
+        if (!mPinnedKeys.contains(key)) {
+            evictCache(cache, length);
+        }
+    }
+
+    @Override
+    public synchronized void onSpanAdded(Cache cache, CacheSpan span) {
+        if (mPinnedKeys.contains(span.key)) {
+            mPinnedSize += span.length;
+            return;
+        }
+        mLeastRecentlyUsed.add(span);
+        mCurrentSize += span.length;
+        evictCache(cache, 0);
+    }
+
+    @Override
+    public synchronized void onSpanRemoved(Cache cache, CacheSpan span) {
+        if (mLeastRecentlyUsed.remove(span)) {
+            mCurrentSize -= span.length;
+        } else if (mPinnedKeys.contains(span.key)) {
+            mPinnedSize -= span.length;
+        }
+    }
+
+    @Override
+    public synchronized void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+        onSpanRemoved(cache, oldSpan);
+        onSpanAdded(cache, newSpan);
+    }
+
+    @Override
+    public int compare(CacheSpan lhs, CacheSpan rhs) {
+        long lastAccessTimestampDelta = lhs.lastAccessTimestamp - rhs.lastAccessTimestamp;
+        if (lastAccessTimestampDelta == 0) {
+            // Use the standard compareTo method as a tie-break.
+            return lhs.compareTo(rhs);
+        }
+        return lhs.lastAccessTimestamp < rhs.lastAccessTimestamp ? -1 : 1;
+    }
+
+    private void evictCache(Cache cache, long requiredSpace) {
+        while (mCurrentSize + requiredSpace > mMaxBytes && !mLeastRecentlyUsed.isEmpty()) {
+            try {
+                cache.removeSpan(mLeastRecentlyUsed.first());
+            } catch (Cache.CacheException e) {
+                // do nothing.
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package Players;
+
+/**
+ * The one playback ticker of a player. There is a single Runnable, start() and stop() are
+ * idempotent, so track changes never stack up extra tickers. The clock runs only while playing,
+ * and ticks at {@link #BACKGROUND_INTERVAL_MS} instead of {@link #UI_INTERVAL_MS} while no UI
+ * is attached.
+ *
+ * Completion isn't polled here, the player reports it from STATE_ENDED / period transitions.
+ * The scheduler is injected (a Handler in the app) so the clock can be tested on the JVM.
+ */
+public class PlaybackClock {
+
+    public static final long UI_INTERVAL_MS = 5_000;                                                // position checkpoints while the app is in front
+    public static final long BACKGROUND_INTERVAL_MS = 30_000;                                       // only needed for resume after the process dies
+
+    private final Scheduler mScheduler;
+    private final Listener mListener;
+    private boolean mRunning;
+    private boolean mUiAttached;
+    private long mTickCount;
+
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning) {
+                return;
+            }
+            mTickCount++;
+            mListener.onTick();
+            if (mRunning) {                                                                         // onTick may have stopped the clock
+                mScheduler.postDelayed(this, getInterval());
+            }
+        }
+    };
+
+    public PlaybackClock(Scheduler scheduler, Listener listener) {
+        mScheduler = scheduler;
+        mListener = listener;
+    }
+
+    public void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mScheduler.postDelayed(mTick, getInterval());
+    }
+
+    public void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        mScheduler.removeCallbacks(mTick);
+    }
+
+    public void setUiAttached(boolean uiAttached) {
+        if (mUiAttached == uiAttached) {
+            return;
+        }
+        mUiAttached = uiAttached;
+        if (mRunning) {
+            // reschedule the pending tick with the new interval
+            mScheduler.removeCallbacks(mTick);
+            mScheduler.postDelayed(mTick, getInterval());
+        }
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    public boolean isUiAttached() {
+        return mUiAttached;
+    }
+
+    public long getTickCount() {
+        return mTickCount;
+    }
+
+    public long getInterval() {
+        return mUiAttached ? UI_INTERVAL_MS : BACKGROUND_INTERVAL_MS;
+    }
+
+    public interface Scheduler {
+        void postDelayed(Runnable runnable, long delayMillis);
+
+        void removeCallbacks(Runnable runnable);
+    }
+
+    public interface Listener {
+        void onTick();
+    }
+}
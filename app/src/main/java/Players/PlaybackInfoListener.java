@@ -1,5 +1,6 @@
 package Players;
 
+import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 
 //SENDS STATE FROM EXO PLAYER TO THE SERVICE
@@ -8,10 +9,12 @@ public interface PlaybackInfoListener {
 
     void onPlaybackStateChange(PlaybackStateCompat state);
 
-    void onSeekTo(long progress, long max);
+    void onDurationChanged(MediaMetadataCompat media, long duration);                             // positions are extrapolated by clients from the state
 
     void onPlaybackComplete();
 
+    void onPositionCheckpoint(long position);                                                       // periodic while playing, for resuming later
+
     void updateUI(String newMediaId);
 
 }
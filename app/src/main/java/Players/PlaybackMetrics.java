@@ -0,0 +1,239 @@
+package Players;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Playback latency of one service session: how long from a play request to audio
+ * (time to first audio), from a skip to audio, from a seek to the player being ready again, and
+ * how often and how long playback stalled (rebuffers).
+ *
+ * Fed from two sides: the session commands mark what was requested, the player's state changes
+ * resolve it. "Audio" is the player reaching READY with play-when-ready set, the closest thing
+ * to sound ExoPlayer reports. A request that's abandoned (pause, stop, error) records nothing.
+ *
+ * Thread safe, dumpsys reads it from a binder thread. The clock is injected (SystemClock in the
+ * app) so it can be tested on the JVM.
+ */
+public class PlaybackMetrics {
+
+    private final Clock mClock;
+
+    private final Histogram mFirstAudio = new Histogram("time_to_first_audio");
+    private final Histogram mSkipToAudio = new Histogram("skip_to_audio");
+    private final Histogram mSeek = new Histogram("seek");
+    private final Histogram mRebuffer = new Histogram("rebuffer");
+
+    private long mRequestedAt = -1;                                                                 // pending play / skip, -1 when none
+    private boolean mRequestIsSkip;
+    private long mSeekRequestedAt = -1;
+    private long mRebufferStartedAt = -1;
+    private boolean mAudible;                                                                       // ready and playing, buffering now is a rebuffer
+    private long mStartedAt;
+
+    public PlaybackMetrics(Clock clock) {
+        mClock = clock;
+        mStartedAt = clock.now();
+    }
+
+    /**
+     * Play, or play from a media id. Counts as a skip when something was already audible.
+     * Doesn't restart a pending request, a skip calls play() too.
+     */
+    public synchronized void onPlayRequested() {
+        if (mRequestedAt != -1) {
+            return;
+        }
+        mRequestedAt = mClock.now();
+        mRequestIsSkip = mAudible;
+    }
+
+    public synchronized void onSkipRequested() {
+        mRequestedAt = mClock.now();
+        mRequestIsSkip = true;
+    }
+
+    /**
+     * The request changed nothing, the track was already playing (a gapless transition the
+     * queue catches up with, or play while playing). Nothing to time.
+     */
+    public synchronized void onRequestIgnored() {
+        mRequestedAt = -1;
+    }
+
+    public synchronized void onSeekRequested() {
+        mSeekRequestedAt = mClock.now();
+    }
+
+    public synchronized void onBuffering() {
+        if (mAudible && mRequestedAt == -1 && mSeekRequestedAt == -1 && mRebufferStartedAt == -1) {
+            mRebufferStartedAt = mClock.now();                                                      // stalled on its own, not because of a command
+        }
+        mAudible = false;
+    }
+
+    public synchronized void onReady(boolean playWhenReady) {
+        long now = mClock.now();
+        if (mSeekRequestedAt != -1) {
+            mSeek.record(now - mSeekRequestedAt);                                                   // a seek is done once it's ready, playing or not
+            mSeekRequestedAt = -1;
+        }
+        if (!playWhenReady) {
+            return;
+        }
+        if (mRequestedAt != -1) {
+            (mRequestIsSkip ? mSkipToAudio : mFirstAudio).record(now - mRequestedAt);
+            mRequestedAt = -1;
+        }
+        endRebuffer(now);
+        mAudible = true;
+    }
+
+    /**
+     * Paused, stopped, ended or failed: pending requests are dropped, a stall ends.
+     */
+    public synchronized void onPlaybackHalted() {
+        endRebuffer(mClock.now());
+        mRequestedAt = -1;
+        mSeekRequestedAt = -1;
+        mAudible = false;
+    }
+
+    public synchronized void reset() {
+        mFirstAudio.clear();
+        mSkipToAudio.clear();
+        mSeek.clear();
+        mRebuffer.clear();
+        mStartedAt = mClock.now();
+    }
+
+    // copies, so the caller can read them without holding the lock
+    public synchronized Histogram[] getHistograms() {
+        return new Histogram[]{mFirstAudio.copy(), mSkipToAudio.copy(), mSeek.copy(), mRebuffer.copy()};
+    }
+
+    public synchronized long getRebufferCount() {
+        return mRebuffer.getCount();
+    }
+
+    public synchronized long getSessionMillis() {
+        return mClock.now() - mStartedAt;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder report = new StringBuilder("PlaybackMetrics{session=" + getSessionMillis() / 1000 + "s");
+        for (Histogram histogram : new Histogram[]{mFirstAudio, mSkipToAudio, mSeek, mRebuffer}) {
+            report.append("\n  ").append(histogram);
+        }
+        return report.append("}").toString();
+    }
+
+    private void endRebuffer(long now) {
+        if (mRebufferStartedAt != -1) {
+            mRebuffer.record(now - mRebufferStartedAt);
+            mRebufferStartedAt = -1;
+        }
+    }
+
+    /**
+     * Millisecond latencies in fixed, roughly logarithmic buckets. Percentiles are the upper bound
+     * of the bucket they fall in, capped at the max seen.
+     */
+    public static class Histogram {
+
+        // upper bounds in ms, the last bucket takes everything above
+        private static final long[] BOUNDS = {10, 25, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 30_000};
+
+        private final String mName;
+        private long[] mCounts = new long[BOUNDS.length + 1];
+        private long mCount;
+        private long mSum;
+        private long mMax;
+
+        public Histogram(String name) {
+            mName = name;
+        }
+
+        public void record(long millis) {
+            millis = Math.max(0, millis);
+            int bucket = Arrays.binarySearch(BOUNDS, millis);
+            mCounts[bucket >= 0 ? bucket : -bucket - 1]++;
+            mCount++;
+            mSum += millis;
+            mMax = Math.max(mMax, millis);
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getTotal() {
+            return mSum;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public long getMean() {
+            return mCount == 0 ? 0 : mSum / mCount;
+        }
+
+        /**
+         * percentile in 0..100, 0 when nothing was recorded.
+         */
+        public long getPercentile(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(mCount * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    return i < BOUNDS.length ? Math.min(BOUNDS[i], mMax) : mMax;
+                }
+            }
+            return mMax;
+        }
+
+        public static long[] getBucketBounds() {
+            return BOUNDS.clone();
+        }
+
+        public long[] getBucketCounts() {
+            return mCounts.clone();
+        }
+
+        void clear() {
+            Arrays.fill(mCounts, 0);
+            mCount = 0;
+            mSum = 0;
+            mMax = 0;
+        }
+
+        Histogram copy() {
+            Histogram copy = new Histogram(mName);
+            copy.mCounts = mCounts.clone();
+            copy.mCount = mCount;
+            copy.mSum = mSum;
+            copy.mMax = mMax;
+            return copy;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s: n=%d mean=%dms p50=%dms p90=%dms p99=%dms max=%dms",
+                    mName, mCount, getMean(), getPercentile(50), getPercentile(90), getPercentile(99), mMax);
+        }
+    }
+
+    public interface Clock {
+        long now();
+    }
+}
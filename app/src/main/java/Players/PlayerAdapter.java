@@ -5,11 +5,15 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.media.AudioManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.media.MediaMetadataCompat;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
+import java.util.List;
+
 public abstract class PlayerAdapter {
 
     private static final String TAG = "PlayerAdapter";
@@ -21,14 +25,20 @@ public abstract class PlayerAdapter {
     private final Context mApplicationContext;
     private final AudioManager mAudioManager;
     private final AudioFocusHelper mAudioFocusHelper;
+    private final Handler mPlayerHandler;                                                           // everything in the adapter runs on this looper
     private boolean mPlayOnAudioFocus = false;
 
 
 
-    public PlayerAdapter(@NonNull Context context) {
+    public PlayerAdapter(@NonNull Context context, @NonNull Looper playerLooper) {
         mApplicationContext = context.getApplicationContext();
         mAudioManager = (AudioManager) mApplicationContext.getSystemService(Context.AUDIO_SERVICE);
         mAudioFocusHelper = new AudioFocusHelper();
+        mPlayerHandler = new Handler(playerLooper);
+    }
+
+    protected Handler getPlayerHandler() {
+        return mPlayerHandler;
     }
 
 
@@ -73,6 +83,10 @@ public abstract class PlayerAdapter {
 
     public abstract void playFromMedia(MediaMetadataCompat metadata);
 
+    public abstract void setUpcomingMedia(List<MediaMetadataCompat> upcoming);
+
+    public abstract void setRepeatOne(boolean repeatOne);
+
     public abstract MediaMetadataCompat getCurrentMedia();
 
     public abstract boolean isPlaying();
@@ -108,7 +122,7 @@ public abstract class PlayerAdapter {
 
     private void registerAudioNoisyReceiver() {
         if (!mAudioNoisyReceiverRegistered) {
-            mApplicationContext.registerReceiver(mAudioNoisyReceiver, AUDIO_NOISY_INTENT_FILTER);
+            mApplicationContext.registerReceiver(mAudioNoisyReceiver, AUDIO_NOISY_INTENT_FILTER, null, mPlayerHandler);
             mAudioNoisyReceiverRegistered = true;
         }
     }
@@ -139,7 +153,17 @@ public abstract class PlayerAdapter {
         }
 
         @Override
-        public void onAudioFocusChange(int focusChange) {
+        public void onAudioFocusChange(final int focusChange) {
+            // delivered on the main thread, the player lives on the player looper
+            mPlayerHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    handleAudioFocusChange(focusChange);
+                }
+            });
+        }
+
+        private void handleAudioFocusChange(int focusChange) {
             switch (focusChange) {
                 case AudioManager.AUDIOFOCUS_GAIN:
                     Log.d(TAG, "onAudioFocusChange: AUDIOFOCUS_GAIN");
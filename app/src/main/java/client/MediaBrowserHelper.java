@@ -2,7 +2,9 @@ package client;
 
 import android.content.ComponentName;
 import android.content.Context;
+import android.os.Bundle;
 import android.os.RemoteException;
+import android.os.ResultReceiver;
 import android.support.v4.media.MediaBrowserCompat;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaControllerCompat;
@@ -15,12 +17,21 @@ import androidx.media.MediaBrowserServiceCompat;
 
 import java.util.List;
 
+import static util.Constants.ACTION_UI_ATTACHED;
+import static util.Constants.COMMAND_GET_METRICS;
+import static util.Constants.COMMAND_SET_QUEUE;
+import static util.Constants.METRICS_RESET;
+import static util.Constants.QUEUE_PARENT_ID;
+import static util.Constants.UI_ATTACHED;
+
 
 //CONNECTS THE UI TO THE SERVICE
 public class MediaBrowserHelper {
 
     private static final String TAG = "MediaBrowserHelper";
 
+    private static final int PAGE_SIZE = 50;                                                        // the queue is built service side, we only need the first page
+
     private final Context mContext;
     private final Class<? extends MediaBrowserServiceCompat> mMediaBrowserServiceClass;             // service class
 
@@ -33,6 +44,7 @@ public class MediaBrowserHelper {
     private MediaControllerCallback mMediaControllerCallback;
     private MediaBrowserHelperCallback mMediaBrowserCallback;                                        // this is the interface var
     private boolean mWasConfigurationChange;
+    private boolean mUiAttached;                                                                    // activity is in front, sent to the service on connect
 
 // class responsible for subscribing to the service
     public MediaBrowserHelper(Context context, Class<? extends MediaBrowserServiceCompat> serviceClass) {
@@ -92,7 +104,14 @@ public class MediaBrowserHelper {
     //        if(!currentPlaylistId.equals("")){
     //            mMediaBrowser.unsubscribe(currentPlaylistId);
     //        }
-        mMediaBrowser.subscribe(newPlatlistId, mMediaBrowserSubscriptionCallback);
+        mMediaBrowser.subscribe(newPlatlistId, getFirstPageOptions(), mMediaBrowserSubscriptionCallback);
+    }
+
+    private static Bundle getFirstPageOptions(){
+        Bundle options = new Bundle();
+        options.putInt(MediaBrowserCompat.EXTRA_PAGE, 0);
+        options.putInt(MediaBrowserCompat.EXTRA_PAGE_SIZE, PAGE_SIZE);
+        return options;
     }
 
 
@@ -111,9 +130,28 @@ public class MediaBrowserHelper {
         Log.d(TAG, "onStart: CALLED: Creating MediaBrowser, and connecting");
     }
 
+    /**
+     * Tells the service whether the player UI is visible, the playback clock throttles itself
+     * while it isn't.
+     */
+    public void setUiAttached(boolean uiAttached) {
+        mUiAttached = uiAttached;
+        sendUiAttached();
+    }
+
+    private void sendUiAttached() {
+        if (mMediaController != null) {
+            Bundle extras = new Bundle();
+            extras.putBoolean(UI_ATTACHED, mUiAttached);
+            mMediaController.getTransportControls().sendCustomAction(ACTION_UI_ATTACHED, extras);
+        }
+    }
+
     public void onStop() {
 
         if (mMediaController != null) {
+            mUiAttached = false;
+            sendUiAttached();
             mMediaController.unregisterCallback(mMediaControllerCallback);                          // unregistering media Controller callback
             mMediaController = null;
         }
@@ -145,6 +183,7 @@ public class MediaBrowserHelper {
                  new MediaControllerCompat(mContext, mMediaBrowser.getSessionToken());
 
                 mMediaController.registerCallback(mMediaControllerCallback);                        // call back for the mController
+                sendUiAttached();
 
                 mMediaBrowserCallback.onMediaControllerConnected(mMediaController);                 // if it is connected, then we link the media controller ond the seekBar
 
@@ -154,7 +193,7 @@ public class MediaBrowserHelper {
                 throw new RuntimeException(e);
             }
 
-            mMediaBrowser.subscribe(mMediaBrowser.getRoot(), mMediaBrowserSubscriptionCallback);    // more like subscribing to the playlist
+            mMediaBrowser.subscribe(mMediaBrowser.getRoot(), getFirstPageOptions(), mMediaBrowserSubscriptionCallback);    // more like subscribing to the playlist
             Log.d(TAG, "onConnected: CALLED: subscribing to: " + mMediaBrowser.getRoot());    //
 
             //mMediaBrowserCallback.onMediaControllerConnected(mMediaController);
@@ -168,21 +207,43 @@ public class MediaBrowserHelper {
 
     public class MediaBrowserSubscriptionCallback extends MediaBrowserCompat.SubscriptionCallback {
 
+        @Override
+        public void onChildrenLoaded(@NonNull String parentId, @NonNull List<MediaBrowserCompat.MediaItem> children, @NonNull Bundle options) {
+            // paged subscription, only page 0 is subscribed
+            onChildrenLoaded(parentId, children);
+        }
+
         @Override
         public void onChildrenLoaded(@NonNull String parentId,@NonNull List<MediaBrowserCompat.MediaItem> children) {
 
-            Log.d(TAG, "onChildrenLoaded: CALLED: " + parentId + ", " + children.toString());
+            Log.d(TAG, "onChildrenLoaded: CALLED: " + parentId + ", " + children.size() + " items");
 
-            if(!mWasConfigurationChange){                                                           // to avoid data duplication
-                for (final MediaBrowserCompat.MediaItem mediaItem : children) {
-                    Log.d(TAG, "onChildrenLoaded: CALLED: queue item: " + mediaItem.getMediaId());
-                    mMediaController.addQueueItem(mediaItem.getDescription());                      // adding Media Items to playlist
-                }
+            if(!mWasConfigurationChange && mMediaController != null){                               // to avoid data duplication
+                // one command instead of an addQueueItem round trip per child, the service
+                // builds the queue from the same parent it just served us
+                Bundle extras = new Bundle();
+                extras.putString(QUEUE_PARENT_ID, parentId);
+                mMediaController.sendCommand(COMMAND_SET_QUEUE, extras, null);
             }
 
         }
     }
 
+    /**
+     * For debug builds, a long-press on play / pause: the service answers on receiver with the
+     * playback latency histograms, see MediaService.buildMetricsBundle. reset starts a new
+     * measuring session afterwards.
+     */
+    public void requestMetrics(boolean reset, ResultReceiver receiver) {
+        if (mMediaController == null) {
+            Log.d(TAG, "requestMetrics: MediaController is null!");
+            return;
+        }
+        Bundle extras = new Bundle();
+        extras.putBoolean(METRICS_RESET, reset);
+        mMediaController.sendCommand(COMMAND_GET_METRICS, extras, receiver);
+    }
+
     public MediaControllerCompat.TransportControls getTransportControls() {
 
         // method used to connect the client to the service
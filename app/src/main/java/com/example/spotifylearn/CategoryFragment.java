@@ -13,17 +13,20 @@ import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.google.android.gms.tasks.OnCompleteListener;
-import com.google.android.gms.tasks.Task;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.Query;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.integration.recyclerview.RecyclerViewPreloader;
+import com.bumptech.glide.util.FixedPreloadSizeProvider;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
-import com.google.firebase.firestore.QuerySnapshot;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import Adapters.CategoryRecyclerAdapter;
 import Models.Artist;
+import util.CatalogPrefetcher;
+import util.FirestorePlaylistRepository;
+import util.LivePlaylist;
+import util.TrackChange;
 
 public class CategoryFragment extends Fragment implements CategoryRecyclerAdapter.ICategorySelector
 {
@@ -39,6 +42,7 @@ public class CategoryFragment extends Fragment implements CategoryRecyclerAdapte
     private ArrayList<Artist> mArtists = new ArrayList<>();             // artist obj from firestore
     private IMainActivity mIMainActivity;
     private String mSelectedCategory;
+    private LivePlaylist<Artist> mLiveArtists;                                  // artists kept in sync with firestore while we're visible
 
 
 
@@ -62,6 +66,31 @@ public class CategoryFragment extends Fragment implements CategoryRecyclerAdapte
         // called when we press back
         if(!hidden){
             mIMainActivity.setActionBarTitle(mSelectedCategory);
+            startLiveSync();
+        }
+        else {
+            // hidden in the back stack, its rows aren't on screen anymore
+            CatalogPrefetcher.getInstance(getActivity()).cancelContentPrefetch();
+            if(mLiveArtists != null){
+                mLiveArtists.stop();
+            }
+        }
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        if(!isHidden()){
+            startLiveSync();
+        }
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        CatalogPrefetcher.getInstance(getActivity()).cancelContentPrefetch();
+        if(mLiveArtists != null){
+            mLiveArtists.stop();
         }
     }
 
@@ -87,36 +116,117 @@ public class CategoryFragment extends Fragment implements CategoryRecyclerAdapte
         mIMainActivity.setActionBarTitle(mSelectedCategory);
     }
 
-    private void retrieveArtists(){
-        mIMainActivity.showProgressBar();
+    /*
+     *      The first batch of the snapshot listener is the whole category, after that only the
+     *      artists that were added, edited or removed come through and are applied one by one
+     */
+    private void startLiveSync(){
+        if(mLiveArtists == null){
+            // prefetched from HomeFragment most of the time, render that while the listener starts
+            List<Artist> prefetched = CatalogPrefetcher.getInstance(getActivity()).getArtists(mSelectedCategory);
+            if(mArtists.isEmpty() && prefetched != null){
+                mArtists.addAll(prefetched);
+                mAdapter.notifyItemRangeInserted(0, mArtists.size());
+                prefetchVisibleContent();
+            }
 
-        FirebaseFirestore firestore = FirebaseFirestore.getInstance();
+            mLiveArtists = new LivePlaylist<>(new FirestorePlaylistRepository<>(CatalogPrefetcher.getArtistsQuery(mSelectedCategory),
+                    new FirestorePlaylistRepository.IDocumentMapper<Artist>() {
+                        @Override
+                        public String getId(QueryDocumentSnapshot document) {
+                            return document.getString("artist_id");
+                        }
 
-        Query query = firestore
-                .collection("Audio")
-                .document("avY6kRCpfAilLjIRB1Gd")
-                .collection(mSelectedCategory);                                                   // quite error prone
+                        @Override
+                        public Artist map(QueryDocumentSnapshot document) {
+                            return document.toObject(Artist.class);
+                        }
+                    }),
+                    new LivePlaylist.IItemKey<Artist>() {
+                        @Override
+                        public String getId(Artist item) {
+                            return item.getArtist_id();
+                        }
+                    });
+            mLiveArtists.seed(mArtists);
+            mLiveArtists.setObserver(new LivePlaylist.IObserver<Artist>() {
+                @Override
+                public void onChanged(List<TrackChange<Artist>> applied, boolean fullBatch) {
+                    if(fullBatch){
+                        mIMainActivity.hideProgressBar();
+                    }
+                    applyChanges(applied);
+                    CatalogPrefetcher.getInstance(getActivity()).putArtists(mSelectedCategory, mArtists);
+                    if(fullBatch){
+                        prefetchVisibleContent();
+                    }
+                }
 
-        query.get().addOnCompleteListener(new OnCompleteListener<QuerySnapshot>() {
+                @Override
+                public void onSyncFailed(Exception e) {
+                    Log.d(TAG, "onSyncFailed: error getting documents: " + e);
+                    mIMainActivity.hideProgressBar();
+                }
+            });
+        }
+        if(mArtists.isEmpty() && !mLiveArtists.isListening()){
+            mIMainActivity.showProgressBar();
+        }
+        mLiveArtists.start();
+    }
+
+    /*
+     *      Playlists of the artists on screen are fetched before they're tapped
+     */
+    private void prefetchVisibleContent(){
+        if(mRecyclerView == null){
+            return;
+        }
+        mRecyclerView.post(new Runnable() {
             @Override
-            public void onComplete(@NonNull Task<QuerySnapshot> task) {
-                if(task.isSuccessful()){
-                    for(QueryDocumentSnapshot document: task.getResult()){
-                        mArtists.add(document.toObject(Artist.class));
-                    }
+            public void run() {
+                LinearLayoutManager layoutManager = (LinearLayoutManager) mRecyclerView.getLayoutManager();
+                if(layoutManager == null || !isAdded()){
+                    return;
+                }
+                int first = layoutManager.findFirstVisibleItemPosition();
+                int last = layoutManager.findLastVisibleItemPosition();
+                if(first == RecyclerView.NO_POSITION){
+                    return;
                 }
-                else{
-                    Log.d(TAG, "onComplete: error getting documents: " + task.getException());
+                CatalogPrefetcher prefetcher = CatalogPrefetcher.getInstance(getActivity());
+                for(int i = first; i <= last && i < mArtists.size(); i++){
+                    Artist artist = mArtists.get(i);
+                    prefetcher.prefetchContent(mSelectedCategory, artist.getArtist_id(), artist.getImage(), true);
                 }
-                updateDataSet();
             }
         });
     }
 
-    private void updateDataSet(){
-        // hiding loading bar
-        mIMainActivity.hideProgressBar();
-        mAdapter.notifyDataSetChanged();
+    private void applyChanges(List<TrackChange<Artist>> applied){
+        // indexes are valid one after another, same order the live playlist applied them in
+        for(TrackChange<Artist> change: applied){
+            switch (change.getType()){
+                case ADDED:
+                    mArtists.add(change.getNewIndex(), change.getItem());
+                    mAdapter.notifyItemInserted(change.getNewIndex());
+                    break;
+                case MODIFIED:
+                    if(change.getOldIndex() != change.getNewIndex()){
+                        mArtists.add(change.getNewIndex(), mArtists.remove(change.getOldIndex()));
+                        mAdapter.notifyItemMoved(change.getOldIndex(), change.getNewIndex());
+                    }
+                    if(!change.getItem().equals(mArtists.get(change.getNewIndex()))){
+                        mArtists.set(change.getNewIndex(), change.getItem());
+                        mAdapter.notifyItemChanged(change.getNewIndex());               // only a real change rebinds the row (and reloads its image)
+                    }
+                    break;
+                case REMOVED:
+                    mArtists.remove(change.getOldIndex());
+                    mAdapter.notifyItemRemoved(change.getOldIndex());
+                    break;
+            }
+        }
     }
 
     private void initRecyclerView(View view){
@@ -125,9 +235,21 @@ public class CategoryFragment extends Fragment implements CategoryRecyclerAdapte
         mAdapter = new CategoryRecyclerAdapter(getActivity(), mArtists, this);
         mRecyclerView.setAdapter(mAdapter);
 
-        if(mArtists.size() == 0){
-            retrieveArtists();
-        }
+        // load images a few rows ahead of the scroll, every row has the same image size
+        mRecyclerView.addOnScrollListener(new RecyclerViewPreloader<>(Glide.with(this), mAdapter,
+                new FixedPreloadSizeProvider<Artist>(mAdapter.getImageSize(), mAdapter.getImageSize()),
+                mAdapter.getPreloadCount()));
+        mRecyclerView.addOnScrollListener(mAdapter.getDecodeMeter());
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+                if(newState == RecyclerView.SCROLL_STATE_IDLE){
+                    // rows scrolled past that didn't start yet give way to what the scroll settled on
+                    CatalogPrefetcher.getInstance(getActivity()).cancelContentPrefetch();
+                    prefetchVisibleContent();
+                }
+            }
+        });
     }
 
     @Override
@@ -25,6 +25,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 
 import Adapters.HomeRecyclerAdapter;
+import util.CatalogPrefetcher;
+import util.MyPreferenceManager;
 
 public class HomeFragment extends Fragment implements HomeRecyclerAdapter.IHomeSelector
 {
@@ -118,6 +120,7 @@ public class HomeFragment extends Fragment implements HomeRecyclerAdapter.IHomeS
                     HashMap<String, String> categoriesMap = (HashMap)doc.getData().get("Categories");
                     mCategories.addAll(categoriesMap.keySet());
                     Log.d(TAG, "onComplete: mCATEGORIES SET");
+                    prefetchCatalog();
                 }
                 updateDataSet();
             }
@@ -130,6 +133,19 @@ public class HomeFragment extends Fragment implements HomeRecyclerAdapter.IHomeS
         });
     }
 
+    private void prefetchCatalog(){
+        if(getActivity() == null){
+            return;
+        }
+        CatalogPrefetcher prefetcher = CatalogPrefetcher.getInstance(getActivity());
+
+        // what was played last is the most likely next tap, then the artists of every category
+        MyPreferenceManager preferences = mIMainActivity.getMyPreferenceManager();
+        prefetcher.prefetchContent(preferences.getLastCategory(), preferences.getLastPlayedArtist(),
+                preferences.getLastPlayedArtistImage(), true);
+        prefetcher.prefetchArtists(mCategories);
+    }
+
     private void updateDataSet(){
         mIMainActivity.hideProgressBar();
         mAdapter.notifyDataSetChanged();
@@ -1,8 +1,7 @@
 package com.example.spotifylearn;
 
-import android.support.v4.media.MediaMetadataCompat;
-
 import Models.Artist;
+import Models.Track;
 import util.MyPreferenceManager;
 
 //INTERFACE that sends info to the fragments
@@ -20,8 +19,10 @@ public interface IMainActivity {
 
     void playPause();
 
+    void logPlaybackMetrics();                                  // debug builds: the service's latency report in logcat
+
     //void onMediaSelected(MediaMetadataCompat mediaItem);
-    void onMediaSelected(String playlistId, MediaMetadataCompat mediaItem, int position);
+    void onMediaSelected(String playlistId, Track mediaItem, int position);
 
     MyApplication getMyApplicationInstance();
     MyPreferenceManager getMyPreferenceManager();
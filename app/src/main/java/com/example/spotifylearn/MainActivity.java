@@ -4,6 +4,7 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentTransaction;
+import androidx.lifecycle.Lifecycle;
 
 import android.content.BroadcastReceiver;
 import android.content.Context;
@@ -11,6 +12,9 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Configuration;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ResultReceiver;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaControllerCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
@@ -31,16 +35,20 @@ import java.util.ArrayList;
 import java.util.List;
 
 import Models.Artist;
+import Models.Track;
 import client.MediaBrowserHelper;
 import client.MediaBrowserHelperCallback;
 import services.MediaService;
+import util.CatalogCache;
+import util.CatalogPrefetcher;
 import util.MainActivityFragmentManager;
 import util.MyPreferenceManager;
+import util.SessionSnapshot;
+import util.TrackConverter;
 
 import static util.Constants.MEDIA_QUEUE_POSITION;
+import static util.Constants.METRICS_REPORT;
 import static util.Constants.QUEUE_NEW_PLAYLIST;
-import static util.Constants.SEEK_BAR_MAX;
-import static util.Constants.SEEK_BAR_PROGRESS;
 
 public class MainActivity extends AppCompatActivity  implements IMainActivity, MediaBrowserHelperCallback {
 
@@ -50,7 +58,6 @@ public class MainActivity extends AppCompatActivity  implements IMainActivity, M
     private MediaBrowserHelper mMediaBrowserHelper;
 
     //broadcast receivers
-    private SeekBarBroadcastReceiver mSeekbarBroadcastReceiver;
     private UpdateUIBroadcastReceiver mUpdateUIBroadcastReceiver;
 
     private MyApplication mMyApplication;
@@ -59,6 +66,8 @@ public class MainActivity extends AppCompatActivity  implements IMainActivity, M
     boolean isPlaying;
     private boolean mOnAppOpen;                                                                     // checks if the open was open before
     private boolean mWasConfigurationChange = false;
+    private boolean mLastSessionRestoring = false;                                                  // snapshot read in flight
+    private boolean mLastSessionRestored = false;                                                   // last session loaded (snapshot or network), once per launch
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -107,7 +116,7 @@ public class MainActivity extends AppCompatActivity  implements IMainActivity, M
             if(!getMyPreferenceManager().getPlaylistId().equals("")){
                 onMediaSelected(
                         getMyPreferenceManager().getPlaylistId(),
-                        mMyApplication.getMediaItem(getMyPreferenceManager().getLastPlayedMedia()),
+                        mMyApplication.getTrack(getMyPreferenceManager().getLastPlayedMedia()),
                         getMyPreferenceManager().getQueuePosition()
                 );
             }
@@ -127,53 +136,132 @@ public class MainActivity extends AppCompatActivity  implements IMainActivity, M
         return mMyPrefManager;
     }
 
+    @Override
+    public void logPlaybackMetrics() {
+        // the histograms keep counting, a later long-press shows the whole session so far
+        mMediaBrowserHelper.requestMetrics(false, new ResultReceiver(new Handler(Looper.getMainLooper())) {
+            @Override
+            protected void onReceiveResult(int resultCode, Bundle resultData) {
+                if(resultData != null){
+                    Log.d(TAG, "logPlaybackMetrics:\n" + resultData.getString(METRICS_REPORT));
+                }
+            }
+        });
+    }
+
     @Override
     protected void onStart() {
         super.onStart();
 
-        if(!getMyPreferenceManager().getPlaylistId().equals("")){                                   // there is data saved in the saved pref, load it
-            prepareLastPlayedMedia();
-        }
-        else{
+        if(getMyPreferenceManager().getPlaylistId().equals("") || mLastSessionRestored){         // nothing saved, or already loaded this launch
             mMediaBrowserHelper.onStart(mWasConfigurationChange);                                   // how we connect client to service
         }
+        else if(!mLastSessionRestoring){
+            mLastSessionRestoring = true;
+            restoreLastSession();                                                                   // connects once the queue is loaded
+        }
     }
 
     /**
-     * In a production app you'd want to get this data from a cache.
+     * Restores the last session from the on-disk snapshot written by MediaService, so the
+     * mini-player and the service come up without waiting on the network. The snapshot is read
+     * off the main thread, once per launch. Falls back to fireStore when there is no usable one.
      */
-    private void prepareLastPlayedMedia(){
+    private void restoreLastSession(){
 
-        Log.d(TAG, "prepareLastPlayedMedia: METHOD CALLED");
-        showProgressBar();
+        SessionSnapshot.restoreAsync(this, new SessionSnapshot.IRestoreCallback() {
+            @Override
+            public void onRestored(SessionSnapshot snapshot) {
+                mLastSessionRestoring = false;
+                mLastSessionRestored = true;
+                if(snapshot == null
+                        || snapshot.getQueue().isEmpty()
+                        || !snapshot.getPlaylistId().equals(getMyPreferenceManager().getPlaylistId())){
+                    prepareLastPlayedMedia();                                                       // no snapshot yet, fall back to the network
+                    return;
+                }
 
-        FirebaseFirestore firestore = FirebaseFirestore.getInstance();
+                Log.d(TAG, "restoreLastSession: RESTORED " + snapshot.getQueue().size() + " TRACKS FROM SNAPSHOT");
+                mMyApplication.setMediaItems(snapshot.getQueue());
+                if(snapshot.getCurrentTrack() != null && getMediaControllerFragment() != null){
+                    getMediaControllerFragment().setMediaTitle(TrackConverter.toMetadata(snapshot.getCurrentTrack()));
+                }
+                if(getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.STARTED)){
+                    mMediaBrowserHelper.onStart(mWasConfigurationChange);                           // else the next onStart connects
+                }
+                revalidateLastSession(snapshot);
+            }
+        });
+    }
 
-        Query query  = firestore
+    /**
+     * Checks the restored playlist against fireStore in the background, the playlist is only
+     * replaced when something changed.
+     */
+    private void revalidateLastSession(final SessionSnapshot snapshot){
+
+        getLastPlayedMediaQuery().get().addOnCompleteListener(new OnCompleteListener<QuerySnapshot>() {
+            @Override
+            public void onComplete(@NonNull Task<QuerySnapshot> task) {
+                if (!task.isSuccessful()) {
+                    Log.d(TAG, "revalidateLastSession: keeping the snapshot ", task.getException());
+                    return;
+                }
+                List<Track> mediaItems = new ArrayList<>();
+                for (QueryDocumentSnapshot document : task.getResult()) {
+                    mediaItems.add(addToMediaList(document));
+                }
+
+                CatalogCache.getInstance(MainActivity.this).savePlaylist(snapshot.getCategory(), snapshot.getPlaylistId(), mediaItems,
+                        new CatalogCache.IUpdateCallback() {
+                            @Override
+                            public void onPlaylistUpdated(List<Track> playlist, int changedTracks) {
+                                // the user may have picked another playlist in the meantime
+                                if(changedTracks > 0
+                                        && snapshot.getPlaylistId().equals(getMyPreferenceManager().getPlaylistId())){
+                                    Log.d(TAG, "revalidateLastSession: " + changedTracks + " TRACKS CHANGED");
+                                    mMyApplication.setMediaItems(playlist);
+                                }
+                            }
+                        });
+            }
+        });
+    }
+
+    private Query getLastPlayedMediaQuery(){
+        return FirebaseFirestore.getInstance()
                 .collection("Audio")
                 .document("avY6kRCpfAilLjIRB1Gd")
                 .collection(getMyPreferenceManager().getLastCategory())
                 .document(getMyPreferenceManager().getLastPlayedArtist())
                 .collection(getString(R.string.collection_content))
                 .orderBy(getString(R.string.field_date_added), Query.Direction.ASCENDING);
+    }
+
+    private void prepareLastPlayedMedia(){
+
+        Log.d(TAG, "prepareLastPlayedMedia: METHOD CALLED");
+        showProgressBar();
+
+        Query query = getLastPlayedMediaQuery();
 
         Log.d(TAG, "prepareLastPlayedMedia: CATEGORY "+getMyPreferenceManager().getLastCategory());
         Log.d(TAG, "prepareLastPlayedMedia: LAST PLAYED ARTIST "+getMyPreferenceManager().getLastPlayedArtist());
 
-        final List<MediaMetadataCompat> mediaItems = new ArrayList<>();                                                                                   // storing playlist media from cloud
+        final List<Track> mediaItems = new ArrayList<>();                                                                                           // storing playlist media from cloud
         query.get().addOnCompleteListener(new OnCompleteListener<QuerySnapshot>() {
             @Override
             public void onComplete(@NonNull Task<QuerySnapshot> task) {
                 Log.d(TAG, "onComplete: METHOD CALLED");
                 if (task.isSuccessful()) {
                     for (QueryDocumentSnapshot document : task.getResult()) {
-                        MediaMetadataCompat mediaItem = addToMediaList(document);
+                        Track mediaItem = addToMediaList(document);
                         mediaItems.add(mediaItem);
                         Log.d(TAG, "onComplete: LAST PLAYED MEDIA "+getMyPreferenceManager().getLastPlayedMedia());
-                        if(mediaItem.getDescription().getMediaId().equals(getMyPreferenceManager().getLastPlayedMedia())){                              // if this media was the one playing, set the title in the media controller
+                        if(mediaItem.getMediaId().equals(getMyPreferenceManager().getLastPlayedMedia())){                                              // if this media was the one playing, set the title in the media controller
 
                             Log.d(TAG, "onComplete: CONDITION CALLED MEDIA CONTROLLER TITLE SHOULD GET SET");
-                            getMediaControllerFragment().setMediaTitle(mediaItem);
+                            getMediaControllerFragment().setMediaTitle(TrackConverter.toMetadata(mediaItem));
                         }
                     }
 
@@ -192,7 +280,7 @@ public class MainActivity extends AppCompatActivity  implements IMainActivity, M
         });
     }
 
-    private void onFinishedGettingPreviousSessionData(List<MediaMetadataCompat> mediaItems) {
+    private void onFinishedGettingPreviousSessionData(List<Track> mediaItems) {
         Log.d(TAG, "onFinishedGettingPreviousSessionData: METHOD CALLED");
         mMyApplication.setMediaItems(mediaItems);
         mMediaBrowserHelper.onStart(mWasConfigurationChange);
@@ -200,22 +288,14 @@ public class MainActivity extends AppCompatActivity  implements IMainActivity, M
     }
 
     /**
-     * Translate the Firestore data into something the MediaBrowserService can deal with (MediaMetaDataCompat objects)
+     * Translate the Firestore data into a Track, converted to metadata only when it reaches the MediaBrowserService
      * @param document
      */
-    private MediaMetadataCompat addToMediaList(QueryDocumentSnapshot document) {
+    private Track addToMediaList(QueryDocumentSnapshot document) {
 
         Log.d(TAG, "addToMediaList: METHOD CALLED");
         //deconstructing the received document from cloud
-        MediaMetadataCompat media = new MediaMetadataCompat.Builder()
-                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, document.getString(getString(R.string.field_media_id)))
-                .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, document.getString(getString(R.string.field_artist)))
-                .putString(MediaMetadataCompat.METADATA_KEY_TITLE, document.getString(getString(R.string.field_title)))
-                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI, document.getString(getString(R.string.field_media_url)))
-                .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_DESCRIPTION, document.getString(getString(R.string.field_description)))
-                .putString(MediaMetadataCompat.METADATA_KEY_DATE, document.getDate(getString(R.string.field_date_added)).toString())
-                .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON_URI, getMyPreferenceManager().getLastPlayedArtistImage())
-                .build();
+        Track media = CatalogPrefetcher.buildTrack(this, document, getMyPreferenceManager().getLastPlayedArtistImage());
 
         Log.d(TAG, "addToMediaList: GET ARTIST IMAGE "+ getMyPreferenceManager().getLastPlayedArtistImage());
         return media;
@@ -223,10 +303,10 @@ public class MainActivity extends AppCompatActivity  implements IMainActivity, M
     }
 
     @Override
-    public void onMediaSelected(String playlistId,MediaMetadataCompat mediaItem,int queuePosition) {
+    public void onMediaSelected(String playlistId,Track mediaItem,int queuePosition) {
 
         if (mediaItem != null) {
-            Log.d(TAG, "onMediaSelected: CALLED: " + mediaItem.getDescription().getMediaId());
+            Log.d(TAG, "onMediaSelected: CALLED: " + mediaItem.getMediaId());
 
             String currentPlaylistId = getMyPreferenceManager().getPlaylistId();                                                            // getting playlist id from shared pref
 
@@ -234,14 +314,14 @@ public class MainActivity extends AppCompatActivity  implements IMainActivity, M
             bundle.putInt(MEDIA_QUEUE_POSITION, queuePosition);                                                                             // sending the que index of the selected song to the fragment playlist
 
             if (playlistId.equals(currentPlaylistId)) {
-                mMediaBrowserHelper.getTransportControls().playFromMediaId(mediaItem.getDescription().getMediaId(),bundle);                   // sending the selected media and index in the bundle to service class
+                mMediaBrowserHelper.getTransportControls().playFromMediaId(mediaItem.getMediaId(),bundle);                   // sending the selected media and index in the bundle to service class
                 mMediaBrowserHelper.subscribeToNewPlaylist(playlistId);
             }
 
         else {
                 bundle.putBoolean(QUEUE_NEW_PLAYLIST, true);                                                                                // let the player know this is a new playlist
                 mMediaBrowserHelper.subscribeToNewPlaylist(playlistId);
-                mMediaBrowserHelper.getTransportControls().playFromMediaId(mediaItem.getDescription().getMediaId(),null);
+                mMediaBrowserHelper.getTransportControls().playFromMediaId(mediaItem.getMediaId(),null);
             }
 
             mOnAppOpen = true;                                                                                                              // open was opened and a media was played
@@ -261,17 +341,12 @@ public class MainActivity extends AppCompatActivity  implements IMainActivity, M
     protected void onPause() {
         super.onPause();
 
-        //unregistering the broadcast receiver when state paused
-        if(mSeekbarBroadcastReceiver != null)
-        {
-            unregisterReceiver(mSeekbarBroadcastReceiver);
-        }
-
         //unregistering the broadcast receiver when state paused
         if(mUpdateUIBroadcastReceiver != null)
         {
             unregisterReceiver(mUpdateUIBroadcastReceiver);
         }
+        mMediaBrowserHelper.setUiAttached(false);
 
     }
 
@@ -280,7 +355,7 @@ public class MainActivity extends AppCompatActivity  implements IMainActivity, M
         super.onResume();
 
         initUpdateUIBroadcastReceiver();
-        initSeekBarBroadcastReceiver();
+        mMediaBrowserHelper.setUiAttached(true);                                                    // full rate playback clock while we're visible
 
     }
 
@@ -418,14 +493,6 @@ public class MainActivity extends AppCompatActivity  implements IMainActivity, M
         getMediaControllerFragment().getMediaSeekBar().setMediaController(mediaController);         // linking the seek bar to the media player
     }
 
-    //init the broadcast receiver
-    private void initSeekBarBroadcastReceiver(){
-        IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(getString(R.string.broadcast_seekbar_update));
-        mSeekbarBroadcastReceiver = new SeekBarBroadcastReceiver();
-        registerReceiver(mSeekbarBroadcastReceiver, intentFilter);
-    }
-
     //init the UI broadcast receiver
     private void initUpdateUIBroadcastReceiver(){
         IntentFilter intentFilter = new IntentFilter();
@@ -441,8 +508,10 @@ public class MainActivity extends AppCompatActivity  implements IMainActivity, M
             String newMediaId = intent.getStringExtra(getString(R.string.broadcast_new_media_id));
             Log.d(TAG, "onReceive: CALLED: " + newMediaId);
             if(getPlaylistFragment() != null){
-                Log.d(TAG, "onReceive: " + mMyApplication.getMediaItem(newMediaId).getDescription().getMediaId());
-                getPlaylistFragment().updateUI(mMyApplication.getMediaItem(newMediaId));
+                Track track = mMyApplication.getTrack(newMediaId);
+                if(track != null){
+                    getPlaylistFragment().updateUI(track);
+                }
             }
         }
     }
@@ -457,25 +526,5 @@ public class MainActivity extends AppCompatActivity  implements IMainActivity, M
         return null;
     }
 
-    private class SeekBarBroadcastReceiver extends BroadcastReceiver {
-
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            long seekProgress = intent.getLongExtra(SEEK_BAR_PROGRESS, 0);
-            long seekMax = intent.getLongExtra(SEEK_BAR_MAX, 0);
-
-            // if the user is actively sliding the seekbar condition
-//            if(!getMediaControllerFragment().getMediaSeekBar().isTracking()){
-//
-//                getMediaControllerFragment().getMediaSeekBar().setProgress((int)seekProgress);      // set the current time of the playing media
-//                getMediaControllerFragment().getMediaSeekBar().setMax((int)seekMax);                // set the max time of the media
-//
-//            }
-
-            getMediaControllerFragment().getMediaSeekBar().setProgress((int)seekProgress);          // set the current time of the playing media
-            getMediaControllerFragment().getMediaSeekBar().setMax((int)seekMax);                    // set the max time of the media
-        }
-    }
-
 
 }
@@ -15,7 +15,7 @@ import androidx.fragment.app.Fragment;
 
 import com.bumptech.glide.Glide;
 
-public class MediaControllerFragment extends Fragment implements View.OnClickListener
+public class MediaControllerFragment extends Fragment implements View.OnClickListener, View.OnLongClickListener
 {
 
 
@@ -54,6 +54,9 @@ public class MediaControllerFragment extends Fragment implements View.OnClickLis
         mSeekBarAudio = view.findViewById(R.id.seekbar_audio);
 
         mPlayPause.setOnClickListener(this);                                                        // on click for the image view
+        if(BuildConfig.DEBUG){
+            mPlayPause.setOnLongClickListener(this);                                                // playback latency report in logcat
+        }
 
         if(savedInstanceState != null){
             mSelectedMedia = savedInstanceState.getParcelable("selected_media");
@@ -78,6 +81,15 @@ public class MediaControllerFragment extends Fragment implements View.OnClickLis
 
     }
 
+    @Override
+    public boolean onLongClick(View view) {
+        if(view.getId() == R.id.play_pause){
+            mIMainActivity.logPlaybackMetrics();
+            return true;
+        }
+        return false;
+    }
+
     public void setIsPlaying(boolean isPlaying){
 
         if(isPlaying){
@@ -1,12 +1,15 @@
 package com.example.spotifylearn;
 
+import android.animation.ValueAnimator;
 import android.content.Context;
+import android.os.SystemClock;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaControllerCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.animation.LinearInterpolator;
 import android.widget.SeekBar;
 
 import androidx.appcompat.widget.AppCompatSeekBar;
@@ -14,6 +17,11 @@ import androidx.appcompat.widget.AppCompatSeekBar;
 /**
  * SeekBar that can be used with a {@link MediaSessionCompat} to track and seek in playing
  * media.
+ *
+ * The service only publishes a PlaybackStateCompat when something changes (play, pause, seek,
+ * buffering, new track). Between those the position is extrapolated locally from the state's
+ * position, update time and playback speed by a ValueAnimator, which only runs while the bar
+ * is attached to a controller. The max comes from METADATA_KEY_DURATION.
  */
 
 public class MediaSeekBar extends AppCompatSeekBar {
@@ -26,6 +34,9 @@ public class MediaSeekBar extends AppCompatSeekBar {
 
     private boolean mIsTracking = false;                                                            // when the user starts sliding the seekbar ==true
 
+    private ValueAnimator mProgressAnimator;
+    private PlaybackStateCompat mLastState;                                                         // kept to re-extrapolate when the duration arrives
+
     private OnSeekBarChangeListener mOnSeekBarChangeListener = new OnSeekBarChangeListener() {
         @Override
         public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
@@ -34,12 +45,15 @@ public class MediaSeekBar extends AppCompatSeekBar {
         @Override
         public void onStartTrackingTouch(SeekBar seekBar) {
             mIsTracking = true;
+            stopProgressAnimation();                                                                // the user owns the thumb now
         }
 
         @Override
         public void onStopTrackingTouch(SeekBar seekBar) {
             mIsTracking = false;
-            mMediaController.getTransportControls().seekTo(getProgress());                          // seeking to new position
+            if (mMediaController != null) {
+                mMediaController.getTransportControls().seekTo(getProgress());                      // seeking to new position, the new state restarts the animation
+            }
 
         }
     };
@@ -78,8 +92,15 @@ public class MediaSeekBar extends AppCompatSeekBar {
         else if (mMediaController != null) {
             mMediaController.unregisterCallback(mControllerCallback);
             mControllerCallback = null;
+            stopProgressAnimation();
         }
         mMediaController = mediaController;
+
+        if (mediaController != null) {
+            // catch up with whatever is playing, nothing is pushed until the next change
+            updateDuration(mediaController.getMetadata());
+            updateProgress(mediaController.getPlaybackState());
+        }
     }
 
     public void disconnectController() {
@@ -88,6 +109,67 @@ public class MediaSeekBar extends AppCompatSeekBar {
             mControllerCallback = null;
             mMediaController = null;
         }
+        stopProgressAnimation();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        stopProgressAnimation();
+    }
+
+    private void updateDuration(MediaMetadataCompat metadata) {
+        final int max = metadata != null
+                ? (int) metadata.getLong(MediaMetadataCompat.METADATA_KEY_DURATION)
+                : 0;
+        if (max != getMax()) {
+            setMax(max);
+            updateProgress(mLastState);                                                             // the animation runs up to the max
+        }
+    }
+
+    private void updateProgress(PlaybackStateCompat state) {
+        mLastState = state;
+        stopProgressAnimation();
+
+        if (state == null) {
+            setProgress(0);
+            return;
+        }
+
+        // where the player is right now, the state can be a few seconds old
+        long position = state.getPosition();
+        float speed = state.getPlaybackSpeed();
+        if (state.getState() == PlaybackStateCompat.STATE_PLAYING && speed > 0) {
+            position += (long) ((SystemClock.elapsedRealtime() - state.getLastPositionUpdateTime()) * speed);
+        }
+        final int progress = (int) Math.min(position, getMax() > 0 ? getMax() : position);
+        if (!mIsTracking) {
+            setProgress(progress);
+        }
+
+        // speed is 0 while buffering, the bar holds still until the player publishes READY
+        if (state.getState() == PlaybackStateCompat.STATE_PLAYING && speed > 0 && getMax() > progress) {
+            final int timeToEnd = (int) ((getMax() - progress) / speed);
+            mProgressAnimator = ValueAnimator.ofInt(progress, getMax()).setDuration(timeToEnd);
+            mProgressAnimator.setInterpolator(new LinearInterpolator());
+            mProgressAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+                @Override
+                public void onAnimationUpdate(ValueAnimator animation) {
+                    if (!mIsTracking) {
+                        setProgress((int) animation.getAnimatedValue());
+                    }
+                }
+            });
+            mProgressAnimator.start();
+        }
+    }
+
+    private void stopProgressAnimation() {
+        if (mProgressAnimator != null) {
+            mProgressAnimator.cancel();
+            mProgressAnimator = null;
+        }
     }
 
     private class ControllerCallback
@@ -96,6 +178,7 @@ public class MediaSeekBar extends AppCompatSeekBar {
         @Override
         public void onSessionDestroyed() {
             super.onSessionDestroyed();
+            updateProgress(null);
         }
 
 
@@ -103,17 +186,14 @@ public class MediaSeekBar extends AppCompatSeekBar {
         public void onPlaybackStateChanged(PlaybackStateCompat state) {
             super.onPlaybackStateChanged(state);
             Log.d(TAG, "onPlaybackStateChanged: CALLED: playback state: " + state);
-
-            final int progress = state != null
-                    ? (int) state.getPosition()
-                    : 0;
-            setProgress(progress);
+            updateProgress(state);
 
         }
 
         @Override
         public void onMetadataChanged(MediaMetadataCompat metadata) {
             super.onMetadataChanged(metadata);
+            updateDuration(metadata);
         }
 
     }
@@ -1,20 +1,27 @@
 package com.example.spotifylearn;
 
 import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.os.StrictMode;
 import android.support.v4.media.MediaBrowserCompat;
 import android.support.v4.media.MediaMetadataCompat;
 import android.util.Log;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.TreeMap;
+
+import Models.Track;
+import util.MediaQueue;
+import util.MetadataCache;
+import util.SearchIndex;
+import util.TrackConverter;
 
 public class MyApplication extends Application {
 
     private static final String TAG = "com.e.MyApplication";
+    private static final long METADATA_CACHE_BYTES = 2 * 1024 * 1024;                              // media of playlists opened before, the queue is pinned on top
+
     private static MyApplication mInstance;
-    private List<MediaBrowserCompat.MediaItem> mMediaItems = new ArrayList<>();                     // list of all the media in the selected playlist
-    private TreeMap<String, MediaMetadataCompat> mTreeMap = new TreeMap<>();                        // Map for getting single media itemm
+    private final MediaQueue mMediaQueue = new MediaQueue(METADATA_CACHE_BYTES);                    // the selected playlist, MediaItems are built per request
 
     public static MyApplication getInstance(){
         if(mInstance == null){
@@ -23,27 +30,76 @@ public class MyApplication extends Application {
         return mInstance;
     }
 
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mInstance = this;                                                                           // the instance the framework created, what getInstance() hands out
+        if(BuildConfig.DEBUG){
+            // playback commands run on the service's player thread, flag anything that sneaks back onto main
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .detectNetwork()
+                    .penaltyLog()
+                    .build());
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // only the current queue survives a real memory squeeze, it's pinned
+        MetadataCache<Track> metadataCache = mMediaQueue.getMetadataCache();
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL){
+            metadataCache.trimToSize(0);
+        }
+        else if(level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW){
+            metadataCache.trimToSize(METADATA_CACHE_BYTES / 4);
+        }
+        else if(level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN){
+            metadataCache.trimToSize(METADATA_CACHE_BYTES / 2);
+        }
+        Log.d(TAG, "onTrimMemory: level " + level + ", " + metadataCache);
+    }
+
+    // the media is read by the service's player thread and replaced from the main thread, MediaQueue locks
+
     public List<MediaBrowserCompat.MediaItem> getMediaItems(){
-        return mMediaItems;
+        return TrackConverter.toMediaItems(mMediaQueue.getQueue());
     }
 
-    public TreeMap<String, MediaMetadataCompat> getTreeMap(){
-        return mTreeMap;
+    // one page of the playlist, empty when from is past the end
+    public List<MediaBrowserCompat.MediaItem> getMediaItems(int from, int to){
+        return TrackConverter.toMediaItems(mMediaQueue.getQueue(from, to));
     }
 
-    public void setMediaItems(List<MediaMetadataCompat> mediaItems){
-        mMediaItems.clear();                                             // only have media for the current playlist
-        for(MediaMetadataCompat item: mediaItems){
-            Log.d(TAG, "setMediaItems: called: adding media item: " + item.getDescription());
-            mMediaItems.add(
-                    new MediaBrowserCompat.MediaItem(
-                            item.getDescription(), MediaBrowserCompat.MediaItem.FLAG_PLAYABLE)
-            );
-            mTreeMap.put(item.getDescription().getMediaId(), item);       //
-        }
+    public int getMediaItemCount(){
+        return mMediaQueue.size();
+    }
+
+    public List<Track> getQueue(){
+        return mMediaQueue.getQueue();
     }
 
+    public void setMediaItems(List<Track> tracks){
+        mMediaQueue.setMediaItems(tracks);
+        Log.d(TAG, "setMediaItems: " + tracks.size() + " items, " + mMediaQueue.getMetadataCache());
+    }
+
+    public Track getTrack(String mediaId){
+        return mMediaQueue.getTrack(mediaId);
+    }
+
+    // for the session and the player, they only take metadata
     public MediaMetadataCompat getMediaItem(String mediaId){
-        return mTreeMap.get(mediaId);
+        return TrackConverter.toMetadata(mMediaQueue.getTrack(mediaId));
+    }
+
+    public MetadataCache<Track> getMetadataCache(){
+        return mMediaQueue.getMetadataCache();
+    }
+
+    public SearchIndex getSearchIndex(){
+        return mMediaQueue.getSearchIndex();
     }
-}
\ No newline at end of file
+}
@@ -2,7 +2,6 @@ package com.example.spotifylearn;
 
 import android.content.Context;
 import android.os.Bundle;
-import android.support.v4.media.MediaMetadataCompat;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -14,17 +13,22 @@ import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.google.android.gms.tasks.OnCompleteListener;
-import com.google.android.gms.tasks.Task;
-import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
 import com.google.firebase.firestore.QuerySnapshot;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import Adapters.PlaylistRecyclerAdapter;
 import Models.Artist;
+import Models.Track;
+import util.CatalogCache;
+import util.CatalogPrefetcher;
+import util.FirestorePlaylistRepository;
+import util.LivePlaylist;
+import util.PagedQueryLoader;
+import util.TrackChange;
 
 public class PlaylistFragment extends Fragment implements PlaylistRecyclerAdapter.IMediaSelector{
 
@@ -35,11 +39,13 @@ public class PlaylistFragment extends Fragment implements PlaylistRecyclerAdapte
 
     // Vars
     private PlaylistRecyclerAdapter mAdapter;
-    private ArrayList<MediaMetadataCompat> mMediaList = new ArrayList<>();                          // all playlist media
+    private ArrayList<Track> mMediaList = new ArrayList<>();                          // all playlist media
     private IMainActivity mIMainActivity;
     private String mSelectedCategory;
     private Artist mSelectArtist;
-    private MediaMetadataCompat mSelectedMedia;                                                     // media that's playing
+    private Track mSelectedMedia;                                                     // media that's playing
+    private PagedQueryLoader mLoader;
+    private LivePlaylist<Track> mLivePlaylist;                                        // live sync, once the first load is done
 
 
     public static PlaylistFragment newInstance(String category, Artist artist){                     // creating a fragment with
@@ -51,9 +57,9 @@ public class PlaylistFragment extends Fragment implements PlaylistRecyclerAdapte
         return playlistFragment;
     }
 
-    public void updateUI(MediaMetadataCompat mediaItem){
+    public void updateUI(Track mediaItem){
         //setting the index of the newly selected media in the list
-        mAdapter.setSelectedIndex(mAdapter.getIndexOfItem(mediaItem));
+        mAdapter.setSelectedMediaId(mediaItem.getMediaId());
         mSelectedMedia = mediaItem;
         saveLastPlayedSongProperties();
     }
@@ -72,6 +78,32 @@ public class PlaylistFragment extends Fragment implements PlaylistRecyclerAdapte
         if(!hidden){
             mIMainActivity.setActionBarTitle(mSelectArtist.getTitle());
         }
+
+        // hidden fragments stay in the back stack, they shouldn't keep listening
+        if(mLivePlaylist != null){
+            if(hidden){
+                mLivePlaylist.stop();
+            }
+            else{
+                mLivePlaylist.start();
+            }
+        }
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        if(mLivePlaylist != null && !isHidden()){
+            mLivePlaylist.start();
+        }
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        if(mLivePlaylist != null){
+            mLivePlaylist.stop();
+        }
     }
 
     @Override
@@ -110,87 +142,213 @@ public class PlaylistFragment extends Fragment implements PlaylistRecyclerAdapte
 
 
     private void getSelectedMediaItem(String mediaId){
-        for(MediaMetadataCompat mediaItem: mMediaList){
-            if(mediaItem.getDescription().getMediaId().equals(mediaId)){
-                mSelectedMedia = mediaItem;
-                mAdapter.setSelectedIndex(mAdapter.getIndexOfItem(mSelectedMedia));
-                break;
-            }
+        int index = mAdapter.getIndexOfMediaId(mediaId);                                            // constant time, no scan
+        if(index != -1){
+            mSelectedMedia = mAdapter.getItem(index);
+            mAdapter.setSelectedIndex(index);
         }
     }
 
     private void retrieveMedia(){
 
-        // getting doc from fireStore
+        // render the cached copy straight away, only go to fireStore when there is none or it's stale
         mIMainActivity.showProgressBar();
 
-        FirebaseFirestore firestore = FirebaseFirestore.getInstance();
+        CatalogCache.getInstance(getActivity()).loadPlaylist(mSelectedCategory, mSelectArtist.getArtist_id(),
+                new CatalogCache.IPlaylistCallback() {
+                    @Override
+                    public void onPlaylistLoaded(List<Track> playlist, boolean isStale) {
+                        if(!isAdded()){
+                            return;
+                        }
+                        if(!playlist.isEmpty()){
+                            Log.d(TAG, "onPlaylistLoaded: RENDERING " + playlist.size() + " CACHED TRACKS");
+                            mMediaList.clear();
+                            mMediaList.addAll(playlist);
+                            updateDataSet();
+                        }
+                        if(playlist.isEmpty() || isStale){
+                            revalidateMedia();
+                        }
+                        else{
+                            startLiveSync();
+                        }
+                    }
+                });
+    }
+
+    private void revalidateMedia(){
 
-        Query query = firestore
-                .collection("Audio")
-                .document("avY6kRCpfAilLjIRB1Gd")
-                .collection(mSelectedCategory)
-                .document(mSelectArtist.getArtist_id())
-                .collection("Content").orderBy("date_added", Query.Direction.ASCENDING);
+        Query query = getContentQuery();
 
-        query.get().addOnCompleteListener(new OnCompleteListener<QuerySnapshot>() {
+        // with nothing on screen each page is rendered as it arrives, otherwise the cached copy
+        // stays up and the full list is only diffed against it once the last page is in
+        final boolean renderPages = mMediaList.isEmpty();
+        final List<Track> playlist = new ArrayList<>();
+
+        if(mLoader != null){
+            mLoader.cancel();
+        }
+        mLoader = new PagedQueryLoader(query, PagedQueryLoader.DEFAULT_PAGE_SIZE);
+        mLoader.loadAll(new PagedQueryLoader.IPageCallback() {
             @Override
-            public void onComplete(@NonNull Task<QuerySnapshot> task) {
-                if(task.isSuccessful()){
-                    for(QueryDocumentSnapshot document: task.getResult()){
-                        Log.d(TAG, "onComplete: GOT DOC FROM BD");
-                        addToMediaList(document);
+            public void onPageLoaded(QuerySnapshot page, boolean isLastPage) {
+                if(!isAdded()){
+                    mLoader.cancel();
+                    return;
+                }
+                int start = playlist.size();
+                for(QueryDocumentSnapshot document: page){
+                    playlist.add(buildTrack(document));
+                }
+                Log.d(TAG, "onPageLoaded: GOT " + (playlist.size() - start) + " DOCS FROM BD");
+
+                if(renderPages){
+                    mMediaList.addAll(playlist.subList(start, playlist.size()));
+                    if(start == 0){
+                        updateDataSet();                                                            // first page, drop the progress bar
+                    }
+                    else{
+                        mAdapter.submitList(new ArrayList<>(mMediaList), null);                     // diffs to an insert at the end
                     }
                 }
-                else{
-                    Log.d(TAG, "onComplete: error getting documents: " + task.getException());
+                if(isLastPage){
+                    savePlaylist(playlist);
                 }
-                updateDataSet();
             }
 
-
+            @Override
+            public void onPageFailed(Exception e, int pagesLoaded) {
+                Log.d(TAG, "onPageFailed: error getting documents after " + pagesLoaded + " pages: " + e);
+                if(isAdded() && mMediaList.isEmpty()){
+                    updateDataSet();
+                }
+            }
         });
     }
 
-    private void addToMediaList(QueryDocumentSnapshot document) {
-        //creating mediaMetaData
-        Log.d(TAG, "addToMediaList: METHOD CALLED");
-        MediaMetadataCompat media = new MediaMetadataCompat.Builder()
-                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, document.getString(getString(R.string.field_media_id)))
-                .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, document.getString(getString(R.string.field_artist)))
-                .putString(MediaMetadataCompat.METADATA_KEY_TITLE, document.getString(getString(R.string.field_title)))
-                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI, document.getString(getString(R.string.field_media_url)))
-                .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_DESCRIPTION, document.getString(getString(R.string.field_description)))
-                .putString(MediaMetadataCompat.METADATA_KEY_DATE, document.getDate(getString(R.string.field_date_added)).toString())
-                .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON_URI, mSelectArtist.getImage())
-                .build();
-
-
-        mMediaList.add(media);
+    private Query getContentQuery(){
+        return CatalogPrefetcher.getContentQuery(mSelectedCategory, mSelectArtist.getArtist_id());
     }
 
-    private void updateDataSet(){
+    /*
+     *      After the first load, new, edited and deleted episodes are applied as deltas from a
+     *      snapshot listener instead of re-fetching the playlist
+     */
+    private void startLiveSync(){
+        if(mLivePlaylist == null){
+            FirestorePlaylistRepository<Track> repository = new FirestorePlaylistRepository<>(getContentQuery(),
+                    new FirestorePlaylistRepository.IDocumentMapper<Track>() {
+                        @Override
+                        public String getId(QueryDocumentSnapshot document) {
+                            return document.getString(getString(R.string.field_media_id));
+                        }
+
+                        @Override
+                        public Track map(QueryDocumentSnapshot document) {
+                            return buildTrack(document);
+                        }
+                    });
+            mLivePlaylist = new LivePlaylist<>(repository, new LivePlaylist.IItemKey<Track>() {
+                @Override
+                public String getId(Track item) {
+                    return item.getMediaId();
+                }
+            });
+            mLivePlaylist.seed(mMediaList);                                                         // what's on screen now
+            mLivePlaylist.setObserver(new LivePlaylist.IObserver<Track>() {
+                @Override
+                public void onChanged(List<TrackChange<Track>> applied, boolean fullBatch) {
+                    if(!isAdded() || applied.isEmpty()){
+                        return;
+                    }
+                    Log.d(TAG, "onChanged: APPLYING " + applied.size() + " LIVE CHANGES");
+                    mMediaList.clear();
+                    mMediaList.addAll(mLivePlaylist.getItems());
+                    updateDataSet();                                                                // the adapter diffs, only changed rows rebind
+                    CatalogCache.getInstance(getActivity()).savePlaylist(mSelectedCategory,
+                            mSelectArtist.getArtist_id(), mMediaList, null);
+                }
 
-        mIMainActivity.hideProgressBar();
-        mAdapter.notifyDataSetChanged();
+                @Override
+                public void onSyncFailed(Exception e) {
+                    Log.d(TAG, "onSyncFailed: live sync stopped: " + e);
+                }
+            });
+        }
+        if(isAdded() && !isHidden()){
+            mLivePlaylist.start();
+        }
+    }
 
-          //setting and highlighting the index of the song that is currently playing in the media controller
-        if(mIMainActivity.getMyPreferenceManager().getLastPlayedArtist().equals(mSelectArtist.getArtist_id())){
-            getSelectedMediaItem(mIMainActivity.getMyPreferenceManager().getLastPlayedMedia());
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if(mLoader != null){
+            mLoader.cancel();
+        }
+        if(mLivePlaylist != null){
+            mLivePlaylist.stop();
         }
+    }
+
+    private void savePlaylist(List<Track> playlist){
+
+        // the cache only writes the tracks that changed, and tells us if anything did
+        CatalogCache.getInstance(getActivity()).savePlaylist(mSelectedCategory, mSelectArtist.getArtist_id(), playlist,
+                new CatalogCache.IUpdateCallback() {
+                    @Override
+                    public void onPlaylistUpdated(List<Track> playlist, int changedTracks) {
+                        if(!isAdded()){
+                            return;
+                        }
+                        Log.d(TAG, "onPlaylistUpdated: " + changedTracks + " TRACKS CHANGED SINCE LAST SYNC");
+                        if(changedTracks > 0 || mMediaList.isEmpty()){
+                            mMediaList.clear();
+                            mMediaList.addAll(playlist);
+                            updateDataSet();
+                        }
+                        startLiveSync();
+                    }
+                });
+    }
+
+    private Track buildTrack(QueryDocumentSnapshot document) {
+        return CatalogPrefetcher.buildTrack(getActivity(), document, mSelectArtist.getImage());
+    }
 
+    private void updateDataSet(){
+
+        mIMainActivity.hideProgressBar();
+
+        // the adapter diffs a snapshot off the main thread, mMediaList keeps changing under it
+        mAdapter.submitList(new ArrayList<>(mMediaList), new Runnable() {
+            @Override
+            public void run() {
+                if(!isAdded()){
+                    return;
+                }
+                //setting and highlighting the index of the song that is currently playing in the media controller
+                if(mIMainActivity.getMyPreferenceManager().getLastPlayedArtist().equals(mSelectArtist.getArtist_id())){
+                    getSelectedMediaItem(mIMainActivity.getMyPreferenceManager().getLastPlayedMedia());
+                }
+            }
+        });
 
     }
 
     private void initRecyclerView(View view){
         mRecyclerView = view.findViewById(R.id.recycler_view);
         mRecyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
-        mAdapter = new PlaylistRecyclerAdapter(getActivity(), mMediaList, this);
+        mAdapter = new PlaylistRecyclerAdapter(getActivity(), this);
         mRecyclerView.setAdapter(mAdapter);
 
         if(mMediaList.size() == 0){
             retrieveMedia();
         }
+        else{
+            mAdapter.submitList(new ArrayList<>(mMediaList), null);                                 // retained across rotation, the first submit is synchronous
+        }
     }
 
     @Override
@@ -207,8 +365,8 @@ public class PlaylistFragment extends Fragment implements PlaylistRecyclerAdapte
         //@position ,,, position of the selected  item in the list
 
         // adding the selected playlist to myApplication class list
-        mIMainActivity.getMyApplicationInstance().setMediaItems(mMediaList);                        // store selected playlist to , myApplication
-        mSelectedMedia = mMediaList.get(position);                                                  //setting the selected media in the playlist
+        mIMainActivity.getMyApplicationInstance().setMediaItems(mAdapter.getCurrentList());         // store selected playlist to , myApplication
+        mSelectedMedia = mAdapter.getItem(position);                                                //setting the selected media in the playlist, as shown on screen
         mAdapter.setSelectedIndex(position);                                                        // tell the adapter what has been selected
 
 
@@ -240,16 +398,17 @@ public class PlaylistFragment extends Fragment implements PlaylistRecyclerAdapte
         // Save some properties for next time the app opens
         // NOTE: Normally you'd do this with a cache
 
-        mIMainActivity.getMyPreferenceManager().savePlaylistId(mSelectArtist.getArtist_id());                            // playlist id is same as an artist id from bd
-        mIMainActivity.getMyPreferenceManager().saveLastPlayedArtist(mSelectArtist.getArtist_id());
-        mIMainActivity.getMyPreferenceManager().saveLastPlayedCategory(mSelectedCategory);
-        mIMainActivity.getMyPreferenceManager().saveLastPlayedArtistImage(mSelectArtist.getImage());
-        mIMainActivity.getMyPreferenceManager().saveLastPlayedMedia(mSelectedMedia.getDescription().getMediaId());
+        mIMainActivity.getMyPreferenceManager().saveLastPlayedSong(
+                mSelectArtist.getArtist_id(),                                                       // playlist id is same as an artist id from bd
+                mSelectArtist.getArtist_id(),
+                mSelectedCategory,
+                mSelectArtist.getImage(),
+                mSelectedMedia.getMediaId());
 
         Log.d(TAG, "saveLastPlayedSongProperties: SAVED ARTIST "+mSelectArtist.getArtist_id());
         Log.d(TAG, "saveLastPlayedSongProperties: SAVED CATEGORY "+mSelectedCategory);
         Log.d(TAG, "saveLastPlayedSongProperties: SAVED ARTIST IMAGE "+mSelectArtist.getImage());
-        Log.d(TAG, "saveLastPlayedSongProperties: SAVED LAST PLAYED MEDIA "+mSelectedMedia.getDescription().getMediaId());
+        Log.d(TAG, "saveLastPlayedSongProperties: SAVED LAST PLAYED MEDIA "+mSelectedMedia.getMediaId());
 
 
     }
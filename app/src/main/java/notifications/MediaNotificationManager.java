@@ -10,9 +10,12 @@ import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.media.MediaDescriptionCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
+import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -35,6 +38,7 @@ public class MediaNotificationManager {
     private static final String CHANNEL_ID = "com.codingwithmitch.spotifyclone.musicplayer.channel";
     private static final int REQUEST_CODE = 101;
     public static final int NOTIFICATION_ID = 201;
+    private static final long COALESCE_WINDOW_MS = 16;                                              // about a frame, bursts of updates post once
 
     //actions for media button clicks
     private final NotificationCompat.Action mPlayAction;
@@ -42,8 +46,39 @@ public class MediaNotificationManager {
     private final NotificationCompat.Action mNextAction;
     private final NotificationCompat.Action mPrevAction;
 
-    public MediaNotificationManager(MediaService mediaService) {
+    // publisher
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final IPublisher mPublisher;
+    private boolean mChannelCreated;
+    private boolean mPublishScheduled;
+    private PlaybackStateCompat mPendingState;                                                      // latest update of the current window
+    private MediaSessionCompat.Token mPendingToken;
+    private MediaDescriptionCompat mPendingDescription;
+    private Bitmap mPendingBitmap;
+
+    // what the last posted notification shows
+    private boolean mLastIsPlaying;
+    private CharSequence mLastTitle;
+    private CharSequence mLastSubtitle;
+    private Bitmap mLastBitmap;
+    private long mLastActions = -1;                                                                 // -1 means nothing posted
+
+    // counters
+    private long mPostedCount;
+    private long mSuppressedCount;                                                                  // updates that changed nothing visible, or were coalesced
+
+    private final Runnable mPublishRunnable = new Runnable() {
+        @RequiresApi(api = Build.VERSION_CODES.O)
+        @Override
+        public void run() {
+            mPublishScheduled = false;
+            publishPending();
+        }
+    };
+
+    public MediaNotificationManager(MediaService mediaService, IPublisher publisher) {
         mMediaService = mediaService;
+        mPublisher = publisher;
         mNotificationManager = (NotificationManager) mMediaService.getSystemService(Context.NOTIFICATION_SERVICE);
 
         mPlayAction =
@@ -83,6 +118,71 @@ public class MediaNotificationManager {
         return mNotificationManager;
     }
 
+    /**
+     * Queues a notification update, main thread only. Updates within COALESCE_WINDOW_MS are
+     * merged (the latest wins), and the notification is only rebuilt and handed to the
+     * IPublisher when something visible changed: play/pause, title, artwork or the skip actions.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public void publish(@NonNull PlaybackStateCompat state, MediaSessionCompat.Token token,
+                        MediaDescriptionCompat description, Bitmap bitmap) {
+        if (mPublishScheduled) {
+            mSuppressedCount++;                                                                     // replaces the pending update
+        }
+        mPendingState = state;
+        mPendingToken = token;
+        mPendingDescription = description;
+        mPendingBitmap = bitmap;
+        if (!mPublishScheduled) {
+            mPublishScheduled = true;
+            mMainHandler.postDelayed(mPublishRunnable, COALESCE_WINDOW_MS);
+        }
+    }
+
+    /**
+     * The notification was taken down, the next publish posts even if nothing changed.
+     */
+    public void invalidate() {
+        mMainHandler.removeCallbacks(mPublishRunnable);
+        mPublishScheduled = false;
+        mLastActions = -1;
+    }
+
+    public long getPostedCount() {
+        return mPostedCount;
+    }
+
+    public long getSuppressedCount() {
+        return mSuppressedCount;
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private void publishPending() {
+        PlaybackStateCompat state = mPendingState;
+        boolean isPlaying = state.getState() == PlaybackStateCompat.STATE_PLAYING;
+        long actions = state.getActions()
+                & (PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS | PlaybackStateCompat.ACTION_SKIP_TO_NEXT);
+
+        if (mLastActions == actions
+                && mLastIsPlaying == isPlaying
+                && mLastBitmap == mPendingBitmap
+                && TextUtils.equals(mLastTitle, mPendingDescription.getTitle())
+                && TextUtils.equals(mLastSubtitle, mPendingDescription.getSubtitle())) {
+            mSuppressedCount++;                                                                     // seeks, buffering, position updates
+            return;
+        }
+
+        Notification notification = buildNotification(state, mPendingToken, mPendingDescription, mPendingBitmap);
+        mLastActions = actions;
+        mLastIsPlaying = isPlaying;
+        mLastBitmap = mPendingBitmap;
+        mLastTitle = mPendingDescription.getTitle();
+        mLastSubtitle = mPendingDescription.getSubtitle();
+        mPostedCount++;
+        Log.d(TAG, "publishPending: POSTED " + mPostedCount + ", SUPPRESSED " + mSuppressedCount);
+        mPublisher.onPublish(notification, state);
+    }
+
     // Does nothing on versions of Android earlier than O.
     @RequiresApi(Build.VERSION_CODES.O)
     private void createChannel() {
@@ -128,10 +228,11 @@ public class MediaNotificationManager {
 
         boolean isPlaying = state.getState() == PlaybackStateCompat.STATE_PLAYING;
 
-        // Create the (mandatory) notification channel when running on Android Oreo.
-        if (isAndroidOOrHigher()) {
+        // Create the (mandatory) notification channel when running on Android Oreo, once
+        if (!mChannelCreated && isAndroidOOrHigher()) {
             Log.d(TAG, "buildNotification: CONDITION CALLED, isAndroidOOrHigher()");
             createChannel();
+            mChannelCreated = true;
         }
 
 
@@ -175,6 +276,13 @@ public class MediaNotificationManager {
         return builder.build();
     }
 
+    /**
+     * Posts a built notification, the service decides between foreground and a plain notify.
+     */
+    public interface IPublisher {
+        void onPublish(Notification notification, PlaybackStateCompat state);
+    }
+
     private PendingIntent createContentIntent() {
         Log.d(TAG, "createContentIntent: METHOD CALLED");
         Intent openUI = new Intent(mMediaService, MainActivity.class);
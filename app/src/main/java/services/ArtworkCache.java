@@ -0,0 +1,276 @@
+package services;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.FutureTarget;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Notification artwork for MediaService, in two tiers:
+ * memory - an LRU of notification sized (downsampled) bitmaps with a byte budget,
+ * disk - the same bitmaps as files named by the SHA-1 of uri + target size, bounded by {@link #DISK_BUDGET_BYTES}.
+ *
+ * Only the network fetch goes through Glide, and only on a miss in both tiers. Artwork for
+ * upcoming tracks is warmed on a background thread so a notification update can be served
+ * from memory. Concurrent loads of the same artwork (a warm-up and the notification) share one
+ * download.
+ */
+public class ArtworkCache {
+
+    private static final String TAG = "ArtworkCache";
+
+    private static final String DISK_FOLDER = "artwork";
+    private static final int MEMORY_BUDGET_BYTES = 4 * 1024 * 1024;
+    private static final long DISK_BUDGET_BYTES = 10 * 1024 * 1024;
+    private static final int JPEG_QUALITY = 90;                                                     // artwork has no alpha
+
+    private final Context mContext;
+    private final int mWidth;                                                                       // target (notification large icon) size
+    private final int mHeight;
+    private final File mDiskFolder;
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final ExecutorService mWarmUpExecutor = Executors.newSingleThreadExecutor();
+    private final ConcurrentHashMap<String, FutureTask<Bitmap>> mLoads = new ConcurrentHashMap<>(); // key -> load in progress
+
+    public ArtworkCache(Context context) {
+        mContext = context.getApplicationContext();
+        mWidth = mContext.getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+        mHeight = mContext.getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_height);
+        mDiskFolder = new File(mContext.getCacheDir(), DISK_FOLDER);
+
+        int budget = (int) Math.min(MEMORY_BUDGET_BYTES, Runtime.getRuntime().maxMemory() / 16);
+        mMemoryCache = new LruCache<String, Bitmap>(budget) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Memory tier only, safe to call on any thread. Null when the artwork isn't in memory.
+     */
+    public Bitmap peek(String uri){
+        if(TextUtils.isEmpty(uri)){
+            return null;
+        }
+        return mMemoryCache.get(getKey(uri));
+    }
+
+    /**
+     * Blocking, never call this on the main thread. Memory, then disk, then the network.
+     * Returns null when the artwork can't be loaded.
+     */
+    public Bitmap get(final String uri){
+        if(TextUtils.isEmpty(uri)){
+            return null;
+        }
+        final String key = getKey(uri);
+        Bitmap bitmap = mMemoryCache.get(key);
+        if(bitmap != null){
+            return bitmap;
+        }
+
+        // the first caller loads, the others wait for its result
+        FutureTask<Bitmap> load = new FutureTask<>(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                return load(uri, key);
+            }
+        });
+        FutureTask<Bitmap> existing = mLoads.putIfAbsent(key, load);
+        if(existing == null){
+            try {
+                load.run();
+            } finally {
+                mLoads.remove(key, load);
+            }
+        }
+        else {
+            load = existing;
+        }
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "get: failed to load " + uri, e.getCause());
+        }
+        return null;
+    }
+
+    private Bitmap load(String uri, String key){
+        Bitmap bitmap = mMemoryCache.get(key);                                                      // a load that just finished
+        if(bitmap != null){
+            return bitmap;
+        }
+        File file = getFile(key);
+        bitmap = readFromDisk(file);
+        if(bitmap == null){
+            bitmap = download(uri);
+            if(bitmap == null){
+                return null;
+            }
+            writeToDisk(file, bitmap);
+        }
+        mMemoryCache.put(key, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Loads the artwork of upcoming tracks in the background.
+     */
+    public void warm(List<String> uris){
+        for(final String uri: uris){
+            if(TextUtils.isEmpty(uri) || peek(uri) != null){
+                continue;
+            }
+            mWarmUpExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    get(uri);
+                }
+            });
+        }
+    }
+
+    public void clearMemory(){
+        mMemoryCache.evictAll();
+    }
+
+    public void trimMemory(int maxBytes){
+        mMemoryCache.trimToSize(maxBytes);
+    }
+
+    private String getKey(String uri){
+        return uri + "@" + mWidth + "x" + mHeight;
+    }
+
+    private File getFile(String key){
+        // the key is a url, name the file after its digest like Glide's disk cache does
+        return new File(mDiskFolder, sha1(key) + ".jpg");
+    }
+
+    private static String sha1(String key){
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(Charset.forName("UTF-8")));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for(byte b: digest){
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);                                                     // every Android has SHA-1
+        }
+    }
+
+    private Bitmap download(String uri){
+        if(Thread.currentThread().isInterrupted()){
+            return null;                                                                            // the loader moved on already
+        }
+        // Glide downsamples to fit the target size, we never keep the full size artwork
+        FutureTarget<Bitmap> target = Glide.with(mContext)
+                .asBitmap()
+                .load(uri)
+                .submit(mWidth, mHeight);
+        try {
+            Bitmap bitmap = target.get();
+            // ours to keep: clearing the target below hands Glide's bitmap back to its pool
+            return bitmap.copy(bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888, false);
+        } catch (InterruptedException e) {
+            target.cancel(true);                                                                    // a newer track, stop the request itself too
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "download: failed to load " + uri, e);
+        } finally {
+            Glide.with(mContext).clear(target);                                                     // releases the request and its resources
+        }
+        return null;
+    }
+
+    private Bitmap readFromDisk(File file){
+        if(!file.exists()){
+            return null;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+        if(bitmap != null){
+            file.setLastModified(System.currentTimeMillis());                                       // LRU order for trimDisk
+        }
+        return bitmap;
+    }
+
+    private synchronized void writeToDisk(File file, Bitmap bitmap){
+        if(!mDiskFolder.exists() && !mDiskFolder.mkdirs()){
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            out.close();
+            out = null;
+            if(!temp.renameTo(file)){
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "writeToDisk: failed to write " + file, e);
+            temp.delete();
+        } finally {
+            if(out != null){
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+        trimDisk();
+    }
+
+    private void trimDisk(){
+        File[] files = mDiskFolder.listFiles();
+        if(files == null){
+            return;
+        }
+        long total = 0;
+        for(File file: files){
+            total += file.length();
+        }
+        if(total <= DISK_BUDGET_BYTES){
+            return;
+        }
+        // oldest first
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for(int i = 0; i < files.length && total > DISK_BUDGET_BYTES; i++){
+            total -= files[i].length();
+            files[i].delete();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package services;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads the artwork of the current track off the main thread, one request at a time.
+ *
+ * Every load gets a token. A new load cancels the one in flight, and a result is only delivered
+ * if its token is still the latest one, checked again on the delivery executor. So rapid
+ * skipping never queues up downloads, and a slow old load can't overwrite the new track's art.
+ *
+ * Android free (the artwork type is generic) so it can be tested on the JVM.
+ */
+public class ArtworkLoader<T> {
+
+    private final Fetcher<T> mFetcher;
+    private final ExecutorService mWorker;
+    private final Executor mDelivery;                                                               // the main thread in the app
+    private final AtomicLong mToken = new AtomicLong();
+    private Future<?> mInFlight;
+
+    // counters
+    private final AtomicLong mRequested = new AtomicLong();
+    private final AtomicLong mCancelled = new AtomicLong();                                         // in-flight loads cancelled by a newer one
+    private final AtomicLong mDropped = new AtomicLong();                                           // finished, but stale by the time they came back
+    private final AtomicLong mDelivered = new AtomicLong();
+
+    public ArtworkLoader(Fetcher<T> fetcher, ExecutorService worker, Executor delivery) {
+        mFetcher = fetcher;
+        mWorker = worker;
+        mDelivery = delivery;
+    }
+
+    /**
+     * Starts loading uri and cancels the previous load. Returns the request token.
+     */
+    public synchronized long load(final String uri, final Callback<T> callback){
+        final long token = mToken.incrementAndGet();
+        mRequested.incrementAndGet();
+        if(mInFlight != null && mInFlight.cancel(true)){
+            mCancelled.incrementAndGet();
+        }
+
+        mInFlight = mWorker.submit(new Runnable() {
+            @Override
+            public void run() {
+                if(!isCurrent(token)){
+                    mDropped.incrementAndGet();
+                    return;
+                }
+                final T artwork = mFetcher.fetch(uri);
+                if(!isCurrent(token) || Thread.currentThread().isInterrupted()){
+                    mDropped.incrementAndGet();
+                    return;
+                }
+                mDelivery.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // a newer request can come in while this was waiting for the delivery thread
+                        if(!isCurrent(token)){
+                            mDropped.incrementAndGet();
+                            return;
+                        }
+                        mDelivered.incrementAndGet();
+                        callback.onArtworkLoaded(uri, artwork);
+                    }
+                });
+            }
+        });
+        return token;
+    }
+
+    /**
+     * Cancels the load in flight, nothing is delivered until the next load().
+     */
+    public synchronized void cancel(){
+        mToken.incrementAndGet();
+        if(mInFlight != null && mInFlight.cancel(true)){
+            mCancelled.incrementAndGet();
+        }
+        mInFlight = null;
+    }
+
+    public void release(){
+        cancel();
+        mWorker.shutdownNow();
+    }
+
+    public boolean isCurrent(long token){
+        return token == mToken.get();
+    }
+
+    public long getRequestedCount(){
+        return mRequested.get();
+    }
+
+    public long getCancelledCount(){
+        return mCancelled.get();
+    }
+
+    public long getDroppedCount(){
+        return mDropped.get();
+    }
+
+    public long getDeliveredCount(){
+        return mDelivered.get();
+    }
+
+    public interface Fetcher<T> {
+        // blocking, runs on the worker thread. Should return early (null is fine) when interrupted
+        T fetch(String uri);
+    }
+
+    public interface Callback<T> {
+        void onArtworkLoaded(String uri, T artwork);
+    }
+}
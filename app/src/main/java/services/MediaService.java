@@ -3,9 +3,14 @@ package services;
 import android.app.Notification;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.ResultReceiver;
+import android.provider.MediaStore;
 import android.support.v4.media.MediaBrowserCompat;
 import android.support.v4.media.MediaDescriptionCompat;
 import android.support.v4.media.MediaMetadataCompat;
@@ -20,42 +25,74 @@ import androidx.annotation.RequiresApi;
 import androidx.core.content.ContextCompat;
 import androidx.media.MediaBrowserServiceCompat;
 
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.load.DataSource;
-import com.bumptech.glide.load.engine.GlideException;
-import com.bumptech.glide.request.FutureTarget;
-import com.bumptech.glide.request.RequestListener;
-import com.bumptech.glide.request.target.Target;
 import com.example.spotifylearn.MyApplication;
 import com.example.spotifylearn.R;
 import com.google.api.LogDescriptor;
 import com.google.common.util.concurrent.ServiceManager;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
+import Models.Track;
+import Players.AudioCache;
 import Players.MediaPlayerAdapter;
 import Players.PlaybackInfoListener;
+import Players.PlaybackMetrics;
 import notifications.MediaNotificationManager;
+import util.CatalogCache;
 import util.MediaLibrary;
 import util.MyPreferenceManager;
-
+import util.QueueOrder;
+import util.SearchIndex;
+import util.SessionQueue;
+import util.SessionSnapshot;
+import util.SessionStateStore;
+import util.TrackConverter;
+
+import static util.Constants.ACTION_UI_ATTACHED;
+import static util.Constants.COMMAND_GET_METRICS;
+import static util.Constants.COMMAND_SET_QUEUE;
 import static util.Constants.MEDIA_QUEUE_POSITION;
+import static util.Constants.METRICS_REPORT;
+import static util.Constants.METRICS_RESET;
 import static util.Constants.QUEUE_NEW_PLAYLIST;
-import static util.Constants.SEEK_BAR_MAX;
-import static util.Constants.SEEK_BAR_PROGRESS;
-
+import static util.Constants.QUEUE_PARENT_ID;
+import static util.Constants.UI_ATTACHED;
+
+/**
+ * Threading contract: session commands (MediaSessionCallback) and the player (MediaPlayerAdapter,
+ * ExoPlayer and its listener, audio focus and noisy events) all run on mPlayerThread, so the main
+ * thread never prepares media or writes preferences. Player callbacks that manage the notification
+ * and the foreground state hop back to the main thread. onGetRoot/onLoadChildren stay on main.
+ */
 public class MediaService extends MediaBrowserServiceCompat {
 
     private static final String TAG = "MediaService";
 
+    private static final int QUEUE_WINDOW_SIZE = 200;                                               // longer queues are published as a window around the current item
+    private static final int QUEUE_WINDOW_MARGIN = 20;                                              // re-publish the window when the index gets this close to its edge
+    private static final int SEARCH_LIMIT = 50;                                                     // results of onSearch, and the queue a voice search plays
+    private static final String SEARCH_PARENT_ID = "search_results";
+
     private MediaSessionCompat mSession;                  // connects with the Media Controller obj
     private MediaPlayerAdapter mPlayback;                 // exoPlayer obj,
     private MyApplication mMyApplication;                 // has the list of the selected list
     private MyPreferenceManager mMyPrefManager;
     private MediaNotificationManager mMediaNotificationManager;
+    private ArtworkCache mArtworkCache;                                                             // notification bitmaps, memory + disk
+    private ArtworkLoader<Bitmap> mArtworkLoader;                                                   // one cancellable artwork load at a time
+    private MediaSessionCallback mSessionCallback;
+    private SessionSnapshot mResumeSnapshot;                                                        // last session, used to resume at the saved position
     private boolean mIsServiceStarted;                                                              //determines if the service is running or not
+    private HandlerThread mPlayerThread;                                                            // session commands + exoPlayer
+    private Handler mPlayerHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
 
 
     @Override
@@ -65,6 +102,13 @@ public class MediaService extends MediaBrowserServiceCompat {
         mMyApplication = MyApplication.getInstance();
         mMyPrefManager = new MyPreferenceManager(this);
 
+        // the service can come up before (or without) the activity, restore the last queue from disk
+        mResumeSnapshot = SessionSnapshot.restore(this);
+        if(mResumeSnapshot != null && mMyApplication.getMediaItemCount() == 0){
+            mMyApplication.setMediaItems(mResumeSnapshot.getQueue());
+        }
+        CatalogCache.getInstance(this).indexCachedCatalog();                                        // voice searches can come in before the UI loaded anything
+
         //Build the MediaSession
         mSession = new MediaSessionCompat(this, TAG);
 
@@ -76,26 +120,128 @@ public class MediaService extends MediaBrowserServiceCompat {
                 MediaSessionCompat.FLAG_HANDLES_QUEUE_COMMANDS); // Control the items in the queue (aka playlist)
         // See https://developer.android.com/guide/topics/media-apps/mediabuttons for more info on flags
 
-        mSession.setCallback(new MediaSessionCallback());                                           //callback methods
+        mPlayerThread = new HandlerThread("MediaPlayerThread", Process.THREAD_PRIORITY_AUDIO);
+        mPlayerThread.start();
+        mPlayerHandler = new Handler(mPlayerThread.getLooper());
+
+        mSessionCallback = new MediaSessionCallback();
+        mSession.setCallback(mSessionCallback, mPlayerHandler);                                     //callback methods, delivered on the player thread
+        mSession.setRepeatMode(PlaybackStateCompat.REPEAT_MODE_ALL);                                // the queue always wrapped around, still the default
+        mSession.setShuffleMode(PlaybackStateCompat.SHUFFLE_MODE_NONE);
 
         // A token that can be used to create a MediaController for this session
         setSessionToken(mSession.getSessionToken());
-        mPlayback = new MediaPlayerAdapter(this,new MediaPlayerListener());
-        mMediaNotificationManager = new MediaNotificationManager(this);
+        mPlayback = new MediaPlayerAdapter(this, new MediaPlayerListener(), mPlayerThread.getLooper());
+        mMediaNotificationManager = new MediaNotificationManager(this, new MediaNotificationManager.IPublisher() {
+            @Override
+            public void onPublish(Notification notification, PlaybackStateCompat state) {
+                postNotification(notification, state);
+            }
+        });
+        mArtworkCache = new ArtworkCache(this);
+        mArtworkLoader = new ArtworkLoader<>(new ArtworkLoader.Fetcher<Bitmap>() {
+            @Override
+            public Bitmap fetch(String uri) {
+                return mArtworkCache.get(uri);
+            }
+        }, Executors.newSingleThreadExecutor(), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mMainHandler.post(command);
+            }
+        });
+
+    }
 
+    private void postNotification(Notification notification, PlaybackStateCompat state) {
+        // Manage the started state of this service.
+        switch (state.getState()) {
+
+            case PlaybackStateCompat.STATE_PLAYING:
+                if (!mIsServiceStarted) {
+                    ContextCompat.startForegroundService(
+                            MediaService.this,
+                            new Intent(MediaService.this, MediaService.class));
+                    mIsServiceStarted = true;
+                }
+
+                startForeground(MediaNotificationManager.NOTIFICATION_ID, notification);
+                break;
+
+            case PlaybackStateCompat.STATE_PAUSED:
+                stopForeground(false);
+                mMediaNotificationManager.getNotificationManager()
+                        .notify(MediaNotificationManager.NOTIFICATION_ID, notification);
+                break;
+        }
     }
 
     @Override
     public void onTaskRemoved(Intent rootIntent) {
         super.onTaskRemoved(rootIntent);
         stopSelf();                         // stop the service when task is removed
-        mPlayback.stop();                   // stopping exoPlayer
+        mPlayerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mPlayback.stop();           // stopping exoPlayer
+            }
+        });
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
         mSession.release();
+        mArtworkLoader.release();
+        mMyPrefManager.flush();                                                                     // don't leave the last track change in the write-behind window
+        mPlayerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mPlayback.stop();
+            }
+        });
+        mPlayerThread.quitSafely();                                                                 // runs the stop first
+    }
+
+    /**
+     * adb shell dumpsys activity service com.example.spotifylearn/services.MediaService
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println(buildMetricsReport());
+    }
+
+    // playback latency plus the caches and the preference store that sit on the play path
+    private String buildMetricsReport() {
+        SessionStateStore store = SessionStateStore.getInstance(this);
+        return (mPlayback != null ? mPlayback.getMetrics().toString() : "PlaybackMetrics{}")
+                + "\n" + AudioCache.getInstance(this)
+                + "\n" + mMyApplication.getMetadataCache()
+                + "\nSessionStateStore{commits=" + store.getCommitCount()
+                + ", writes=" + store.getWriteCount()
+                + ", bytesWritten=" + store.getBytesWritten() + "}";
+    }
+
+    /**
+     * One Bundle per histogram (count, mean, p50, p90, p99, max, bucket bounds and counts in ms)
+     * under its name, and the dumpsys text under METRICS_REPORT.
+     */
+    private Bundle buildMetricsBundle() {
+        Bundle metrics = new Bundle();
+        for (PlaybackMetrics.Histogram histogram : mPlayback.getMetrics().getHistograms()) {
+            Bundle values = new Bundle();
+            values.putLong("count", histogram.getCount());
+            values.putLong("mean", histogram.getMean());
+            values.putLong("p50", histogram.getPercentile(50));
+            values.putLong("p90", histogram.getPercentile(90));
+            values.putLong("p99", histogram.getPercentile(99));
+            values.putLong("max", histogram.getMax());
+            values.putLongArray("bucket_bounds", PlaybackMetrics.Histogram.getBucketBounds());
+            values.putLongArray("bucket_counts", histogram.getBucketCounts());
+            metrics.putBundle(histogram.getName(), values);
+        }
+        metrics.putString(METRICS_REPORT, buildMetricsReport());
+        return metrics;
     }
 
     @Nullable
@@ -129,49 +275,212 @@ public class MediaService extends MediaBrowserServiceCompat {
 
     }
 
+    /**
+     * Paged browsing, clients pass MediaBrowserCompat.EXTRA_PAGE / EXTRA_PAGE_SIZE so a large
+     * playlist never goes over the binder in one transaction. Without them the whole list is sent.
+     */
+    @Override
+    public void onLoadChildren(@NonNull String parentId, @NonNull Result<List<MediaBrowserCompat.MediaItem>> result, @NonNull Bundle options) {
+        int page = options.getInt(MediaBrowserCompat.EXTRA_PAGE, -1);
+        int pageSize = options.getInt(MediaBrowserCompat.EXTRA_PAGE_SIZE, -1);
+        if (page < 0 || pageSize < 1) {
+            onLoadChildren(parentId, result);
+            return;
+        }
+
+        Log.d(TAG, "onLoadChildren: called: " + parentId + ", page " + page + " of size " + pageSize);
+        if (TextUtils.equals("empty_media", parentId)) {
+            result.sendResult(null);
+            return;
+        }
+        int from = page * pageSize;
+        result.sendResult(mMyApplication.getMediaItems(from, from + pageSize));
+    }
+
+    /**
+     * Searches every track the app has seen (not only the current playlist). Served from the
+     * in-memory index, so it answers straight away.
+     */
+    @Override
+    public void onSearch(@NonNull String query, Bundle extras, @NonNull Result<List<MediaBrowserCompat.MediaItem>> result) {
+        List<Track> tracks = mMyApplication.getSearchIndex().search(query, SEARCH_LIMIT);
+        Log.d(TAG, "onSearch: " + tracks.size() + " RESULTS FOR " + query);
+        result.sendResult(TrackConverter.toMediaItems(tracks));
+    }
+
     public class MediaSessionCallback extends MediaSessionCompat.Callback {
 
-        private final List<MediaSessionCompat.QueueItem> mPlaylist = new ArrayList<>();             // similar to mediaMetadata, playlist for the songs
+        private final SessionQueue<MediaDescriptionCompat> mPlaylist = new SessionQueue<>();        // similar to mediaMetadata, playlist for the songs, under stable queue ids
         private int mQueueIndex = -1;                                                               // keeps track of which item is currently playing in the playlist
         private MediaMetadataCompat mPreparedMedia;                                                 // currently being played by exo player
+        private int mWindowStart = -1;                                                              // part of mPlaylist published with setQueue
+        private int mWindowEnd = -1;
+        private final QueueOrder mOrder = new QueueOrder(new Random());                             // play order over mPlaylist, shuffle and repeat
+        private List<Track> mSnapshotQueue;                                                         // mPlaylist as tracks for the session snapshot, null when the queue changed
+
+        // queue changes are published once, after the commands that are already waiting
+        private final Runnable mPublishQueue = new Runnable() {
+            @Override
+            public void run() {
+                publishQueueWindow(true);
+                prefetchUpcoming();
+            }
+        };
+
+        public MediaSessionCallback() {
+            mOrder.setRepeatMode(QueueOrder.REPEAT_ALL);                                            // matches the session's default
+        }
 
         private void resetPlaylist()
 
         {
             //clearing the playlist and setting the index to -1
             mPlaylist.clear();
+            mSnapshotQueue = null;
             mQueueIndex = -1;
+            mOrder.reset(0, -1);
         }
 
         @Override
         public void onPlayFromMediaId(String mediaId, Bundle extras) {
             Log.d(TAG, "onPlayFromMediaId: CALLED.");
+            mPlayback.getMetrics().onPlayRequested();
             // if we are not playing the 1st playlist, then clear the previous
-            if(extras.getBoolean(QUEUE_NEW_PLAYLIST, false)){
+            if(extras != null && extras.getBoolean(QUEUE_NEW_PLAYLIST, false)){
                 resetPlaylist();
             }
 
-            mPreparedMedia = mMyApplication.getTreeMap().get(mediaId);                              // init the Current media with, media from mMyAplicationlist
+            mPreparedMedia = mMyApplication.getMediaItem(mediaId);                                  // init the Current media with, media from mMyAplicationlist
             mSession.setMetadata(mPreparedMedia);                                                   // setting the currently played media to mSession
             if (!mSession.isActive()) {
                 mSession.setActive(true);
             }
 
             mPlayback.playFromMedia(mPreparedMedia);                                                // playing media in exoPlayer
+            resumeFromSnapshot(mediaId);
 
-            int newQueuePosition = extras.getInt(MEDIA_QUEUE_POSITION, -1);             // init the index of the selected song in the que/ playlist
+            int newQueuePosition = extras != null ? extras.getInt(MEDIA_QUEUE_POSITION, -1) : -1;  // init the index of the selected song in the que/ playlist
             if(newQueuePosition == -1){
                 mQueueIndex++;
             }
             else{
-                mQueueIndex = extras.getInt(MEDIA_QUEUE_POSITION);
+                mQueueIndex = newQueuePosition;
             }
+            mOrder.jumpTo(mQueueIndex);                                                             // shuffle goes on from the picked item
 
-            mMyPrefManager.saveQueuePosition(mQueueIndex);                                          // saving the index of the played playlist
-            mMyPrefManager.saveLastPlayedMedia(mPreparedMedia.getDescription().getMediaId());       // saving the current media metadata
+            mMyPrefManager.saveNowPlaying(mQueueIndex, mPreparedMedia.getDescription().getMediaId());  // index in the playlist + current media, one commit
+            publishQueueWindow(false);
+            prefetchUpcoming();
 
         }
 
+        /**
+         * Voice / assistant searches ("play X by Y"). An empty query means play anything, so the
+         * current queue resumes. Otherwise the matches become the queue and the best one plays.
+         */
+        @Override
+        public void onPlayFromSearch(String query, Bundle extras) {
+            Log.d(TAG, "onPlayFromSearch: CALLED: " + query);
+            if (TextUtils.isEmpty(query)) {
+                if (mPlaylist.isEmpty()) {
+                    setQueueFromParent(SEARCH_PARENT_ID);                                          // whatever the app has loaded
+                }
+                onPlay();
+                return;
+            }
+
+            List<Track> results = search(query, extras);
+            if (results.isEmpty()) {
+                Log.d(TAG, "onPlayFromSearch: NOTHING FOUND FOR " + query);
+                return;
+            }
+            mMyApplication.setMediaItems(results);
+            resetPlaylist();
+            mPreparedMedia = null;
+            setQueueFromParent(SEARCH_PARENT_ID);
+
+            Bundle playExtras = new Bundle();
+            playExtras.putInt(MEDIA_QUEUE_POSITION, 0);
+            onPlayFromMediaId(results.get(0).getMediaId(), playExtras);
+        }
+
+        // narrowed to one field when the assistant says what the query is (an artist, a title)
+        private List<Track> search(String query, Bundle extras) {
+            SearchIndex index = mMyApplication.getSearchIndex();
+            String focus = extras != null ? extras.getString(MediaStore.EXTRA_MEDIA_FOCUS) : null;
+            List<Track> results = Collections.emptyList();
+            if (MediaStore.Audio.Artists.ENTRY_CONTENT_TYPE.equals(focus)) {
+                results = index.search(extras.getString(MediaStore.EXTRA_MEDIA_ARTIST), SearchIndex.FIELD_ARTIST, SEARCH_LIMIT);
+            }
+            else if (MediaStore.Audio.Media.ENTRY_CONTENT_TYPE.equals(focus)) {
+                results = index.search(extras.getString(MediaStore.EXTRA_MEDIA_TITLE), SearchIndex.FIELD_TITLE, SEARCH_LIMIT);
+            }
+            return results.isEmpty() ? index.search(query, SEARCH_LIMIT) : results;
+        }
+
+        @Override
+        public void onCommand(String command, Bundle extras, ResultReceiver cb) {
+            if (COMMAND_SET_QUEUE.equals(command)) {
+                setQueueFromParent(extras != null ? extras.getString(QUEUE_PARENT_ID) : null);
+            }
+            else if (COMMAND_GET_METRICS.equals(command)) {
+                if (cb != null) {
+                    cb.send(0, buildMetricsBundle());
+                }
+                if (extras != null && extras.getBoolean(METRICS_RESET, false)) {
+                    mPlayback.getMetrics().reset();
+                }
+            }
+        }
+
+        /**
+         * Replaces the queue with the children of parentId in one go, and publishes it once.
+         * The children are what onLoadChildren serves for that parent.
+         */
+        private void setQueueFromParent(String parentId) {
+            if (TextUtils.equals("empty_media", parentId)) {
+                return;
+            }
+            List<MediaBrowserCompat.MediaItem> children = mMyApplication.getMediaItems();
+            if (isSameQueue(children)) {
+                Log.d(TAG, "setQueueFromParent: QUEUE UNCHANGED " + parentId);
+                return;
+            }
+
+            String currentMediaId = mPreparedMedia != null ? mPreparedMedia.getDescription().getMediaId() : null;
+            mPlaylist.clear();
+            mSnapshotQueue = null;
+            int currentIndex = -1;
+            for (int i = 0; i < children.size(); i++) {
+                MediaDescriptionCompat description = children.get(i).getDescription();
+                mPlaylist.add(description.getMediaId(), description);
+                if (currentIndex == -1 && TextUtils.equals(currentMediaId, description.getMediaId())) {
+                    currentIndex = i;
+                }
+            }
+            if (currentIndex != -1) {
+                mQueueIndex = currentIndex;                                                         // the track that's already playing (the play command can arrive first)
+            }
+            else {
+                mQueueIndex = mPlaylist.isEmpty() ? -1 : Math.max(0, Math.min(mQueueIndex, mPlaylist.size() - 1));
+            }
+            mOrder.reset(mPlaylist.size(), mQueueIndex);                                            // a new queue gets a new shuffle
+            Log.d(TAG, "setQueueFromParent: " + mPlaylist.size() + " ITEMS FROM " + parentId + ", INDEX " + mQueueIndex);
+            publishQueue();
+        }
+
+        private boolean isSameQueue(List<MediaBrowserCompat.MediaItem> children) {
+            if (children.size() != mPlaylist.size()) {
+                return false;
+            }
+            for (int i = 0; i < children.size(); i++) {
+                if (!TextUtils.equals(children.get(i).getMediaId(), mPlaylist.getMediaId(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
 
 
         @Override
@@ -179,18 +488,67 @@ public class MediaService extends MediaBrowserServiceCompat {
         {
             //adding to the playlist, media songs
             Log.d(TAG, "onAddQueueItem: CALLED: position in list: " + mPlaylist.size());
-            mPlaylist.add(new MediaSessionCompat.QueueItem(description, description.hashCode()));
+            mPlaylist.add(description.getMediaId(), description);
+            mSnapshotQueue = null;
+            mOrder.append();                                                                        // shuffled in somewhere after the current item
             mQueueIndex = (mQueueIndex == -1) ? 0 : mQueueIndex;
-            mSession.setQueue(mPlaylist);                                                           // connecting the playlist with the mediaSession
+            if (mOrder.getCurrent() != mQueueIndex) {
+                mOrder.jumpTo(mQueueIndex);
+            }
+            publishQueue();                                                                         // connecting the playlist with the mediaSession
         }
 
         @Override
         public void onRemoveQueueItem(MediaDescriptionCompat description)
 
         {
-            mPlaylist.remove(new MediaSessionCompat.QueueItem(description, description.hashCode()));
-            mQueueIndex = (mPlaylist.isEmpty()) ? -1 : mQueueIndex;                                 // condition
-            mSession.setQueue(mPlaylist);                                                           // session needs to know the que
+            // O(log n), the items after it keep their queue ids
+            int removed = mPlaylist.remove(description.getMediaId());
+            if (removed != -1) {
+                mSnapshotQueue = null;
+                mOrder.remove(removed);
+                if (removed < mQueueIndex) {
+                    mQueueIndex--;
+                }
+            }
+            mQueueIndex = (mPlaylist.isEmpty()) ? -1 : Math.min(mQueueIndex, mPlaylist.size() - 1); // condition
+            publishQueue();
+        }
+
+        /**
+         * Publishes the queue to the session. Queues longer than QUEUE_WINDOW_SIZE are published
+         * as a window around the current item, re-published when the index nears its edge.
+         */
+        private void publishQueueWindow(boolean force) {
+            int size = mPlaylist.size();
+            if (!force && (size <= QUEUE_WINDOW_SIZE || isInsideWindow(size))) {
+                return;
+            }
+            int start = 0;
+            int end = size;
+            if (size > QUEUE_WINDOW_SIZE) {
+                start = Math.max(0, Math.min(mQueueIndex - QUEUE_WINDOW_SIZE / 2, size - QUEUE_WINDOW_SIZE));
+                end = start + QUEUE_WINDOW_SIZE;
+            }
+            mWindowStart = start;
+            mWindowEnd = end;
+            List<MediaSessionCompat.QueueItem> window = new ArrayList<>(end - start);
+            for (int position = start; position < end; position++) {
+                window.add(new MediaSessionCompat.QueueItem(mPlaylist.get(position), mPlaylist.getQueueId(position)));
+            }
+            mSession.setQueue(window);                                                              // session needs to know the que
+        }
+
+        private boolean isInsideWindow(int size) {
+            return mQueueIndex >= mWindowStart && mQueueIndex < mWindowEnd
+                    && (mQueueIndex - mWindowStart >= QUEUE_WINDOW_MARGIN || mWindowStart == 0)
+                    && (mWindowEnd - mQueueIndex > QUEUE_WINDOW_MARGIN || mWindowEnd == size);
+        }
+
+        private void publishQueue() {
+            // queued behind the commands that are already waiting, so a burst costs one setQueue
+            mPlayerHandler.removeCallbacks(mPublishQueue);
+            mPlayerHandler.post(mPublishQueue);
         }
 
         @Override
@@ -201,7 +559,7 @@ public class MediaService extends MediaBrowserServiceCompat {
                 return;  //break
             }
 
-            String mediaId = mPlaylist.get(mQueueIndex).getDescription().getMediaId();
+            String mediaId = mPlaylist.getMediaId(mQueueIndex);
             mPreparedMedia = mMyApplication.getMediaItem(mediaId);                                  // prepare media item for playing
             mSession.setMetadata(mPreparedMedia);                                                   // keep the mSession informed
 
@@ -218,6 +576,7 @@ public class MediaService extends MediaBrowserServiceCompat {
                 // playlist is empty, Nothing to play.
                 return;
             }
+            mPlayback.getMetrics().onPlayRequested();                                               // no-op when a skip is already timing
 
             if (mPreparedMedia == null) {
                 onPrepare();
@@ -225,8 +584,9 @@ public class MediaService extends MediaBrowserServiceCompat {
 
             mPlayback.playFromMedia(mPreparedMedia);                                                // exo player
 
-            mMyPrefManager.saveQueuePosition(mQueueIndex);
-            mMyPrefManager.saveLastPlayedMedia(mPreparedMedia.getDescription().getMediaId());
+            mMyPrefManager.saveNowPlaying(mQueueIndex, mPreparedMedia.getDescription().getMediaId());
+            publishQueueWindow(false);
+            prefetchUpcoming();
         }
 
         @Override
@@ -247,8 +607,15 @@ public class MediaService extends MediaBrowserServiceCompat {
 
             Log.d(TAG, "onSkipToNext: SKIP TO NEXT");
 
-            // increment and then check using modulus
-            mQueueIndex = (++mQueueIndex % mPlaylist.size());
+            // the next item in play order, shuffled or not
+            int next = mOrder.next();
+            if (next == -1) {
+                Log.d(TAG, "onSkipToNext: END OF THE QUEUE");                                       // repeat is off
+                mPlayback.pause();
+                return;
+            }
+            mPlayback.getMetrics().onSkipRequested();                                               // only once a track change is decided
+            mQueueIndex = next;
             mPreparedMedia = null;
             onPlay();
 
@@ -258,19 +625,137 @@ public class MediaService extends MediaBrowserServiceCompat {
         public void onSkipToPrevious() {
 
             Log.d(TAG, "onSkipToPrevious: SKIP TO PREVIOUS");
-            mQueueIndex = mQueueIndex > 0 ? mQueueIndex - 1 : mPlaylist.size() - 1;                 // if que is < 0 then play the last song in the playlist
+            int previous = mOrder.previous();
+            if (previous == -1) {
+                mPlayback.getMetrics().onSeekRequested();                                           // a restart, timed as a seek, not a skip
+                mPlayback.seekTo(0);                                                                // first item and repeat is off, restart it
+                return;
+            }
+            mPlayback.getMetrics().onSkipRequested();
+            mQueueIndex = previous;
             mPreparedMedia = null;
             onPlay();
         }
 
+        @Override
+        public void onSkipToQueueItem(long id) {
+            int position = mPlaylist.indexOfQueueId(id);
+            if (position == -1) {
+                return;                                                                             // removed, or from an older queue
+            }
+            mPlayback.getMetrics().onSkipRequested();
+            mQueueIndex = position;
+            mOrder.jumpTo(mQueueIndex);
+            mPreparedMedia = null;
+            onPlay();
+        }
+
+        /**
+         * Shuffle only changes the play order, mPlaylist (and the published queue) stays in
+         * playlist order. The current item keeps playing, the shuffle starts from it.
+         */
+        @Override
+        public void onSetShuffleMode(int shuffleMode) {
+            Log.d(TAG, "onSetShuffleMode: " + shuffleMode);
+            mOrder.setShuffled(shuffleMode != PlaybackStateCompat.SHUFFLE_MODE_NONE);
+            mSession.setShuffleMode(shuffleMode);
+            prefetchUpcoming();                                                                     // the next tracks changed
+        }
+
+        @Override
+        public void onSetRepeatMode(int repeatMode) {
+            Log.d(TAG, "onSetRepeatMode: " + repeatMode);
+            if (repeatMode == PlaybackStateCompat.REPEAT_MODE_GROUP) {
+                repeatMode = PlaybackStateCompat.REPEAT_MODE_ALL;                                   // no groups, the queue is the group
+            }
+            mOrder.setRepeatMode(repeatMode);
+            mPlayback.setRepeatOne(repeatMode == PlaybackStateCompat.REPEAT_MODE_ONE);              // looping one track is the player's job
+            mSession.setRepeatMode(repeatMode);
+            prefetchUpcoming();
+        }
+
         @Override
         public void onSeekTo(long pos) {
+            mPlayback.getMetrics().onSeekRequested();                                               // user seeks only, the resume seek is part of first audio
             mPlayback.seekTo(pos);
         }
 
+        @Override
+        public void onCustomAction(String action, Bundle extras) {
+            if (ACTION_UI_ATTACHED.equals(action)) {
+                mPlayback.setUiAttached(extras != null && extras.getBoolean(UI_ATTACHED, false));
+            }
+        }
+
         private boolean isReadyToPlay() {
             return (!mPlaylist.isEmpty());                                                          // true if song is ready to play
         }
+
+        private void prefetchUpcoming() {
+            // hand the next few queue items to the player, so it buffers into them and skipping is a seek
+            if (mQueueIndex < 0 || mPlaylist.isEmpty()) {
+                return;
+            }
+            List<MediaMetadataCompat> upcoming = new ArrayList<>(MediaPlayerAdapter.PREFETCH_WINDOW);
+            List<String> artwork = new ArrayList<>(MediaPlayerAdapter.PREFETCH_WINDOW);
+            for (int position : mOrder.peek(MediaPlayerAdapter.PREFETCH_WINDOW)) {                  // in play order
+                String mediaId = mPlaylist.getMediaId(position);
+                Track track = mMyApplication.getTrack(mediaId);
+                if (track == null) {
+                    break;
+                }
+                upcoming.add(TrackConverter.toMetadata(track));                                     // the player takes metadata
+                artwork.add(track.getIconUri());
+            }
+            mPlayback.setUpcomingMedia(upcoming);
+
+            // so the notification for the next track doesn't wait on the network
+            mArtworkCache.warm(artwork);
+        }
+
+        private void resumeFromSnapshot(String mediaId) {
+            // first play after a restart picks up where the last session stopped
+            if(mResumeSnapshot != null && mediaId.equals(mResumeSnapshot.getCurrentMediaId())
+                    && mResumeSnapshot.getPosition() > 0){
+                Log.d(TAG, "resumeFromSnapshot: RESUMING AT " + mResumeSnapshot.getPosition());
+                mPlayback.seekTo(mResumeSnapshot.getPosition());
+            }
+            mResumeSnapshot = null;
+        }
+
+        // called on every state change and checkpoint, the queue file is only rewritten after the queue changed
+        private void saveSnapshot(long position) {
+            boolean queueChanged = mSnapshotQueue == null;
+            SessionSnapshot snapshot = buildSnapshot(position);
+            queueChanged |= mSnapshotQueue.isEmpty();                                               // stands in the app's queue, which can change under it
+            SessionSnapshot.saveAsync(MediaService.this, snapshot, queueChanged);
+        }
+
+        // the queue is only resolved again after it changed
+        private SessionSnapshot buildSnapshot(long position) {
+            if(mSnapshotQueue == null){
+                mSnapshotQueue = new ArrayList<>(mPlaylist.size());
+                for(int i = 0; i < mPlaylist.size(); i++){
+                    Track track = mMyApplication.getTrack(mPlaylist.getMediaId(i));
+                    if(track != null){
+                        mSnapshotQueue.add(track);
+                    }
+                }
+            }
+            List<Track> queue = mSnapshotQueue;
+            if(queue.isEmpty()){
+                // a new playlist was selected and the client hasn't queued it yet
+                queue = mMyApplication.getQueue();
+            }
+            return new SessionSnapshot(
+                    mMyPrefManager.getPlaylistId(),
+                    mMyPrefManager.getLastCategory(),
+                    mMyPrefManager.getLastPlayedArtistImage(),
+                    queue,
+                    mQueueIndex,
+                    position,
+                    TrackConverter.fromMetadata(mPlayback.getCurrentMedia()));
+        }
     }
 
 
@@ -284,37 +769,41 @@ public class MediaService extends MediaBrowserServiceCompat {
 
         @RequiresApi(api = Build.VERSION_CODES.O)
         @Override
-        public void onPlaybackStateChange(PlaybackStateCompat state) {
+        public void onPlaybackStateChange(final PlaybackStateCompat state) {
             mSession.setPlaybackState(state);                                                       // sending the state from EXOplayer to the Msession
-
-            // Manage the started state of this service.
-            switch (state.getState()) {
-                case PlaybackStateCompat.STATE_PLAYING:
-                    mServiceManager.updateNotification(state,mPlayback.getCurrentMedia()
-                            .getString(MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON_URI));
-                    break;
-
-                case PlaybackStateCompat.STATE_PAUSED:
-                    mServiceManager.updateNotification(state,mPlayback.getCurrentMedia()
-                            .getString(MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON_URI));
-                    break;
-
-                case PlaybackStateCompat.STATE_STOPPED:
-                    Log.d(TAG, "onPlaybackStateChange: STOPPED.");
-                    mServiceManager.moveServiceOutOfStartedState();                                 // can destroy the service
-                    break;
-            }
+            mSessionCallback.saveSnapshot(state.getPosition());
+
+            // called on the player thread, the notification and foreground state belong to main
+            final MediaMetadataCompat currentMedia = mPlayback.getCurrentMedia();
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // Manage the started state of this service.
+                    switch (state.getState()) {
+                        case PlaybackStateCompat.STATE_PLAYING:
+                            mServiceManager.updateNotification(state, currentMedia);
+                            break;
+
+                        case PlaybackStateCompat.STATE_PAUSED:
+                            mServiceManager.updateNotification(state, currentMedia);
+                            break;
+
+                        case PlaybackStateCompat.STATE_STOPPED:
+                            Log.d(TAG, "onPlaybackStateChange: STOPPED.");
+                            mServiceManager.moveServiceOutOfStartedState();                         // can destroy the service
+                            break;
+                    }
+                }
+            });
 
         }
 
         @Override
-        public void onSeekTo(long progress, long max) {
-                                                                                                    // sending broadcast to the ui
-            Intent intent = new Intent();
-            intent.setAction(getString(R.string.broadcast_seekbar_update));
-            intent.putExtra(SEEK_BAR_PROGRESS, progress);
-            intent.putExtra(SEEK_BAR_MAX, max);
-            sendBroadcast(intent);
+        public void onDurationChanged(MediaMetadataCompat media, long duration) {
+            // the seek bar takes its max from the session metadata
+            mSession.setMetadata(new MediaMetadataCompat.Builder(media)
+                    .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, duration)
+                    .build());
         }
 
         @Override
@@ -324,6 +813,11 @@ public class MediaService extends MediaBrowserServiceCompat {
             mSession.getController().getTransportControls().skipToNext();
         }
 
+        @Override
+        public void onPositionCheckpoint(long position) {
+            mSessionCallback.saveSnapshot(position);                                                // only the position record, unless the queue changed
+        }
+
         @Override
         public void updateUI(String newMediaId) {
             // sending broadcast of the currenly playing song to the ui/ mainActivity
@@ -336,136 +830,76 @@ public class MediaService extends MediaBrowserServiceCompat {
         }
     }
 
-    class ServiceManager implements ICallback {
+    class ServiceManager implements ArtworkLoader.Callback<Bitmap> {
 
         private String mDisplayImageUri;
         private Bitmap mCurrentArtistBitmap;
         private PlaybackStateCompat mState;
-        private GetArtistBitmapAsyncTask mAsyncTask;
+        private MediaMetadataCompat mMedia;                                                         // snapshot from the player thread
+        private String mLoadingUri;                                                                 // artwork of the load in flight
 
         public ServiceManager() {
         }
 
         @RequiresApi(api = Build.VERSION_CODES.O)
-        public void updateNotification(PlaybackStateCompat state, String displayImageUri){
+        public void updateNotification(PlaybackStateCompat state, MediaMetadataCompat media){
             Log.d(TAG, "updateNotification: METHOD CALLED");
             mState = state;
-
-            if(!displayImageUri.equals(mDisplayImageUri)){
-                // download new bitmap
-
-            //Process of downloading the a bitmap
-                mAsyncTask = new GetArtistBitmapAsyncTask(
-                        Glide.with(MediaService.this)
-                                .asBitmap()
-                                .load(displayImageUri)
-                                .listener(new RequestListener<Bitmap>() {
-                                    @Override
-                                    public boolean onLoadFailed(@Nullable GlideException e, Object model, Target<Bitmap> target, boolean isFirstResource) {
-                                        return false;
-                                    }
-
-                                    @Override
-                                    public boolean onResourceReady(Bitmap resource, Object model, Target<Bitmap> target, DataSource dataSource, boolean isFirstResource) {
-                                        return false;
-                                    }
-                                }).submit(), this);
-
-                mAsyncTask.execute();
-
+            mMedia = media;
+            String displayImageUri = media.getString(MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON_URI);
+
+            Bitmap cached = mArtworkCache.peek(displayImageUri);
+            if(cached != null){
+                // warmed or seen before, no need to go off thread
+                mArtworkLoader.cancel();                                                            // an older track's art must not come back over this one
+                mLoadingUri = null;
+                mCurrentArtistBitmap = cached;
                 mDisplayImageUri = displayImageUri;
+                displayNotification(mCurrentArtistBitmap);
             }
 
-            else{
+            else if(displayImageUri.equals(mDisplayImageUri) && mLoadingUri == null){
                 // bitmap already downloaded, just load it
                 displayNotification(mCurrentArtistBitmap);
             }
-        }
-
-        @RequiresApi(api = Build.VERSION_CODES.O)
-        public void displayNotification(Bitmap bitmap){
 
-            Log.d(TAG, "displayNotification: METHOD CALLED");
-            // Manage the started state of this service.
-            // make new notification everytime the state changes
-            Notification notification = null;
-            switch (mState.getState()) {
-
-                case PlaybackStateCompat.STATE_PLAYING:
-                    notification =
-                            mMediaNotificationManager.buildNotification(
-                                    mState, getSessionToken(), mPlayback.getCurrentMedia().getDescription(), bitmap);
-
-                    if (!mIsServiceStarted) {
-                        ContextCompat.startForegroundService(
-                                MediaService.this,
-                                new Intent(MediaService.this, MediaService.class));
-                        mIsServiceStarted = true;
-                    }
-
-                    startForeground(MediaNotificationManager.NOTIFICATION_ID, notification);
-                    break;
-
-                case PlaybackStateCompat.STATE_PAUSED:
-                    stopForeground(false);
-                    notification =
-                            mMediaNotificationManager.buildNotification(
-                                    mState, getSessionToken(), mPlayback.getCurrentMedia().getDescription(), bitmap);
-                    mMediaNotificationManager.getNotificationManager()
-                            .notify(MediaNotificationManager.NOTIFICATION_ID, notification);
-                    break;
+            else if(!displayImageUri.equals(mLoadingUri)){
+                // load new bitmap, from the disk tier or the network. Cancels the previous load
+                mLoadingUri = displayImageUri;
+                mArtworkLoader.load(displayImageUri, this);
             }
-        }
 
-        private void moveServiceOutOfStartedState() {
-
-            Log.d(TAG, "moveServiceOutOfStartedState: METHOD CALLED");
-            stopForeground(true);                                                  // stop the foreground service
-            stopSelf();                                                                             // kill the service
-            mIsServiceStarted = false;
+            // else the load in flight is for this artwork, it posts with the latest state
         }
 
         @RequiresApi(api = Build.VERSION_CODES.O)
         @Override
-        public void done(Bitmap bitmap) {
-            Log.d(TAG, "done: METHOD CALLED");
+        public void onArtworkLoaded(String uri, Bitmap bitmap) {
+            Log.d(TAG, "onArtworkLoaded: METHOD CALLED");
+            mLoadingUri = null;
+            mDisplayImageUri = uri;
             mCurrentArtistBitmap = bitmap;
             displayNotification(mCurrentArtistBitmap);
         }
-    }
-
-    static class GetArtistBitmapAsyncTask extends AsyncTask<Void, Void, Bitmap> {
-
-        private FutureTarget<Bitmap> mBitmap;                                                       // var for downloading bitmap
-        private ICallback mICallback;
 
+        @RequiresApi(api = Build.VERSION_CODES.O)
+        public void displayNotification(Bitmap bitmap){
 
-        public GetArtistBitmapAsyncTask(FutureTarget<Bitmap> bitmap, ICallback iCallback) {
-            Log.d(TAG, "GetArtistBitmapAsyncTask: METHOD CALLED");
-            this.mBitmap = bitmap;
-            this.mICallback = iCallback;
+            Log.d(TAG, "displayNotification: METHOD CALLED");
+            // coalesced, and only rebuilt when something visible changed (see onPublish)
+            if (mState.getState() == PlaybackStateCompat.STATE_PLAYING
+                    || mState.getState() == PlaybackStateCompat.STATE_PAUSED) {
+                mMediaNotificationManager.publish(mState, getSessionToken(), mMedia.getDescription(), bitmap);
+            }
         }
 
-        @Override
-        protected void onPostExecute(Bitmap bitmap) {
-            Log.d(TAG, "onPostExecute: METHOD CALLED");
-            //called when the bitmap is available, when it's downloaded
-            super.onPostExecute(bitmap);
-            mICallback.done(bitmap);
-        }
+        private void moveServiceOutOfStartedState() {
 
-        @Override
-        protected Bitmap doInBackground(Void... voids) {
-            Log.d(TAG, "doInBackground: METHOD CALLED");
-            // method will return bitmap in onPostExecute
-            try {
-                return mBitmap.get();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } catch (ExecutionException e) {
-                e.printStackTrace();
-            }
-            return null;
+            Log.d(TAG, "moveServiceOutOfStartedState: METHOD CALLED");
+            stopForeground(true);                                                  // stop the foreground service
+            mMediaNotificationManager.invalidate();                                                 // the notification is gone, post the next one
+            stopSelf();                                                                             // kill the service
+            mIsServiceStarted = false;
         }
     }
 
@@ -0,0 +1,329 @@
+package util;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.example.spotifylearn.MyApplication;
+
+import Models.Track;
+
+/**
+ * On-device copy of the Firestore catalog, one playlist per category + artist id.
+ *
+ * Playlists are served from disk straight away (stale-while-revalidate): the caller renders the
+ * cached copy, and only goes back to Firestore when the copy is older than {@link #MAX_AGE_MILLIS}.
+ * When the fresh copy is written back only the tracks that actually changed are touched.
+ *
+ * Every playlist read or written also goes into the app's {@link SearchIndex}. A track leaves it
+ * only once no cached playlist has it anymore.
+ *
+ * All disk work runs on a single background thread, callbacks are delivered on the main thread.
+ */
+public class CatalogCache extends SQLiteOpenHelper {
+
+    private static final String TAG = "CatalogCache";
+
+    private static final String DATABASE_NAME = "catalog_cache.db";
+    private static final int DATABASE_VERSION = 2;                                                  // 2: index on media_id
+
+    public static final long MAX_AGE_MILLIS = 15 * 60 * 1000;                                       // after this a cached playlist is re-validated
+
+    private static final String TABLE_TRACKS = "tracks";
+    private static final String TABLE_PLAYLISTS = "playlists";
+
+    private static final String COLUMN_CATEGORY = "category";
+    private static final String COLUMN_ARTIST_ID = "artist_id";
+    private static final String COLUMN_POSITION = "position";
+    private static final String COLUMN_SYNCED_AT = "synced_at";
+    private static final String COLUMN_MEDIA_ID = "media_id";
+
+    // columns of a track row, in the order of getTrackValues()
+    private static final String[] TRACK_COLUMNS = {
+            COLUMN_MEDIA_ID, "artist", "title", "media_url", "description", "date_added", "icon_uri"
+    };
+
+    private static final String PLAYLIST_SELECTION = COLUMN_CATEGORY + " = ? AND " + COLUMN_ARTIST_ID + " = ?";
+
+    private static CatalogCache instance;
+
+    private final ExecutorService mDiskExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final SearchIndex mSearchIndex = MyApplication.getInstance().getSearchIndex();
+
+    public static synchronized CatalogCache getInstance(Context context){
+        if(instance == null){
+            instance = new CatalogCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private CatalogCache(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_TRACKS + " ("
+                + COLUMN_CATEGORY + " TEXT NOT NULL, "
+                + COLUMN_ARTIST_ID + " TEXT NOT NULL, "
+                + COLUMN_POSITION + " INTEGER NOT NULL, "
+                + COLUMN_MEDIA_ID + " TEXT NOT NULL, "
+                + "artist TEXT, title TEXT, media_url TEXT, description TEXT, date_added TEXT, icon_uri TEXT, "
+                + "PRIMARY KEY (" + COLUMN_CATEGORY + ", " + COLUMN_ARTIST_ID + ", " + COLUMN_MEDIA_ID + "))");
+        db.execSQL("CREATE INDEX " + TABLE_TRACKS + "_" + COLUMN_MEDIA_ID + " ON " + TABLE_TRACKS
+                + " (" + COLUMN_MEDIA_ID + ")");                                                    // is a track still in any playlist
+
+        db.execSQL("CREATE TABLE " + TABLE_PLAYLISTS + " ("
+                + COLUMN_CATEGORY + " TEXT NOT NULL, "
+                + COLUMN_ARTIST_ID + " TEXT NOT NULL, "
+                + COLUMN_SYNCED_AT + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + COLUMN_CATEGORY + ", " + COLUMN_ARTIST_ID + "))");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // it's only a cache, Firestore has the real data
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_TRACKS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_PLAYLISTS);
+        onCreate(db);
+    }
+
+    /**
+     * Reads a cached playlist off the main thread. The callback gets an empty list when nothing
+     * is cached, isStale is true when the playlist should be re-validated against Firestore.
+     */
+    public void loadPlaylist(final String category, final String artistId, final IPlaylistCallback callback){
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Track> playlist = readPlaylist(category, artistId);
+                final boolean isStale = isStale(getSyncedAt(category, artistId));
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onPlaylistLoaded(playlist, isStale);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Writes a fresh copy of a playlist off the main thread. The callback gets the number of
+     * tracks that were added, changed, moved or removed compared to the cached copy.
+     */
+    public void savePlaylist(final String category, final String artistId,
+                             List<Track> playlist, final IUpdateCallback callback){
+        final List<Track> copy = new ArrayList<>(playlist);
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final int changedTracks = writePlaylist(category, artistId, copy);
+                if(callback == null){
+                    return;
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onPlaylistUpdated(copy, changedTracks);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Indexes every cached track for search, off the main thread. For when the service starts
+     * before (or without) the UI having loaded any playlist.
+     */
+    public void indexCachedCatalog(){
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Cursor cursor = getReadableDatabase().query(TABLE_TRACKS, TRACK_COLUMNS, null, null, null, null, null);
+                List<Track> tracks = new ArrayList<>(cursor.getCount());
+                try {
+                    while (cursor.moveToNext()) {
+                        tracks.add(readTrack(cursor));
+                    }
+                } finally {
+                    cursor.close();
+                }
+                mSearchIndex.addAll(tracks);
+                Log.d(TAG, "indexCachedCatalog: " + mSearchIndex.size() + " tracks indexed");
+            }
+        });
+    }
+
+    public static boolean isStale(long syncedAt){
+        return System.currentTimeMillis() - syncedAt > MAX_AGE_MILLIS;
+    }
+
+    /**
+     * Blocking read, must not be called on the main thread.
+     */
+    public List<Track> readPlaylist(String category, String artistId){
+        List<Track> playlist = new ArrayList<>();
+        if(TextUtils.isEmpty(category) || TextUtils.isEmpty(artistId)){
+            return playlist;
+        }
+
+        Cursor cursor = getReadableDatabase().query(TABLE_TRACKS, TRACK_COLUMNS, PLAYLIST_SELECTION,
+                new String[]{category, artistId}, null, null, COLUMN_POSITION + " ASC");
+        try {
+            while (cursor.moveToNext()) {
+                playlist.add(readTrack(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        mSearchIndex.addAll(playlist);
+        Log.d(TAG, "readPlaylist: " + playlist.size() + " cached tracks for " + category + "/" + artistId);
+        return playlist;
+    }
+
+    /**
+     * Blocking read, returns 0 when the playlist was never synced.
+     */
+    public long getSyncedAt(String category, String artistId){
+        if(TextUtils.isEmpty(category) || TextUtils.isEmpty(artistId)){
+            return 0;
+        }
+        Cursor cursor = getReadableDatabase().query(TABLE_PLAYLISTS, new String[]{COLUMN_SYNCED_AT},
+                PLAYLIST_SELECTION, new String[]{category, artistId}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Blocking write, must not be called on the main thread. Only rows that differ from the
+     * cached copy are written. Returns the number of tracks that changed.
+     */
+    public int writePlaylist(String category, String artistId, List<Track> playlist){
+        SQLiteDatabase db = getWritableDatabase();
+        String[] playlistArgs = new String[]{category, artistId};
+        int changedTracks = 0;
+
+        db.beginTransaction();
+        try {
+            // what we have on disk right now: media id -> row (position followed by the track columns)
+            HashMap<String, String[]> cached = new HashMap<>();
+            String[] columns = new String[TRACK_COLUMNS.length + 1];
+            columns[0] = COLUMN_POSITION;
+            System.arraycopy(TRACK_COLUMNS, 0, columns, 1, TRACK_COLUMNS.length);
+            Cursor cursor = db.query(TABLE_TRACKS, columns, PLAYLIST_SELECTION, playlistArgs, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    String[] row = new String[columns.length];
+                    for (int i = 0; i < columns.length; i++) {
+                        row[i] = cursor.getString(i);
+                    }
+                    cached.put(row[1], row);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            for (int position = 0; position < playlist.size(); position++) {
+                String[] trackValues = getTrackValues(playlist.get(position));
+                String[] row = cached.remove(trackValues[0]);
+
+                if (row != null && isSameRow(row, position, trackValues)) {
+                    continue;                                                                       // unchanged, nothing to write
+                }
+
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_CATEGORY, category);
+                values.put(COLUMN_ARTIST_ID, artistId);
+                values.put(COLUMN_POSITION, position);
+                for (int i = 0; i < TRACK_COLUMNS.length; i++) {
+                    values.put(TRACK_COLUMNS[i], trackValues[i]);
+                }
+                db.insertWithOnConflict(TABLE_TRACKS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                changedTracks++;
+            }
+
+            // anything left was removed from Firestore, it stays searchable while another
+            // cached playlist still has it
+            for (String mediaId : cached.keySet()) {
+                db.delete(TABLE_TRACKS, PLAYLIST_SELECTION + " AND " + COLUMN_MEDIA_ID + " = ?",
+                        new String[]{category, artistId, mediaId});
+                if (DatabaseUtils.queryNumEntries(db, TABLE_TRACKS, COLUMN_MEDIA_ID + " = ?", new String[]{mediaId}) == 0) {
+                    mSearchIndex.remove(mediaId);
+                }
+                changedTracks++;
+            }
+
+            ContentValues synced = new ContentValues();
+            synced.put(COLUMN_CATEGORY, category);
+            synced.put(COLUMN_ARTIST_ID, artistId);
+            synced.put(COLUMN_SYNCED_AT, System.currentTimeMillis());
+            db.insertWithOnConflict(TABLE_PLAYLISTS, null, synced, SQLiteDatabase.CONFLICT_REPLACE);
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        mSearchIndex.addAll(playlist);                                                              // unchanged tracks are skipped
+        Log.d(TAG, "writePlaylist: " + changedTracks + " changed tracks for " + category + "/" + artistId);
+        return changedTracks;
+    }
+
+    // a row of TRACK_COLUMNS
+    private static Track readTrack(Cursor cursor){
+        return new Track.Builder()
+                .setMediaId(cursor.getString(0))
+                .setArtist(cursor.getString(1))
+                .setTitle(cursor.getString(2))
+                .setMediaUri(cursor.getString(3))
+                .setDescription(cursor.getString(4))
+                .setDate(cursor.getString(5))
+                .setIconUri(cursor.getString(6))
+                .build();
+    }
+
+    private static String[] getTrackValues(Track track){
+        return new String[]{
+                track.getMediaId(), track.getArtist(), track.getTitle(), track.getMediaUri(),
+                track.getDescription(), track.getDate(), track.getIconUri()
+        };
+    }
+
+    private static boolean isSameRow(String[] row, int position, String[] trackValues){
+        if(!String.valueOf(position).equals(row[0])){
+            return false;
+        }
+        for (int i = 0; i < trackValues.length; i++) {
+            if(!TextUtils.equals(row[i + 1], trackValues[i])){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public interface IPlaylistCallback {
+        void onPlaylistLoaded(List<Track> playlist, boolean isStale);
+    }
+
+    public interface IUpdateCallback {
+        void onPlaylistUpdated(List<Track> playlist, int changedTracks);
+    }
+}
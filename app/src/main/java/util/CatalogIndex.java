@@ -0,0 +1,140 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Hash index over the media catalog. Items are looked up by media id in O(1), and
+ * secondary indexes group them by artist and by category.
+ *
+ * Kept free of Android types so it can be exercised from plain JVM unit tests.
+ */
+public class CatalogIndex<T> {
+
+    private final HashMap<String, Entry<T>> mById;                                                 // media id -> item
+    private final HashMap<String, List<T>> mByArtist = new HashMap<>();                            // artist -> items (insertion order)
+    private final HashMap<String, List<T>> mByCategory = new HashMap<>();                          // category -> items (insertion order)
+
+    public CatalogIndex() {
+        mById = new HashMap<>();
+    }
+
+    public CatalogIndex(int expectedSize) {
+        mById = new HashMap<>((int) (expectedSize / 0.75f) + 1);                                    // avoid rehashing while a large catalog loads
+    }
+
+    /**
+     * Adds an item, replacing any previous item with the same media id.
+     * artist and category may be null when the item has no such attribute.
+     */
+    public void put(String mediaId, String artist, String category, T item) {
+        Entry<T> previous = mById.put(mediaId, new Entry<>(item, artist, category));
+        if (previous != null) {
+            removeFromGroup(mByArtist, previous.artist, previous.item);
+            removeFromGroup(mByCategory, previous.category, previous.item);
+        }
+        addToGroup(mByArtist, artist, item);
+        addToGroup(mByCategory, category, item);
+    }
+
+    public T remove(String mediaId) {
+        Entry<T> previous = mById.remove(mediaId);
+        if (previous == null) {
+            return null;
+        }
+        removeFromGroup(mByArtist, previous.artist, previous.item);
+        removeFromGroup(mByCategory, previous.category, previous.item);
+        return previous.item;
+    }
+
+    public T get(String mediaId) {
+        Entry<T> entry = mById.get(mediaId);
+        return entry == null ? null : entry.item;
+    }
+
+    public boolean contains(String mediaId) {
+        return mById.containsKey(mediaId);
+    }
+
+    public List<T> getByArtist(String artist) {
+        return unmodifiable(mByArtist.get(artist));
+    }
+
+    public List<T> getByCategory(String category) {
+        return unmodifiable(mByCategory.get(category));
+    }
+
+    /**
+     * Resolves a playlist in O(ids). The result follows the iteration order of mediaIds,
+     * ids that are not in the catalog are skipped.
+     */
+    public List<T> resolve(Collection<String> mediaIds) {
+        List<T> result = new ArrayList<>(mediaIds.size());
+        for (String id : mediaIds) {
+            Entry<T> entry = mById.get(id);
+            if (entry != null) {
+                result.add(entry.item);
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return mById.size();
+    }
+
+    public void clear() {
+        mById.clear();
+        mByArtist.clear();
+        mByCategory.clear();
+    }
+
+    private static <T> void addToGroup(HashMap<String, List<T>> groups, String key, T item) {
+        if (key == null) {
+            return;
+        }
+        List<T> group = groups.get(key);
+        if (group == null) {
+            group = new ArrayList<>();
+            groups.put(key, group);
+        }
+        group.add(item);
+    }
+
+    private static <T> void removeFromGroup(HashMap<String, List<T>> groups, String key, T item) {
+        if (key == null) {
+            return;
+        }
+        List<T> group = groups.get(key);
+        if (group == null) {
+            return;
+        }
+        group.remove(item);
+        if (group.isEmpty()) {
+            groups.remove(key);
+        }
+    }
+
+    private static <T> List<T> unmodifiable(List<T> group) {
+        if (group == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(group);
+    }
+
+    private static final class Entry<T> {
+
+        final T item;
+        final String artist;
+        final String category;
+
+        Entry(T item, String artist, String category) {
+            this.item = item;
+            this.artist = artist;
+            this.category = category;
+        }
+    }
+}
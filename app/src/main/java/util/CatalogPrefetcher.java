@@ -0,0 +1,183 @@
+package util;
+
+import android.content.Context;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.example.spotifylearn.R;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import Models.Artist;
+import Models.Track;
+
+/**
+ * Fetches the Category -> Artist -> Content hierarchy ahead of the taps that need it, so most
+ * navigations render from cache without a spinner.
+ *
+ * Artist lists land in an in-memory cache shared with CategoryFragment, playlists land in
+ * {@link CatalogCache} where PlaylistFragment already looks first. Everything goes through a
+ * {@link PrefetchScheduler}, at most {@link #MAX_CONCURRENT} queries are in flight.
+ *
+ * Main thread only.
+ */
+public class CatalogPrefetcher {
+
+    private static final String TAG = "CatalogPrefetcher";
+
+    private static final int MAX_CONCURRENT = 3;
+    private static final String KEY_ARTISTS = "artists/";
+    private static final String KEY_CONTENT = "content/";
+
+    private static CatalogPrefetcher instance;
+
+    private final Context mContext;
+    private final PrefetchScheduler mScheduler = new PrefetchScheduler(MAX_CONCURRENT);
+    private final HashMap<String, List<Artist>> mArtists = new HashMap<>();                         // category -> artists
+    private final HashMap<String, Long> mArtistsFetchedAt = new HashMap<>();
+
+    public static synchronized CatalogPrefetcher getInstance(Context context){
+        if(instance == null){
+            instance = new CatalogPrefetcher(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private CatalogPrefetcher(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Null when the artists of category were never loaded.
+     */
+    public List<Artist> getArtists(String category){
+        List<Artist> artists = mArtists.get(category);
+        return artists == null ? null : Collections.unmodifiableList(artists);
+    }
+
+    public void putArtists(String category, List<Artist> artists){
+        mArtists.put(category, new ArrayList<>(artists));
+        mArtistsFetchedAt.put(category, System.currentTimeMillis());
+    }
+
+    // background work for the whole catalog, after what's on screen
+    public void prefetchArtists(List<String> categories){
+        for(final String category: categories){
+            Long fetchedAt = mArtistsFetchedAt.get(category);
+            if(fetchedAt != null && !CatalogCache.isStale(fetchedAt)){
+                continue;
+            }
+            mScheduler.schedule(KEY_ARTISTS + category, PrefetchScheduler.PRIORITY_LOW, new PrefetchScheduler.ITask() {
+                @Override
+                public void run(final Runnable done) {
+                    getArtistsQuery(category).get().addOnCompleteListener(new OnCompleteListener<QuerySnapshot>() {
+                        @Override
+                        public void onComplete(@NonNull Task<QuerySnapshot> task) {
+                            if(task.isSuccessful() && task.getResult() != null){
+                                List<Artist> artists = new ArrayList<>();
+                                for(QueryDocumentSnapshot document: task.getResult()){
+                                    artists.add(document.toObject(Artist.class));
+                                }
+                                putArtists(category, artists);
+                                Log.d(TAG, "prefetchArtists: " + artists.size() + " ARTISTS IN " + category);
+                            }
+                            done.run();
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    /**
+     * Prefetches the playlist of an artist into CatalogCache, unless a fresh copy is there.
+     * highPriority for artists on screen or recently played.
+     */
+    public void prefetchContent(final String category, final String artistId, final String iconUri, boolean highPriority){
+        if(TextUtils.isEmpty(category) || TextUtils.isEmpty(artistId)){                             // nothing played yet
+            return;
+        }
+        int priority = highPriority ? PrefetchScheduler.PRIORITY_HIGH : PrefetchScheduler.PRIORITY_LOW;
+        mScheduler.schedule(KEY_CONTENT + category + "/" + artistId, priority, new PrefetchScheduler.ITask() {
+            @Override
+            public void run(final Runnable done) {
+                final CatalogCache cache = CatalogCache.getInstance(mContext);
+                cache.loadPlaylist(category, artistId, new CatalogCache.IPlaylistCallback() {
+                    @Override
+                    public void onPlaylistLoaded(List<Track> playlist, boolean isStale) {
+                        if(!playlist.isEmpty() && !isStale){
+                            done.run();                                                             // already fresh on disk
+                            return;
+                        }
+                        fetchContent(category, artistId, iconUri, done);
+                    }
+                });
+            }
+        });
+    }
+
+    // the user navigated somewhere else, what's on screen now matters more
+    public void cancelContentPrefetch(){
+        mScheduler.cancelPending(KEY_CONTENT);
+    }
+
+    private void fetchContent(final String category, final String artistId, final String iconUri, final Runnable done){
+        getContentQuery(category, artistId).get().addOnCompleteListener(new OnCompleteListener<QuerySnapshot>() {
+            @Override
+            public void onComplete(@NonNull Task<QuerySnapshot> task) {
+                if(!task.isSuccessful() || task.getResult() == null){
+                    Log.d(TAG, "fetchContent: failed for " + category + "/" + artistId + ": " + task.getException());
+                    done.run();
+                    return;
+                }
+                List<Track> playlist = new ArrayList<>();
+                for(QueryDocumentSnapshot document: task.getResult()){
+                    playlist.add(buildTrack(mContext, document, iconUri));
+                }
+                Log.d(TAG, "fetchContent: " + playlist.size() + " TRACKS FOR " + category + "/" + artistId);
+                CatalogCache.getInstance(mContext).savePlaylist(category, artistId, playlist, new CatalogCache.IUpdateCallback() {
+                    @Override
+                    public void onPlaylistUpdated(List<Track> playlist, int changedTracks) {
+                        done.run();
+                    }
+                });
+            }
+        });
+    }
+
+    public static Query getArtistsQuery(String category){
+        return FirebaseFirestore.getInstance()
+                .collection("Audio")
+                .document("avY6kRCpfAilLjIRB1Gd")
+                .collection(category);
+    }
+
+    public static Query getContentQuery(String category, String artistId){
+        return getArtistsQuery(category)
+                .document(artistId)
+                .collection("Content").orderBy("date_added", Query.Direction.ASCENDING);
+    }
+
+    public static Track buildTrack(Context context, QueryDocumentSnapshot document, String iconUri) {
+        return new Track.Builder()
+                .setMediaId(document.getString(context.getString(R.string.field_media_id)))
+                .setArtist(document.getString(context.getString(R.string.field_artist)))
+                .setTitle(document.getString(context.getString(R.string.field_title)))
+                .setMediaUri(document.getString(context.getString(R.string.field_media_url)))
+                .setDescription(document.getString(context.getString(R.string.field_description)))
+                .setDate(document.getDate(context.getString(R.string.field_date_added)).toString())
+                .setIconUri(iconUri)
+                .build();
+    }
+}
@@ -5,7 +5,6 @@ public class Constants {
     public static final String PLAYLIST_ID = "PLAYLIST_ID";
     public static final String NOW_PLAYING = "NOW_PLAYING";
     public static final String MEDIA_QUEUE_POSITION = "MEDIA_QUEUE_POSITION";
-    public static final String SEEK_BAR_PROGRESS = "SEEK_BAR_PROGRESS";
     public static final String MEDIA_SAVE_QUEUE_POSITION = "MEDIA_SAVE_QUEUE_POSITION";
     public static final String PLAYLIST_IDENTIFIER = "PLAYLIST_IDENTIFIER";
     public static final String EMPTY_MEDIA = "EMPTY_MEDIA";
@@ -13,6 +12,12 @@ public class Constants {
     public static final String LAST_CATEGORY = "LAST_CATEGORY";
     public static final String LAST_ARTIST = "LAST_ARTIST";
     public static final String LAST_ARTIST_IMAGE = "LAST_ARTIST_IMAGE";
-    public static final String SEEK_BAR_MAX = "SEEK_BAR_MAX";
+    public static final String ACTION_UI_ATTACHED = "ACTION_UI_ATTACHED";
+    public static final String UI_ATTACHED = "UI_ATTACHED";
+    public static final String COMMAND_SET_QUEUE = "COMMAND_SET_QUEUE";
+    public static final String QUEUE_PARENT_ID = "QUEUE_PARENT_ID";
+    public static final String COMMAND_GET_METRICS = "COMMAND_GET_METRICS";
+    public static final String METRICS_RESET = "METRICS_RESET";
+    public static final String METRICS_REPORT = "METRICS_REPORT";
 
 }
@@ -0,0 +1,89 @@
+package util;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link PlaylistRepository} on a fireStore snapshot listener. Each snapshot's DocumentChanges
+ * are mapped to TrackChanges, keyed by the id the mapper reads from the document. A snapshot
+ * listener's first event lists every document as ADDED, which is what the repository contract
+ * asks for (it's passed on even when empty).
+ */
+public class FirestorePlaylistRepository<T> implements PlaylistRepository<T> {
+
+    private static final String TAG = "FirestorePlaylistRepo";
+
+    private final Query mQuery;
+    private final IDocumentMapper<T> mMapper;
+
+    public FirestorePlaylistRepository(Query query, IDocumentMapper<T> mapper) {
+        mQuery = query;
+        mMapper = mapper;
+    }
+
+    @Override
+    public Registration listen(final IChangeListener<T> listener) {
+        final ListenerRegistration registration = mQuery.addSnapshotListener(new EventListener<QuerySnapshot>() {
+
+            private boolean mFirstEvent = true;
+
+            @Override
+            public void onEvent(@Nullable QuerySnapshot snapshot, @Nullable FirebaseFirestoreException e) {
+                if(e != null || snapshot == null){
+                    Log.d(TAG, "onEvent: listen failed: " + e);
+                    listener.onError(e);
+                    return;
+                }
+
+                List<TrackChange<T>> changes = new ArrayList<>(snapshot.getDocumentChanges().size());
+                for(DocumentChange change: snapshot.getDocumentChanges()){
+                    QueryDocumentSnapshot document = change.getDocument();                          // the old data for REMOVED
+                    String id = mMapper.getId(document);
+                    switch (change.getType()){
+                        case ADDED:
+                            changes.add(TrackChange.added(id, mMapper.map(document), change.getNewIndex()));
+                            break;
+                        case MODIFIED:
+                            changes.add(TrackChange.modified(id, mMapper.map(document),
+                                    change.getOldIndex(), change.getNewIndex()));
+                            break;
+                        case REMOVED:
+                            changes.add(TrackChange.<T>removed(id, change.getOldIndex()));
+                            break;
+                    }
+                }
+                Log.d(TAG, "onEvent: " + changes.size() + " CHANGES, FROM CACHE: " + snapshot.getMetadata().isFromCache());
+                if(!changes.isEmpty() || mFirstEvent){
+                    mFirstEvent = false;
+                    listener.onChanges(changes);
+                }
+            }
+        });
+
+        return new Registration() {
+            @Override
+            public void remove() {
+                registration.remove();
+            }
+        };
+    }
+
+    public interface IDocumentMapper<T> {
+
+        String getId(QueryDocumentSnapshot document);
+
+        T map(QueryDocumentSnapshot document);
+    }
+}
@@ -0,0 +1,191 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An in-memory playlist kept in sync with a {@link PlaylistRepository} by applying its deltas,
+ * instead of re-reading the whole playlist. The observer gets the changes as they were applied,
+ * with indexes that are valid one after another, so they map straight to notifyItem* calls.
+ *
+ * Listening is scoped by the owner: {@link #start()} when the playlist is on screen,
+ * {@link #stop()} when it's hidden or stopped. The first batch after a start is the full
+ * playlist, anything missing from it was removed while we weren't listening. Items that come
+ * back equal ({@link Object#equals}) and in place aren't reported, so replaying a full batch
+ * only notifies what actually changed.
+ *
+ * Kept free of Android types so it can be exercised from plain JVM unit tests.
+ */
+public class LivePlaylist<T> {
+
+    private final PlaylistRepository<T> mRepository;
+    private final IItemKey<T> mKey;
+    private final List<T> mItems = new ArrayList<>();
+    private final MediaIdIndex mIndex = new MediaIdIndex();                                         // id -> position in mItems
+    private IObserver<T> mObserver;
+    private PlaylistRepository.Registration mRegistration;
+    private PlaylistRepository.IChangeListener<T> mListener;                                        // the current listen() call, older ones are ignored
+    private boolean mAwaitingFullBatch;
+
+    public LivePlaylist(PlaylistRepository<T> repository, IItemKey<T> key) {
+        mRepository = repository;
+        mKey = key;
+    }
+
+    /**
+     * Starts from items already on screen (e.g. the cached copy), without notifying the observer.
+     */
+    public void seed(List<T> items) {
+        mItems.clear();
+        mIndex.clear();
+        for (T item : items) {
+            mItems.add(item);
+            mIndex.add(mKey.getId(item));
+        }
+    }
+
+    public void setObserver(IObserver<T> observer) {
+        mObserver = observer;
+    }
+
+    public void start() {
+        if (mListener != null) {
+            return;
+        }
+        mAwaitingFullBatch = true;
+        mListener = new PlaylistRepository.IChangeListener<T>() {
+            @Override
+            public void onChanges(List<TrackChange<T>> changes) {
+                if (mListener == this) {
+                    apply(changes);
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                if (mListener != this) {
+                    return;
+                }
+                stop();                                                                             // the repository gave up, the next start() listens again
+                if (mObserver != null) {
+                    mObserver.onSyncFailed(e);
+                }
+            }
+        };
+        mRegistration = mRepository.listen(mListener);
+    }
+
+    public void stop() {
+        if (mListener == null) {
+            return;
+        }
+        mListener = null;
+        if (mRegistration != null) {
+            mRegistration.remove();
+            mRegistration = null;
+        }
+    }
+
+    public boolean isListening() {
+        return mListener != null;
+    }
+
+    public List<T> getItems() {
+        return Collections.unmodifiableList(mItems);
+    }
+
+    public int indexOf(String id) {
+        return mIndex.indexOf(id);
+    }
+
+    private void apply(List<TrackChange<T>> changes) {
+        boolean fullBatch = mAwaitingFullBatch;
+        mAwaitingFullBatch = false;
+        Set<String> seen = fullBatch ? new HashSet<String>() : null;
+
+        List<TrackChange<T>> applied = new ArrayList<>(changes.size());
+        for (TrackChange<T> change : changes) {
+            if (seen != null) {
+                seen.add(change.getId());
+            }
+            TrackChange<T> result;
+            switch (change.getType()) {
+                case REMOVED:
+                    result = remove(change.getId());
+                    break;
+                default:
+                    // an ADDED for an item we already have (seeded, or listening again) is an update
+                    result = upsert(change.getId(), change.getItem(), change.getNewIndex());
+                    break;
+            }
+            if (result != null) {
+                applied.add(result);
+            }
+        }
+
+        if (seen != null) {
+            for (int i = mItems.size() - 1; i >= 0; i--) {                                          // from the end, indexes stay valid
+                String id = mIndex.get(i);
+                if (!seen.contains(id)) {
+                    applied.add(remove(id));
+                }
+            }
+        }
+
+        if (mObserver != null && (!applied.isEmpty() || fullBatch)) {
+            mObserver.onChanged(applied, fullBatch);
+        }
+    }
+
+    private TrackChange<T> upsert(String id, T item, int requestedIndex) {
+        int oldIndex = mIndex.indexOf(id);
+        if (oldIndex == -1) {
+            int newIndex = clamp(requestedIndex, mItems.size(), mItems.size());
+            mItems.add(newIndex, item);
+            mIndex.insert(newIndex, id);
+            return TrackChange.added(id, item, newIndex);
+        }
+        int newIndex = clamp(requestedIndex, mItems.size() - 1, oldIndex);
+        if (newIndex == oldIndex && Objects.equals(item, mItems.get(oldIndex))) {
+            return null;                                                                            // replayed as it was, nothing to rebind
+        }
+        if (newIndex != oldIndex) {
+            mItems.add(newIndex, mItems.remove(oldIndex));
+            mIndex.move(oldIndex, newIndex);
+        }
+        mItems.set(newIndex, item);
+        return TrackChange.modified(id, item, oldIndex, newIndex);
+    }
+
+    private TrackChange<T> remove(String id) {
+        int oldIndex = mIndex.indexOf(id);
+        if (oldIndex == -1) {
+            return null;
+        }
+        mItems.remove(oldIndex);
+        mIndex.remove(oldIndex);
+        return TrackChange.removed(id, oldIndex);
+    }
+
+    // the repository's index when it fits the list, otherwise fallback
+    private static int clamp(int index, int max, int fallback) {
+        return (index < 0 || index > max) ? fallback : index;
+    }
+
+    public interface IItemKey<T> {
+
+        String getId(T item);
+    }
+
+    public interface IObserver<T> {
+
+        // fullBatch is true for the first batch after start(), even when nothing changed
+        void onChanged(List<TrackChange<T>> applied, boolean fullBatch);
+
+        void onSyncFailed(Exception e);
+    }
+}
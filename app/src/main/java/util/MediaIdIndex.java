@@ -0,0 +1,113 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Media id -> position index over an ordered playlist. It mirrors the list it's kept next to,
+ * every mutation of the list has to go through here too, so {@link #indexOf(String)} is a
+ * single hash lookup (no scan, nothing allocated) however long the playlist is.
+ *
+ * Kept free of Android types so it can be exercised from plain JVM unit tests.
+ */
+public class MediaIdIndex {
+
+    private final ArrayList<String> mIds = new ArrayList<>();                                       // position -> media id
+    private final HashMap<String, Integer> mPositions = new HashMap<>();                            // media id -> position
+
+    /**
+     * Replaces the whole index. When an id appears twice the first position wins.
+     */
+    public void set(List<String> mediaIds) {
+        mIds.clear();
+        mPositions.clear();
+        addAll(mediaIds);
+    }
+
+    public void add(String mediaId) {
+        mIds.add(mediaId);
+        putIfAbsent(mediaId, mIds.size() - 1);
+    }
+
+    public void addAll(List<String> mediaIds) {
+        mIds.ensureCapacity(mIds.size() + mediaIds.size());
+        for (String id : mediaIds) {
+            add(id);
+        }
+    }
+
+    /**
+     * O(n - position), the items after it move down by one.
+     */
+    public void insert(int position, String mediaId) {
+        mIds.add(position, mediaId);
+        reindex(position, mIds.size());
+    }
+
+    /**
+     * O(n - position), the items after it move up by one. Returns the removed id.
+     */
+    public String remove(int position) {
+        String removed = mIds.remove(position);
+        Integer indexed = mPositions.get(removed);
+        if (indexed != null && indexed == position) {
+            mPositions.remove(removed);
+        }
+        reindex(position, mIds.size());                                                             // also finds a later copy of removed
+        return removed;
+    }
+
+    public void move(int from, int to) {
+        mIds.add(to, mIds.remove(from));
+        reindex(Math.min(from, to), Math.max(from, to) + 1);
+    }
+
+    /**
+     * Position of mediaId, -1 when it's not in the playlist (or null).
+     */
+    public int indexOf(String mediaId) {
+        if (mediaId == null) {
+            return -1;
+        }
+        Integer position = mPositions.get(mediaId);
+        return position == null ? -1 : position;
+    }
+
+    public boolean contains(String mediaId) {
+        return mediaId != null && mPositions.containsKey(mediaId);
+    }
+
+    public String get(int position) {
+        return mIds.get(position);
+    }
+
+    public int size() {
+        return mIds.size();
+    }
+
+    public void clear() {
+        mIds.clear();
+        mPositions.clear();
+    }
+
+    // re-points the ids in [from, to) at their current positions, ids first seen before from keep their slot
+    private void reindex(int from, int to) {
+        for (int i = from; i < to; i++) {
+            String id = mIds.get(i);
+            Integer indexed = mPositions.get(id);
+            if (indexed != null && indexed >= from) {
+                mPositions.remove(id);
+            }
+        }
+        for (int i = from; i < to; i++) {
+            putIfAbsent(mIds.get(i), i);
+        }
+    }
+
+    private void putIfAbsent(String mediaId, int position) {
+        if (!mPositions.containsKey(mediaId)) {
+            mPositions.put(mediaId, position);
+        }
+    }
+}
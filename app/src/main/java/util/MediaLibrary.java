@@ -4,8 +4,8 @@ import android.support.v4.media.MediaBrowserCompat;
 import android.support.v4.media.MediaMetadataCompat;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.Set;
 import java.util.TreeMap;
 
 public class MediaLibrary {
@@ -28,25 +28,47 @@ public class MediaLibrary {
         }
     }
 
-    public static List<MediaBrowserCompat.MediaItem> getPlaylistMedia(Set<String> mediaIds) {
-        List<MediaBrowserCompat.MediaItem> result = new ArrayList<>();
-
-        // VERY INEFFICIENT WAY TO DO THIS (BUT I NEED TO BECAUSE THE DATA STRUCTURE ARE NOT IDEAL)
-        // RETRIEVING DATA FROM A SERVER WOULD NOT POSE THIS ISSUE
-        for(String id: mediaIds){
-            for (MediaMetadataCompat metadata : mMediaLibrary) {
-                if(id.equals(metadata.getDescription().getMediaId())){
-                    result.add(
-                            new MediaBrowserCompat.MediaItem(
-                                    metadata.getDescription(), MediaBrowserCompat.MediaItem.FLAG_PLAYABLE));
-                }
+    // built on first use, mMediaLibrary is declared at the bottom of the class
+    private static CatalogIndex<MediaMetadataCompat> sCatalog;
+
+    private static synchronized CatalogIndex<MediaMetadataCompat> getCatalog(){
+        if(sCatalog == null){
+            sCatalog = new CatalogIndex<>(mMediaLibrary.length);
+            for(MediaMetadataCompat metadata: mMediaLibrary){
+                sCatalog.put(
+                        metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID),
+                        metadata.getString(MediaMetadataCompat.METADATA_KEY_ARTIST),
+                        metadata.getString(MediaMetadataCompat.METADATA_KEY_GENRE),             // category, when the track has one
+                        metadata);
             }
         }
+        return sCatalog;
+    }
 
-
+    public static List<MediaBrowserCompat.MediaItem> getPlaylistMedia(Collection<String> mediaIds) {
+        // one hash lookup per id, result keeps the order of mediaIds
+        List<MediaMetadataCompat> playlist = getCatalog().resolve(mediaIds);
+        List<MediaBrowserCompat.MediaItem> result = new ArrayList<>(playlist.size());
+        for(MediaMetadataCompat metadata: playlist){
+            result.add(
+                    new MediaBrowserCompat.MediaItem(
+                            metadata.getDescription(), MediaBrowserCompat.MediaItem.FLAG_PLAYABLE));
+        }
         return result;
     }
 
+    public static MediaMetadataCompat getMedia(String mediaId){
+        return getCatalog().get(mediaId);
+    }
+
+    public static List<MediaMetadataCompat> getMediaByArtist(String artist){
+        return getCatalog().getByArtist(artist);
+    }
+
+    public static List<MediaMetadataCompat> getMediaByCategory(String category){
+        return getCatalog().getByCategory(category);
+    }
+
     public static List<MediaBrowserCompat.MediaItem> getMediaItems() {
         List<MediaBrowserCompat.MediaItem> result = new ArrayList<>();
         for (MediaMetadataCompat metadata : mMediaLibrary) {
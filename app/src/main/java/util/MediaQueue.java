@@ -0,0 +1,75 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import Models.Track;
+
+/**
+ * The media of the selected playlist, what MyApplication hands out to the UI and the service:
+ * the queue itself, a metadata cache for single track lookups (the queue pinned in it, tracks of
+ * playlists opened before kept up to a budget) and a search index over every track seen so far.
+ *
+ * The queue is replaced from the main thread and read from the service's player thread, so its
+ * methods are synchronized. Kept free of Android types so the benchmark module can load a queue
+ * the way the app does.
+ */
+public class MediaQueue {
+
+    private List<Track> mQueue = new ArrayList<>();
+    private final MetadataCache<Track> mMetadataCache;
+    private final SearchIndex mSearchIndex = new SearchIndex();
+
+    public MediaQueue(long metadataCacheBytes) {
+        mMetadataCache = new MetadataCache<>(metadataCacheBytes, new MetadataCache.ISizer<Track>() {
+            @Override
+            public long sizeOf(Track track) {
+                return track.estimateBytes();
+            }
+        });
+    }
+
+    /**
+     * Replaces the queue. Its tracks are pinned in the metadata cache and added to the search
+     * index, the previous queue's stay cached (unpinned) and searchable.
+     */
+    public synchronized void setMediaItems(List<Track> tracks) {
+        mQueue = new ArrayList<>(tracks);                                                           // only have media for the current playlist
+        List<String> queueIds = new ArrayList<>(tracks.size());
+        for (Track track : tracks) {
+            queueIds.add(track.getMediaId());
+        }
+        mMetadataCache.setPinned(queueIds);                                                         // pin first, so the new queue can't evict itself
+        for (Track track : tracks) {
+            mMetadataCache.put(track.getMediaId(), track);
+        }
+        mSearchIndex.addAll(tracks);
+    }
+
+    public synchronized List<Track> getQueue() {
+        return new ArrayList<>(mQueue);
+    }
+
+    // one page of the queue, empty when from is past the end
+    public synchronized List<Track> getQueue(int from, int to) {
+        from = Math.min(from, mQueue.size());
+        to = Math.min(to, mQueue.size());
+        return new ArrayList<>(mQueue.subList(from, to));
+    }
+
+    public synchronized int size() {
+        return mQueue.size();
+    }
+
+    public Track getTrack(String mediaId) {
+        return mMetadataCache.get(mediaId);
+    }
+
+    public MetadataCache<Track> getMetadataCache() {
+        return mMetadataCache;
+    }
+
+    public SearchIndex getSearchIndex() {
+        return mSearchIndex;
+    }
+}
@@ -0,0 +1,166 @@
+package util;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * LRU cache of media metadata by media id, bounded by the estimated size of its values rather
+ * than their count. Pinned ids (the current queue) are never evicted, they count towards the
+ * size but the budget only pushes out unpinned entries.
+ *
+ * Pinned entries are kept out of the LRU map, so eviction only ever walks evictable entries and
+ * a queue far bigger than the budget doesn't make every put a walk over the whole queue.
+ *
+ * Thread safe. Kept free of Android types so it can be exercised from plain JVM unit tests.
+ */
+public class MetadataCache<V> {
+
+    private final ISizer<V> mSizer;
+    private final LinkedHashMap<String, Entry<V>> mEntries = new LinkedHashMap<>(16, 0.75f, true);  // unpinned, access order, eldest first
+    private final HashMap<String, Entry<V>> mPinnedEntries = new HashMap<>();                       // pinned and cached
+    private final Set<String> mPinned = new HashSet<>();                                            // pinned, cached or not
+    private long mMaxBytes;
+    private long mSizeBytes;
+
+    // stats
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+
+    public MetadataCache(long maxBytes, ISizer<V> sizer) {
+        mMaxBytes = maxBytes;
+        mSizer = sizer;
+    }
+
+    public synchronized V get(String id) {
+        Entry<V> entry = mPinnedEntries.get(id);
+        if (entry == null) {
+            entry = mEntries.get(id);
+        }
+        if (entry == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return entry.value;
+    }
+
+    public synchronized void put(String id, V value) {
+        Entry<V> entry = new Entry<>(value, mSizer.sizeOf(value));
+        Entry<V> previous;
+        if (mPinned.contains(id)) {
+            previous = mPinnedEntries.put(id, entry);
+        } else {
+            previous = mEntries.put(id, entry);
+        }
+        if (previous != null) {
+            mSizeBytes -= previous.bytes;
+        }
+        mSizeBytes += entry.bytes;
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Replaces the pinned ids, the previously pinned ones become evictable (as the most recently
+     * used). O(old + new pinned ids), the rest of the cache isn't touched.
+     */
+    public synchronized void setPinned(Collection<String> ids) {
+        Set<String> pinned = new HashSet<>(ids);
+        Iterator<Map.Entry<String, Entry<V>>> it = mPinnedEntries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry<V>> entry = it.next();
+            if (!pinned.contains(entry.getKey())) {
+                it.remove();
+                mEntries.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (String id : pinned) {
+            Entry<V> entry = mEntries.remove(id);
+            if (entry != null) {
+                mPinnedEntries.put(id, entry);
+            }
+        }
+        mPinned.clear();
+        mPinned.addAll(pinned);
+        trimToSize(mMaxBytes);
+    }
+
+    public synchronized boolean isPinned(String id) {
+        return mPinned.contains(id);
+    }
+
+    /**
+     * Evicts least recently used unpinned entries until the cache is at most maxBytes (or only
+     * pinned entries are left). Doesn't change the budget.
+     */
+    public synchronized void trimToSize(long maxBytes) {
+        Iterator<Map.Entry<String, Entry<V>>> it = mEntries.entrySet().iterator();
+        while (mSizeBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry<V>> eldest = it.next();
+            it.remove();
+            mSizeBytes -= eldest.getValue().bytes;
+            mEvictions++;
+        }
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized long getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    public synchronized int getCount() {
+        return mEntries.size() + mPinnedEntries.size();
+    }
+
+    public synchronized int getPinnedCount() {
+        return mPinned.size();
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MetadataCache{" + getCount() + " items, " + mSizeBytes + "/" + mMaxBytes + " bytes, "
+                + mPinned.size() + " pinned, hits=" + mHits + ", misses=" + mMisses + ", evictions=" + mEvictions + "}";
+    }
+
+    private static final class Entry<V> {
+
+        final V value;
+        final long bytes;
+
+        Entry(V value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    public interface ISizer<V> {
+
+        // an estimate is fine, it only has to be consistent for the same value
+        long sizeOf(V value);
+    }
+}
@@ -1,8 +1,6 @@
 package util;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.preference.PreferenceManager;
 import android.util.Log;
 
 import static util.Constants.LAST_ARTIST;
@@ -12,75 +10,90 @@ import static util.Constants.MEDIA_QUEUE_POSITION;
 import static util.Constants.NOW_PLAYING;
 import static util.Constants.PLAYLIST_ID;
 
+/**
+ * Session preferences, backed by the shared {@link SessionStateStore}. Each save method is one
+ * commit, use the batched ones when several values change together.
+ */
 public class MyPreferenceManager {
 
     private static final String TAG = "MyPreferenceManager";
 
-    private SharedPreferences mPreferences;
+    private SessionStateStore mStore;
 
     public MyPreferenceManager(Context mContext) {
-        mPreferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mStore = SessionStateStore.getInstance(mContext);
     }
 
     public String getPlaylistId(){
-        return mPreferences.getString(PLAYLIST_ID, "");
+        return mStore.getString(PLAYLIST_ID, "");
     }
 
     public void savePlaylistId(String playlistId){
-        SharedPreferences.Editor editor = mPreferences.edit();
-        editor.putString(PLAYLIST_ID, playlistId);
-        editor.apply();
+        mStore.edit().putString(PLAYLIST_ID, playlistId).commit();
     }
 
     public void saveQueuePosition(int position){
         Log.d(TAG, "saveQueuePosition: SAVING QUEUE INDEX: " + position);
-        SharedPreferences.Editor editor = mPreferences.edit();
-        editor.putInt(MEDIA_QUEUE_POSITION, position);
-        editor.apply();
+        mStore.edit().putInt(MEDIA_QUEUE_POSITION, position).commit();
     }
 
     public int getQueuePosition(){
-        return mPreferences.getInt(MEDIA_QUEUE_POSITION, -1);
+        return mStore.getInt(MEDIA_QUEUE_POSITION, -1);
     }
 
     public void saveLastPlayedArtistImage(String url){
-        SharedPreferences.Editor editor = mPreferences.edit();
-        editor.putString(LAST_ARTIST_IMAGE, url);
-        editor.apply();
+        mStore.edit().putString(LAST_ARTIST_IMAGE, url).commit();
     }
 
     public String getLastPlayedArtistImage(){
-        return  mPreferences.getString(LAST_ARTIST_IMAGE, "");
+        return  mStore.getString(LAST_ARTIST_IMAGE, "");
     }
 
     public String getLastPlayedArtist(){
-        return  mPreferences.getString(LAST_ARTIST, "");
+        return  mStore.getString(LAST_ARTIST, "");
     }
 
     public String getLastCategory(){
-        return  mPreferences.getString(LAST_CATEGORY, "");
+        return  mStore.getString(LAST_CATEGORY, "");
     }
 
     public void saveLastPlayedMedia(String mediaId){
-        SharedPreferences.Editor editor = mPreferences.edit();
-        editor.putString(NOW_PLAYING, mediaId);
-        editor.apply();
+        mStore.edit().putString(NOW_PLAYING, mediaId).commit();
     }
 
     public String getLastPlayedMedia(){
-        return mPreferences.getString(NOW_PLAYING, "");
+        return mStore.getString(NOW_PLAYING, "");
     }
 
     public void saveLastPlayedCategory(String category){
-        SharedPreferences.Editor editor = mPreferences.edit();
-        editor.putString(LAST_CATEGORY, category);
-        editor.apply();
+        mStore.edit().putString(LAST_CATEGORY, category).commit();
     }
 
     public void saveLastPlayedArtist(String artist){
-        SharedPreferences.Editor editor = mPreferences.edit();
-        editor.putString(LAST_ARTIST, artist);
-        editor.apply();
+        mStore.edit().putString(LAST_ARTIST, artist).commit();
+    }
+
+    // a track was picked from a playlist, one commit for all of it
+    public void saveLastPlayedSong(String playlistId, String artist, String category, String artistImage, String mediaId){
+        mStore.edit()
+                .putString(PLAYLIST_ID, playlistId)
+                .putString(LAST_ARTIST, artist)
+                .putString(LAST_CATEGORY, category)
+                .putString(LAST_ARTIST_IMAGE, artistImage)
+                .putString(NOW_PLAYING, mediaId)
+                .commit();
+    }
+
+    // the service started a track
+    public void saveNowPlaying(int queuePosition, String mediaId){
+        mStore.edit()
+                .putInt(MEDIA_QUEUE_POSITION, queuePosition)
+                .putString(NOW_PLAYING, mediaId)
+                .commit();
+    }
+
+    public void flush(){
+        mStore.flush();
     }
 
 }
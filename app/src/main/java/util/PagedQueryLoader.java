@@ -0,0 +1,86 @@
+package util;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+/**
+ * Reads an ordered fireStore query one page at a time (limit + startAfter), so the first page
+ * can be rendered while the rest of a large playlist is still on its way. Pages are requested
+ * one after another until a short page comes back or the loader is cancelled.
+ */
+public class PagedQueryLoader {
+
+    private static final String TAG = "PagedQueryLoader";
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    private final Query mQuery;                                                                     // must be ordered, pages continue after the last document
+    private final int mPageSize;
+    private DocumentSnapshot mLastDocument;
+    private boolean mCancelled;
+    private int mPageCount;
+
+    public PagedQueryLoader(Query query, int pageSize) {
+        mQuery = query;
+        mPageSize = pageSize;
+    }
+
+    public void loadAll(IPageCallback callback){
+        mLastDocument = null;
+        mCancelled = false;
+        mPageCount = 0;
+        loadNextPage(callback);
+    }
+
+    // results of pages already in flight are dropped
+    public void cancel(){
+        mCancelled = true;
+    }
+
+    private void loadNextPage(final IPageCallback callback){
+        Query page = mQuery.limit(mPageSize);
+        if(mLastDocument != null){
+            page = page.startAfter(mLastDocument);
+        }
+
+        page.get().addOnCompleteListener(new OnCompleteListener<QuerySnapshot>() {
+            @Override
+            public void onComplete(@NonNull Task<QuerySnapshot> task) {
+                if(mCancelled){
+                    return;
+                }
+                if(!task.isSuccessful() || task.getResult() == null){
+                    callback.onPageFailed(task.getException(), mPageCount);
+                    return;
+                }
+
+                QuerySnapshot snapshot = task.getResult();
+                boolean isLastPage = snapshot.size() < mPageSize;
+                mPageCount++;
+                Log.d(TAG, "onComplete: PAGE " + mPageCount + ", " + snapshot.size() + " DOCUMENTS");
+                if(!snapshot.isEmpty()){
+                    mLastDocument = snapshot.getDocuments().get(snapshot.size() - 1);
+                }
+
+                callback.onPageLoaded(snapshot, isLastPage);
+                if(!isLastPage && !mCancelled){
+                    loadNextPage(callback);
+                }
+            }
+        });
+    }
+
+    public interface IPageCallback {
+
+        void onPageLoaded(QuerySnapshot page, boolean isLastPage);
+
+        void onPageFailed(Exception e, int pagesLoaded);
+    }
+}
@@ -0,0 +1,28 @@
+package util;
+
+import java.util.List;
+
+/**
+ * A source of playlist deltas. fireStore in the app ({@link FirestorePlaylistRepository}), a
+ * scripted fake in the tests.
+ *
+ * Contract: the first batch delivered after {@link #listen} is the full playlist, every item
+ * as ADDED. Later batches only carry what changed. Callbacks come on the main thread.
+ */
+public interface PlaylistRepository<T> {
+
+    Registration listen(IChangeListener<T> listener);
+
+    interface IChangeListener<T> {
+
+        void onChanges(List<TrackChange<T>> changes);
+
+        void onError(Exception e);
+    }
+
+    interface Registration {
+
+        // no callbacks after this returns
+        void remove();
+    }
+}
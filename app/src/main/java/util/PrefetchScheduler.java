@@ -0,0 +1,163 @@
+package util;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Runs background prefetches with bounded concurrency. Tasks are asynchronous (a fireStore
+ * get), a task holds its slot until it calls done. HIGH priority work (what's on screen, what
+ * was played last) starts before LOW priority work (the rest of the catalog), and a key that
+ * is already queued or running is not scheduled twice.
+ *
+ * Not thread safe, schedule and done are expected on one thread (the main thread in the app).
+ * Kept free of Android types so it can be exercised from plain JVM unit tests.
+ */
+public class PrefetchScheduler {
+
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_HIGH = 1;
+
+    private final int mMaxConcurrent;
+    private final ArrayDeque<Entry> mHigh = new ArrayDeque<>();
+    private final ArrayDeque<Entry> mLow = new ArrayDeque<>();
+    private final HashMap<String, Entry> mQueued = new HashMap<>();                                 // key -> entry waiting for a slot
+    private final Set<String> mRunning = new HashSet<>();
+
+    // counters
+    private int mStarted;
+    private int mCompleted;
+    private int mDeduplicated;
+
+    public PrefetchScheduler(int maxConcurrent) {
+        mMaxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * Queues task under key. Returns false when the key is already queued or running, a queued
+     * LOW entry is moved up when it's scheduled again as HIGH.
+     */
+    public boolean schedule(String key, int priority, ITask task) {
+        if (mRunning.contains(key)) {
+            mDeduplicated++;
+            return false;
+        }
+        Entry queued = mQueued.get(key);
+        if (queued != null) {
+            mDeduplicated++;
+            if (priority == PRIORITY_HIGH && queued.priority == PRIORITY_LOW) {
+                mLow.remove(queued);
+                queued.priority = PRIORITY_HIGH;
+                mHigh.addLast(queued);
+            }
+            return false;
+        }
+
+        Entry entry = new Entry(key, priority, task);
+        mQueued.put(key, entry);
+        (priority == PRIORITY_HIGH ? mHigh : mLow).addLast(entry);
+        startNext();
+        return true;
+    }
+
+    /**
+     * Drops everything that hasn't started, running tasks finish on their own.
+     */
+    public void cancelPending() {
+        mHigh.clear();
+        mLow.clear();
+        mQueued.clear();
+    }
+
+    public void cancelPending(String keyPrefix) {
+        Iterator<Entry> it = mQueued.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.key.startsWith(keyPrefix)) {
+                it.remove();
+                mHigh.remove(entry);
+                mLow.remove(entry);
+            }
+        }
+    }
+
+    public boolean isPending(String key) {
+        return mQueued.containsKey(key) || mRunning.contains(key);
+    }
+
+    public int getRunningCount() {
+        return mRunning.size();
+    }
+
+    public int getQueuedCount() {
+        return mQueued.size();
+    }
+
+    public int getStartedCount() {
+        return mStarted;
+    }
+
+    public int getCompletedCount() {
+        return mCompleted;
+    }
+
+    public int getDeduplicatedCount() {
+        return mDeduplicated;
+    }
+
+    private void startNext() {
+        while (mRunning.size() < mMaxConcurrent) {
+            Entry entry = mHigh.isEmpty() ? mLow.pollFirst() : mHigh.pollFirst();
+            if (entry == null) {
+                return;
+            }
+            mQueued.remove(entry.key);
+            mRunning.add(entry.key);
+            mStarted++;
+            entry.task.run(new Done(entry.key));
+        }
+    }
+
+    // calling it twice is harmless, only the first call frees the slot
+    private class Done implements Runnable {
+
+        private final String mKey;
+        private boolean mCalled;
+
+        Done(String key) {
+            mKey = key;
+        }
+
+        @Override
+        public void run() {
+            if (mCalled) {
+                return;
+            }
+            mCalled = true;
+            mRunning.remove(mKey);
+            mCompleted++;
+            startNext();
+        }
+    }
+
+    private static final class Entry {
+
+        final String key;
+        final ITask task;
+        int priority;
+
+        Entry(String key, int priority, ITask task) {
+            this.key = key;
+            this.priority = priority;
+            this.task = task;
+        }
+    }
+
+    public interface ITask {
+
+        // start the work and call done once it finished or failed, may be called synchronously
+        void run(Runnable done);
+    }
+}
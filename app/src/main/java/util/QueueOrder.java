@@ -0,0 +1,347 @@
+package util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Play order of the session queue, with shuffle and repeat, kept next to the queue list (which
+ * itself is never reordered).
+ *
+ * Every queue item gets a slot when it's added. Both orders, linear and shuffled, are circular
+ * doubly linked lists over the slots, so moving to the next / previous item is a pointer hop.
+ * The slots come from a {@link SlotIndex}, which turns a slot into a queue position and back,
+ * O(log n) once items were removed and O(1) while there are no holes.
+ *
+ * The shuffle is the slots sorted by a random key. An added item gets a random key above the
+ * current item's, which puts it at a uniformly random point of what's still to play, found in
+ * O(log n). Removing an item unlinks it. Neither reshuffles, turning shuffle on is the only
+ * O(n log n) step.
+ *
+ * Not thread safe, MediaService only uses it on the player thread. Kept free of Android types so
+ * it can be exercised from plain JVM unit tests.
+ */
+public class QueueOrder {
+
+    // same values as PlaybackStateCompat.REPEAT_MODE_*
+    public static final int REPEAT_NONE = 0;
+    public static final int REPEAT_ONE = 1;
+    public static final int REPEAT_ALL = 2;
+
+    private static final int NONE = -1;
+
+    private final Random mRandom;
+
+    private final SlotIndex mIndex = new SlotIndex();
+    private int[] mLinearNext = new int[SlotIndex.MIN_CAPACITY];                                    // by slot
+    private int[] mLinearPrev = new int[SlotIndex.MIN_CAPACITY];
+    private int[] mShuffleNext = new int[SlotIndex.MIN_CAPACITY];
+    private int[] mShufflePrev = new int[SlotIndex.MIN_CAPACITY];
+    private long[] mShuffleKey = new long[SlotIndex.MIN_CAPACITY];
+    private final TreeMap<Long, Integer> mShuffleSlots = new TreeMap<>();                           // shuffle key -> slot, only while shuffled
+
+    private int mLinearHead = NONE;                                                                 // first item of each order
+    private int mShuffleHead = NONE;
+    private int mCurrent = NONE;                                                                    // slot of the current item
+
+    private boolean mShuffled;
+    private int mRepeatMode = REPEAT_NONE;
+
+    public QueueOrder(Random random) {
+        mRandom = random;
+    }
+
+    /**
+     * Starts over with a queue of size items, current is the position playing (or -1).
+     * When shuffle is on it's rebuilt with the current item first.
+     */
+    public void reset(int size, int current) {
+        mIndex.reset(size);
+        linkInOrder(current);
+        if (mShuffled) {
+            shuffle();
+        }
+    }
+
+    public int size() {
+        return mIndex.size();
+    }
+
+    public boolean isShuffled() {
+        return mShuffled;
+    }
+
+    /**
+     * Turning shuffle on shuffles the queue with the current item first. Turning it off goes
+     * back to queue order, from the current item.
+     */
+    public void setShuffled(boolean shuffled) {
+        if (shuffled == mShuffled) {
+            return;
+        }
+        mShuffled = shuffled;
+        if (shuffled) {
+            shuffle();
+        } else {
+            mShuffleSlots.clear();
+            mShuffleHead = NONE;
+        }
+    }
+
+    public int getRepeatMode() {
+        return mRepeatMode;
+    }
+
+    public void setRepeatMode(int repeatMode) {
+        mRepeatMode = repeatMode;
+    }
+
+    /**
+     * The queue position of the current item, -1 when there is none.
+     */
+    public int getCurrent() {
+        return mCurrent == NONE ? -1 : mIndex.positionOf(mCurrent);
+    }
+
+    /**
+     * Makes position the current item. The shuffle isn't touched, playing goes on from wherever
+     * the item sits in it.
+     */
+    public void jumpTo(int position) {
+        mCurrent = position >= 0 && position < mIndex.size() ? mIndex.slotAt(position) : NONE;
+    }
+
+    /**
+     * Moves to the next item in play order and returns its position, or -1 at the end of the
+     * order when repeat is off. Under REPEAT_ONE a skip still moves on, the player loops the
+     * track by itself.
+     */
+    public int next() {
+        int next = step(mCurrent, mRepeatMode != REPEAT_NONE);
+        if (next == NONE) {
+            return -1;
+        }
+        mCurrent = next;
+        return mIndex.positionOf(next);
+    }
+
+    /**
+     * Moves to the previous item in play order and returns its position, or -1 at the start of
+     * the order when repeat is off.
+     */
+    public int previous() {
+        if (mCurrent == NONE || (mCurrent == head() && mRepeatMode == REPEAT_NONE)) {
+            return -1;
+        }
+        mCurrent = mShuffled ? mShufflePrev[mCurrent] : mLinearPrev[mCurrent];
+        return mIndex.positionOf(mCurrent);
+    }
+
+    /**
+     * Positions of up to count items that play after the current one. None under REPEAT_ONE,
+     * the current item is what comes next.
+     */
+    public int[] peek(int count) {
+        if (mCurrent == NONE || mRepeatMode == REPEAT_ONE) {
+            return new int[0];
+        }
+        int[] positions = new int[Math.min(count, mIndex.size() - 1)];
+        int slot = mCurrent;
+        int found = 0;
+        while (found < positions.length) {
+            slot = step(slot, mRepeatMode == REPEAT_ALL);
+            if (slot == NONE) {
+                break;
+            }
+            positions[found++] = mIndex.positionOf(slot);
+        }
+        return found == positions.length ? positions : Arrays.copyOf(positions, found);
+    }
+
+    /**
+     * Adds an item at the end of the queue. In the shuffle it lands at a random point after the
+     * current item, so it still plays this time round.
+     */
+    public void append() {
+        int slot = mIndex.add();
+        growTo(mIndex.capacity());
+
+        if (mIndex.size() == 1) {
+            mLinearHead = slot;
+            mLinearNext[slot] = mLinearPrev[slot] = slot;
+        } else {
+            linkBefore(mLinearNext, mLinearPrev, slot, mLinearHead);                                // the tail of a circle is just before its head
+        }
+        if (mShuffled) {
+            long from = mCurrent == NONE ? Long.MIN_VALUE : mShuffleKey[mCurrent];
+            insertShuffled(slot, randomKeyAbove(from));
+        }
+    }
+
+    /**
+     * Removes the item at position, the items after it move up by one like in the queue list.
+     * When it was the current item the one after it in the queue becomes current, which is what
+     * MediaService does with its queue index.
+     */
+    public void remove(int position) {
+        int slot = mIndex.slotAt(position);
+        if (mIndex.size() == 1) {
+            reset(0, -1);
+            return;
+        }
+        if (slot == mCurrent) {
+            mCurrent = position < mIndex.size() - 1 ? mLinearNext[slot] : mLinearPrev[slot];
+        }
+        if (slot == mLinearHead) {
+            mLinearHead = mLinearNext[slot];
+        }
+        unlink(mLinearNext, mLinearPrev, slot);
+        if (mShuffled) {
+            if (slot == mShuffleHead) {
+                mShuffleHead = mShuffleNext[slot];
+            }
+            unlink(mShuffleNext, mShufflePrev, slot);
+            mShuffleSlots.remove(mShuffleKey[slot]);
+        }
+        mIndex.remove(slot);
+
+        if (mIndex.needsCompaction()) {
+            compact();                                                                              // mostly holes, renumber
+        }
+    }
+
+    private int head() {
+        return mShuffled ? mShuffleHead : mLinearHead;
+    }
+
+    // the slot after slot in play order, NONE past the end of the order unless it wraps
+    private int step(int slot, boolean wrap) {
+        if (slot == NONE) {
+            return NONE;
+        }
+        int next = mShuffled ? mShuffleNext[slot] : mLinearNext[slot];
+        return next == head() && !wrap ? NONE : next;
+    }
+
+    private void shuffle() {
+        mShuffleSlots.clear();
+        mShuffleHead = NONE;
+        if (mIndex.size() == 0) {
+            return;
+        }
+        int slot = mLinearHead;
+        do {
+            long key = slot == mCurrent ? Long.MIN_VALUE : randomKeyAbove(Long.MIN_VALUE);          // the current item plays first
+            while (mShuffleSlots.containsKey(key)) {
+                key = randomKeyAbove(Long.MIN_VALUE);
+            }
+            mShuffleKey[slot] = key;
+            mShuffleSlots.put(key, slot);
+            slot = mLinearNext[slot];
+        } while (slot != mLinearHead);
+
+        int previous = mShuffleSlots.lastEntry().getValue();
+        for (int next : mShuffleSlots.values()) {
+            mShuffleNext[previous] = next;
+            mShufflePrev[next] = previous;
+            previous = next;
+        }
+        mShuffleHead = mShuffleSlots.firstEntry().getValue();
+    }
+
+    private void insertShuffled(int slot, long key) {
+        while (mShuffleSlots.containsKey(key)) {
+            key = randomKeyAbove(key);
+        }
+        mShuffleKey[slot] = key;
+        Map.Entry<Long, Integer> after = mShuffleSlots.higherEntry(key);
+        mShuffleSlots.put(key, slot);
+        if (mShuffleSlots.size() == 1) {
+            mShuffleHead = slot;
+            mShuffleNext[slot] = mShufflePrev[slot] = slot;
+            return;
+        }
+        int before = after == null ? mShuffleHead : after.getValue();                               // past the last key it goes at the tail
+        linkBefore(mShuffleNext, mShufflePrev, slot, before);
+        if (after != null && before == mShuffleHead) {
+            mShuffleHead = slot;                                                                    // new lowest key
+        }
+    }
+
+    private long randomKeyAbove(long from) {
+        if (from == Long.MAX_VALUE) {
+            return from;
+        }
+        long bound = Long.MAX_VALUE - from;                                                         // overflows for very low from
+        if (bound <= 0) {
+            long key;
+            do {
+                key = mRandom.nextLong();
+            } while (key <= from);
+            return key;
+        }
+        return from + 1 + (long) (mRandom.nextDouble() * (bound - 1));
+    }
+
+    private static void linkBefore(int[] next, int[] prev, int slot, int before) {
+        int after = prev[before];
+        next[after] = slot;
+        prev[slot] = after;
+        next[slot] = before;
+        prev[before] = slot;
+    }
+
+    private static void unlink(int[] next, int[] prev, int slot) {
+        next[prev[slot]] = next[slot];
+        prev[next[slot]] = prev[slot];
+    }
+
+    // slots 0..size-1 of a fresh index, linked in queue order
+    private void linkInOrder(int current) {
+        int size = mIndex.size();
+        growTo(mIndex.capacity());
+        for (int slot = 0; slot < size; slot++) {
+            mLinearNext[slot] = slot + 1 == size ? 0 : slot + 1;
+            mLinearPrev[slot] = slot == 0 ? size - 1 : slot - 1;
+        }
+        mLinearHead = size == 0 ? NONE : 0;
+        mCurrent = current >= 0 && current < size ? current : NONE;
+    }
+
+    // renumbers the live slots 0..size-1 in queue order, keeping both orders and the current item
+    private void compact() {
+        int[] newSlot = mIndex.compact();                                                           // slot order is queue order, adds only go at the end
+        linkInOrder(mCurrent == NONE ? NONE : newSlot[mCurrent]);
+        if (!mShuffled) {
+            return;
+        }
+
+        int[] shuffleNext = new int[mShuffleNext.length];
+        int[] shufflePrev = new int[mShufflePrev.length];
+        long[] shuffleKey = new long[mShuffleKey.length];
+        for (Map.Entry<Long, Integer> entry : mShuffleSlots.entrySet()) {
+            int old = entry.getValue();
+            shuffleNext[newSlot[old]] = newSlot[mShuffleNext[old]];
+            shufflePrev[newSlot[old]] = newSlot[mShufflePrev[old]];
+            shuffleKey[newSlot[old]] = entry.getKey();
+            entry.setValue(newSlot[old]);
+        }
+        mShuffleNext = shuffleNext;
+        mShufflePrev = shufflePrev;
+        mShuffleKey = shuffleKey;
+        mShuffleHead = newSlot[mShuffleHead];
+    }
+
+    // keeps the per-slot arrays as long as the index's capacity
+    private void growTo(int capacity) {
+        if (capacity <= mLinearNext.length) {
+            return;
+        }
+        mLinearNext = Arrays.copyOf(mLinearNext, capacity);
+        mLinearPrev = Arrays.copyOf(mLinearPrev, capacity);
+        mShuffleNext = Arrays.copyOf(mShuffleNext, capacity);
+        mShufflePrev = Arrays.copyOf(mShufflePrev, capacity);
+        mShuffleKey = Arrays.copyOf(mShuffleKey, capacity);
+    }
+}
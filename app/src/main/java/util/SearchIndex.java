@@ -0,0 +1,329 @@
+package util;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import Models.Track;
+
+/**
+ * In-memory search over the tracks the app has seen: titles, artists and descriptions.
+ *
+ * An inverted index, token -> postings, with the tokens kept sorted so every query term is also
+ * a prefix ("beatl" finds "beatles"), from {@link #MIN_PREFIX_LENGTH} characters on. Terms are
+ * ANDed, rarest first. A track scores the weight of the fields a term was found in
+ * (title > artist > description), doubled for a whole-token match.
+ *
+ * Built incrementally: tracks are added as playlists load, re-adding a track replaces it.
+ * Removed tracks are dropped lazily and the index is compacted once they outnumber the live ones.
+ * Thread safe. Kept free of Android types so it can be exercised from plain JVM unit tests.
+ */
+public class SearchIndex {
+
+    // a field's flag is also its weight
+    public static final int FIELD_DESCRIPTION = 1;
+    public static final int FIELD_ARTIST = 2;
+    public static final int FIELD_TITLE = 4;
+    public static final int FIELD_ALL = FIELD_TITLE | FIELD_ARTIST | FIELD_DESCRIPTION;
+
+    private static final int FIELD_BITS = 3;                                                        // a posting is doc << FIELD_BITS | fields
+    private static final int MIN_COMPACT = 1024;
+    public static final int MIN_PREFIX_LENGTH = 2;                                                  // a single letter would expand to a 26th of the catalog
+
+    private final TreeMap<String, IntList> mPostings = new TreeMap<>();                             // token -> postings, in doc order
+    private final ArrayList<Track> mDocs = new ArrayList<>();                                       // doc -> track, null once removed
+    private final HashMap<String, Integer> mDocIds = new HashMap<>();                               // media id -> doc
+    private int mRemoved;
+
+    // per query scratch, indexed by doc. mStamp tells which query the other two belong to
+    private int[] mStamp = new int[0];
+    private int[] mMatchedTerms = new int[0];
+    private int[] mScore = new int[0];
+    private int mQueryStamp;
+
+    /**
+     * Adds a track, or replaces the indexed one with the same media id.
+     */
+    public synchronized void add(Track track) {
+        String mediaId = track.getMediaId();
+        if (mediaId == null) {
+            return;
+        }
+        Integer doc = mDocIds.get(mediaId);
+        if (doc != null) {
+            if (track.equals(mDocs.get(doc))) {
+                return;                                                                             // seen already, the usual case on a re-load
+            }
+            removeDoc(doc);
+        }
+        index(track);
+    }
+
+    public synchronized void addAll(Collection<Track> tracks) {
+        for (Track track : tracks) {
+            add(track);
+        }
+    }
+
+    public synchronized void remove(String mediaId) {
+        Integer doc = mDocIds.get(mediaId);
+        if (doc != null) {
+            removeDoc(doc);
+        }
+    }
+
+    public synchronized void clear() {
+        mPostings.clear();
+        mDocs.clear();
+        mDocIds.clear();
+        mRemoved = 0;
+    }
+
+    public synchronized int size() {
+        return mDocIds.size();
+    }
+
+    public synchronized int getTokenCount() {
+        return mPostings.size();
+    }
+
+    public List<Track> search(String query, int limit) {
+        return search(query, FIELD_ALL, limit);
+    }
+
+    /**
+     * Best matches first, ties in the order the tracks were indexed. Only the given fields
+     * (FIELD_* flags) are searched. Empty when the query has no tokens.
+     */
+    public synchronized List<Track> search(String query, int fields, int limit) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        // the rarest term first, it decides how many docs the others have to look at
+        List<Term> terms = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            Term term = new Term(token, expand(token));
+            if (term.mPostingCount == 0) {
+                return Collections.emptyList();                                                     // ANDed, nothing can match
+            }
+            terms.add(term);
+        }
+        Collections.sort(terms);
+        int stamp = nextQueryStamp();
+
+        IntList candidates = new IntList();
+        for (int t = 0; t < terms.size(); t++) {
+            Term term = terms.get(t);
+            for (Map.Entry<String, IntList> entry : term.mExpansion.entrySet()) {
+                int weight = entry.getKey().length() == term.mToken.length() ? 2 : 1;               // whole token or prefix
+                IntList postings = entry.getValue();
+                for (int i = 0; i < postings.size(); i++) {
+                    int posting = postings.get(i);
+                    int matched = posting & fields & FIELD_ALL;
+                    if (matched == 0) {
+                        continue;
+                    }
+                    int doc = posting >>> FIELD_BITS;
+                    if (t == 0) {
+                        if (mStamp[doc] != stamp) {
+                            mStamp[doc] = stamp;
+                            mMatchedTerms[doc] = 1;
+                            mScore[doc] = 0;
+                            candidates.add(doc);
+                        }
+                    } else if (mStamp[doc] != stamp || mMatchedTerms[doc] < t) {
+                        continue;                                                                   // missed an earlier term
+                    } else {
+                        mMatchedTerms[doc] = t + 1;
+                    }
+                    mScore[doc] += matched * weight;
+                }
+            }
+        }
+        return topMatches(candidates, terms.size(), limit);
+    }
+
+    /**
+     * Lower case, accents stripped, split on anything that isn't a letter or a digit.
+     * Duplicates are dropped, order is kept.
+     */
+    public static List<String> tokenize(String text) {
+        if (text == null || text.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD).toLowerCase(Locale.ROOT);
+        LinkedHashMap<String, Boolean> tokens = new LinkedHashMap<>();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;                                                                           // the accent of the letter before it
+            }
+            if (Character.isLetterOrDigit(c)) {
+                token.append(c);
+            } else if (token.length() > 0) {
+                tokens.put(token.toString(), Boolean.TRUE);
+                token.setLength(0);
+            }
+        }
+        if (token.length() > 0) {
+            tokens.put(token.toString(), Boolean.TRUE);
+        }
+        return new ArrayList<>(tokens.keySet());
+    }
+
+    // the tokens a query term matches: itself, and every token it starts when it's long enough
+    private Map<String, IntList> expand(String token) {
+        if (token.length() < MIN_PREFIX_LENGTH) {
+            IntList postings = mPostings.get(token);
+            return postings == null ? Collections.<String, IntList>emptyMap() : Collections.singletonMap(token, postings);
+        }
+        return mPostings.subMap(token, true, token + Character.MAX_VALUE, false);
+    }
+
+    private void index(Track track) {
+        int doc = mDocs.size();
+        mDocs.add(track);
+        mDocIds.put(track.getMediaId(), doc);
+
+        // one posting per token, with every field the token is in
+        HashMap<String, Integer> tokenFields = new HashMap<>();
+        collect(tokenFields, track.getTitle(), FIELD_TITLE);
+        collect(tokenFields, track.getArtist(), FIELD_ARTIST);
+        collect(tokenFields, track.getDescription(), FIELD_DESCRIPTION);
+        for (Map.Entry<String, Integer> entry : tokenFields.entrySet()) {
+            IntList postings = mPostings.get(entry.getKey());
+            if (postings == null) {
+                postings = new IntList();
+                mPostings.put(entry.getKey(), postings);
+            }
+            postings.add(doc << FIELD_BITS | entry.getValue());
+        }
+    }
+
+    private static void collect(HashMap<String, Integer> tokenFields, String text, int field) {
+        for (String token : tokenize(text)) {
+            Integer fields = tokenFields.get(token);
+            tokenFields.put(token, fields == null ? field : fields | field);
+        }
+    }
+
+    private void removeDoc(int doc) {
+        Track track = mDocs.set(doc, null);
+        mDocIds.remove(track.getMediaId());
+        mRemoved++;
+        if (mRemoved > MIN_COMPACT && mRemoved > mDocIds.size()) {
+            compact();
+        }
+    }
+
+    // removed docs still sit in the postings, re-index what's left
+    private void compact() {
+        List<Track> live = new ArrayList<>(mDocIds.size());
+        for (Track track : mDocs) {
+            if (track != null) {
+                live.add(track);
+            }
+        }
+        clear();
+        for (Track track : live) {
+            index(track);
+        }
+    }
+
+    private int nextQueryStamp() {
+        if (mStamp.length < mDocs.size()) {
+            int capacity = Math.max(mDocs.size(), mStamp.length * 2);
+            mStamp = new int[capacity];
+            mMatchedTerms = new int[capacity];
+            mScore = new int[capacity];
+            mQueryStamp = 0;
+        }
+        if (++mQueryStamp == Integer.MAX_VALUE) {
+            Arrays.fill(mStamp, 0);
+            mQueryStamp = 1;
+        }
+        return mQueryStamp;
+    }
+
+    private List<Track> topMatches(IntList candidates, int termCount, int limit) {
+        // score in the high half, the earlier doc wins a tie
+        PriorityQueue<Long> best = new PriorityQueue<>(limit + 1);
+        for (int i = 0; i < candidates.size(); i++) {
+            int doc = candidates.get(i);
+            if (mMatchedTerms[doc] != termCount || mDocs.get(doc) == null) {
+                continue;
+            }
+            long key = (long) mScore[doc] << 32 | (Integer.MAX_VALUE - doc);
+            if (best.size() < limit) {
+                best.add(key);
+            } else if (key > best.peek()) {
+                best.poll();
+                best.add(key);
+            }
+        }
+        Track[] result = new Track[best.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            long key = best.poll();
+            result[i] = mDocs.get(Integer.MAX_VALUE - (int) key);
+        }
+        List<Track> matches = new ArrayList<>(result.length);
+        Collections.addAll(matches, result);
+        return matches;
+    }
+
+    private static class Term implements Comparable<Term> {
+
+        final String mToken;
+        final Map<String, IntList> mExpansion;
+        final int mPostingCount;
+
+        Term(String token, Map<String, IntList> expansion) {
+            mToken = token;
+            mExpansion = expansion;
+            int count = 0;
+            for (IntList postings : expansion.values()) {
+                count += postings.size();
+            }
+            mPostingCount = count;
+        }
+
+        @Override
+        public int compareTo(Term other) {
+            return Integer.compare(mPostingCount, other.mPostingCount);
+        }
+    }
+
+    // growable int array, postings would cost an Integer each in a List
+    private static class IntList {
+
+        private int[] mValues = new int[4];
+        private int mSize;
+
+        void add(int value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+        int get(int index) {
+            return mValues[index];
+        }
+
+        int size() {
+            return mSize;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package util;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The session queue: items in queue order under queue ids that stay put. Ids are handed out in
+ * increasing order as items are added and never reused, so removing an item doesn't renumber the
+ * ones after it and a skip to a queue id still lands on its item after earlier ones went.
+ *
+ * Items sit in slots of a {@link SlotIndex}, in queue order (adds only go at the end), a removed
+ * one leaves a hole. Position <-> slot is O(log n) once items were removed, queue id and media id
+ * -> slot are hash lookups, so removing an item or skipping to one is O(log n).
+ *
+ * Not thread safe, MediaService only uses it on the player thread. Kept free of Android types so
+ * it can be exercised from plain JVM unit tests.
+ */
+public class SessionQueue<T> {
+
+    private final SlotIndex mIndex = new SlotIndex();
+    private Object[] mItems = new Object[SlotIndex.MIN_CAPACITY];                                   // by slot
+    private String[] mMediaIds = new String[SlotIndex.MIN_CAPACITY];
+    private long[] mQueueIds = new long[SlotIndex.MIN_CAPACITY];
+    private final HashMap<Long, Integer> mSlotByQueueId = new HashMap<>();
+    private final HashMap<String, ArrayDeque<Integer>> mSlotsByMediaId = new HashMap<>();           // in queue order, a track can be queued twice
+
+    private long mNextQueueId;
+
+    /**
+     * Empties the queue. Queue ids carry on from where they were, an id from the old queue never
+     * matches an item of the new one.
+     */
+    public void clear() {
+        Arrays.fill(mItems, 0, mIndex.slots(), null);
+        Arrays.fill(mMediaIds, 0, mIndex.slots(), null);
+        mIndex.reset(0);
+        mSlotByQueueId.clear();
+        mSlotsByMediaId.clear();
+    }
+
+    /**
+     * Adds an item at the end of the queue and returns its queue id.
+     */
+    public long add(String mediaId, T item) {
+        int slot = mIndex.add();
+        if (mIndex.capacity() > mItems.length) {
+            mItems = Arrays.copyOf(mItems, mIndex.capacity());
+            mMediaIds = Arrays.copyOf(mMediaIds, mIndex.capacity());
+            mQueueIds = Arrays.copyOf(mQueueIds, mIndex.capacity());
+        }
+        long queueId = mNextQueueId++;
+        mItems[slot] = item;
+        mMediaIds[slot] = mediaId;
+        mQueueIds[slot] = queueId;
+        mSlotByQueueId.put(queueId, slot);
+        slotsOf(mediaId).addLast(slot);
+        return queueId;
+    }
+
+    /**
+     * Removes the first item queued for mediaId, the items after it move up by one position and
+     * keep their queue ids. Returns the position it had, or -1 when it isn't queued.
+     */
+    public int remove(String mediaId) {
+        ArrayDeque<Integer> slots = mSlotsByMediaId.get(mediaId);
+        if (slots == null) {
+            return -1;
+        }
+        int slot = slots.pollFirst();
+        if (slots.isEmpty()) {
+            mSlotsByMediaId.remove(mediaId);
+        }
+        int position = mIndex.positionOf(slot);
+        mSlotByQueueId.remove(mQueueIds[slot]);
+        mItems[slot] = null;
+        mMediaIds[slot] = null;
+        mIndex.remove(slot);
+
+        if (mIndex.needsCompaction()) {
+            compact();                                                                              // mostly holes, renumber the slots
+        }
+        return position;
+    }
+
+    /**
+     * The position of the item with this queue id, -1 when it isn't queued (anymore).
+     */
+    public int indexOfQueueId(long queueId) {
+        Integer slot = mSlotByQueueId.get(queueId);
+        return slot == null ? -1 : mIndex.positionOf(slot);
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int position) {
+        return (T) mItems[slotAt(position)];
+    }
+
+    public String getMediaId(int position) {
+        return mMediaIds[slotAt(position)];
+    }
+
+    public long getQueueId(int position) {
+        return mQueueIds[slotAt(position)];
+    }
+
+    public int size() {
+        return mIndex.size();
+    }
+
+    public boolean isEmpty() {
+        return mIndex.size() == 0;
+    }
+
+    private ArrayDeque<Integer> slotsOf(String mediaId) {
+        ArrayDeque<Integer> slots = mSlotsByMediaId.get(mediaId);
+        if (slots == null) {
+            slots = new ArrayDeque<>(1);
+            mSlotsByMediaId.put(mediaId, slots);
+        }
+        return slots;
+    }
+
+    private int slotAt(int position) {
+        if (position < 0 || position >= mIndex.size()) {
+            throw new IndexOutOfBoundsException("position " + position + ", size " + mIndex.size());
+        }
+        return mIndex.slotAt(position);
+    }
+
+    // moves the items down with their slots, queue ids go with their items
+    private void compact() {
+        int slots = mIndex.slots();
+        int[] newSlot = mIndex.compact();
+        mSlotByQueueId.clear();
+        mSlotsByMediaId.clear();
+        for (int old = 0; old < slots; old++) {
+            int slot = newSlot[old];
+            if (slot == -1) {
+                continue;
+            }
+            mItems[slot] = mItems[old];
+            mMediaIds[slot] = mMediaIds[old];
+            mQueueIds[slot] = mQueueIds[old];
+            mSlotByQueueId.put(mQueueIds[slot], slot);
+            slotsOf(mMediaIds[slot]).addLast(slot);
+        }
+        Arrays.fill(mItems, mIndex.size(), slots, null);
+        Arrays.fill(mMediaIds, mIndex.size(), slots, null);
+    }
+}
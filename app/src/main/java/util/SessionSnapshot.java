@@ -0,0 +1,337 @@
+package util;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import Models.Track;
+
+/**
+ * Snapshot of the last playback session: the queue, the queue index, the playback position and
+ * the current track. MediaService writes it whenever the playback state changes, MainActivity
+ * restores it once per launch so the mini-player and the service come up without waiting on
+ * the network.
+ *
+ * Stored as two files: the queue (with the playlist it came from), only rewritten when the queue
+ * changed, and a small position record (queue index, position, current track) that the frequent
+ * position checkpoints rewrite on their own.
+ */
+public class SessionSnapshot {
+
+    private static final String TAG = "SessionSnapshot";
+
+    private static final String FILE_NAME = "session_snapshot.bin";
+    private static final String POSITION_FILE_NAME = "session_position.bin";
+    private static final int VERSION = 2;                                                           // 2: the position moved to its own file
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ExecutorService sDiskExecutor = Executors.newSingleThreadExecutor();       // reads queue up behind pending writes
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static final Object sPendingLock = new Object();
+    private static SessionSnapshot sPendingWrite;                                                   // guarded by sPendingLock
+    private static boolean sPendingQueueChanged;
+
+    private final String mPlaylistId;                                                               // same as the artist id
+    private final String mCategory;
+    private final String mArtistImage;
+    private final List<Track> mQueue;
+    private final int mQueueIndex;
+    private final long mPosition;
+    private final Track mCurrentTrack;
+
+    public SessionSnapshot(String playlistId, String category, String artistImage,
+                           List<Track> queue, int queueIndex, long position,
+                           Track currentTrack) {
+        mPlaylistId = playlistId == null ? "" : playlistId;
+        mCategory = category == null ? "" : category;
+        mArtistImage = artistImage == null ? "" : artistImage;
+        mQueue = Collections.unmodifiableList(new ArrayList<>(queue));
+        mQueueIndex = queueIndex;
+        mPosition = position;
+        mCurrentTrack = currentTrack;
+    }
+
+    public String getPlaylistId() {
+        return mPlaylistId;
+    }
+
+    public String getCategory() {
+        return mCategory;
+    }
+
+    public String getArtistImage() {
+        return mArtistImage;
+    }
+
+    public List<Track> getQueue() {
+        return mQueue;
+    }
+
+    public int getQueueIndex() {
+        return mQueueIndex;
+    }
+
+    public long getPosition() {
+        return mPosition;
+    }
+
+    public Track getCurrentTrack() {
+        return mCurrentTrack;
+    }
+
+    public String getCurrentMediaId() {
+        return mCurrentTrack == null ? null : mCurrentTrack.getMediaId();
+    }
+
+    /**
+     * Writes the snapshot on a background thread. Snapshots saved while a write is still pending
+     * replace the pending one, so a burst of state changes costs a single write. The queue file
+     * is only rewritten when queueChanged was passed since the last write, otherwise only the
+     * position record is.
+     */
+    public static void saveAsync(Context context, SessionSnapshot snapshot, boolean queueChanged){
+        final File queueFile = getFile(context);
+        final File positionFile = getPositionFile(context);
+        synchronized (sPendingLock){
+            boolean scheduled = sPendingWrite != null;
+            sPendingWrite = snapshot;
+            sPendingQueueChanged |= queueChanged;                                                   // kept until written, a newer snapshot has the newer queue
+            if(scheduled){
+                return;
+            }
+        }
+        sDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                SessionSnapshot latest;
+                boolean writeQueue;
+                synchronized (sPendingLock){
+                    latest = sPendingWrite;
+                    writeQueue = sPendingQueueChanged;
+                    sPendingWrite = null;
+                    sPendingQueueChanged = false;
+                }
+                if(latest == null){
+                    return;
+                }
+                if(writeQueue){
+                    latest.writeQueue(queueFile);
+                }
+                latest.writePosition(positionFile);
+            }
+        });
+    }
+
+    /**
+     * Reads the last snapshot on a background thread, the callback gets it on the main thread
+     * (null if there is none).
+     */
+    public static void restoreAsync(Context context, final IRestoreCallback callback){
+        final Context appContext = context.getApplicationContext();
+        sDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final SessionSnapshot snapshot = restore(appContext);
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onRestored(snapshot);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Reads the last snapshot, or returns null if there is none (or it can't be read).
+     * Blocking, a small local file read.
+     */
+    public static SessionSnapshot restore(Context context){
+        AtomicFile file = new AtomicFile(getFile(context));
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(file.openRead()));
+            if(in.readInt() != VERSION){
+                return null;
+            }
+            String playlistId = readString(in);
+            String category = readString(in);
+            String artistImage = readString(in);
+            int queueSize = in.readInt();
+            List<Track> queue = new ArrayList<>(queueSize);
+            for (int i = 0; i < queueSize; i++) {
+                queue.add(readTrack(in));
+            }
+            return restorePosition(context, playlistId, category, artistImage, queue);
+
+        } catch (FileNotFoundException e) {
+            return null;                                                                            // first launch
+        } catch (IOException e) {
+            Log.e(TAG, "restore: failed to read session snapshot", e);
+            return null;
+        } finally {
+            if(in != null){
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+
+    // the queue was read, the position record goes with it (none yet: nothing was playing)
+    private static SessionSnapshot restorePosition(Context context, String playlistId, String category,
+                                                   String artistImage, List<Track> queue){
+        int queueIndex = -1;
+        long position = 0;
+        Track currentTrack = null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new AtomicFile(getPositionFile(context)).openRead()));
+            if(in.readInt() == VERSION){
+                queueIndex = in.readInt();
+                position = in.readLong();
+                currentTrack = in.readBoolean() ? readTrack(in) : null;
+            }
+        } catch (FileNotFoundException e) {
+            // only the queue was saved so far
+        } catch (IOException e) {
+            Log.e(TAG, "restorePosition: failed to read the playback position", e);
+        } finally {
+            if(in != null){
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+        if(queueIndex >= queue.size()){
+            queueIndex = -1;                                                                        // written for a queue that didn't make it to disk
+        }
+        return new SessionSnapshot(playlistId, category, artistImage, queue, queueIndex, position, currentTrack);
+    }
+
+    private void writeQueue(File target){
+        AtomicFile file = new AtomicFile(target);
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(VERSION);
+            writeString(out, mPlaylistId);
+            writeString(out, mCategory);
+            writeString(out, mArtistImage);
+            out.writeInt(mQueue.size());
+            for(Track track: mQueue){
+                writeTrack(out, track);
+            }
+            out.flush();
+            file.finishWrite(stream);                                                               // fsync + rename, a crash leaves the old snapshot
+        } catch (IOException e) {
+            Log.e(TAG, "writeQueue: failed to write session snapshot", e);
+            if(stream != null){
+                file.failWrite(stream);
+            }
+        }
+    }
+
+    // a few hundred bytes whatever the queue length, what the position checkpoints write
+    private void writePosition(File target){
+        AtomicFile file = new AtomicFile(target);
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(VERSION);
+            out.writeInt(mQueueIndex);
+            out.writeLong(mPosition);
+            out.writeBoolean(mCurrentTrack != null);
+            if(mCurrentTrack != null){
+                writeTrack(out, mCurrentTrack);
+            }
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            Log.e(TAG, "writePosition: failed to write the playback position", e);
+            if(stream != null){
+                file.failWrite(stream);
+            }
+        }
+    }
+
+    private static File getFile(Context context){
+        return new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+    }
+
+    private static File getPositionFile(Context context){
+        return new File(context.getApplicationContext().getFilesDir(), POSITION_FILE_NAME);
+    }
+
+    // same field order as the metadata keys written before Track existed, old snapshots still read
+    private static void writeTrack(DataOutputStream out, Track track) throws IOException {
+        writeString(out, track.getMediaId());
+        writeString(out, track.getArtist());
+        writeString(out, track.getTitle());
+        writeString(out, track.getMediaUri());
+        writeString(out, track.getDescription());
+        writeString(out, track.getDate());
+        writeString(out, track.getIconUri());
+    }
+
+    private static Track readTrack(DataInputStream in) throws IOException {
+        return new Track.Builder()
+                .setMediaId(readString(in))
+                .setArtist(readString(in))
+                .setTitle(readString(in))
+                .setMediaUri(readString(in))
+                .setDescription(readString(in))
+                .setDate(readString(in))
+                .setIconUri(readString(in))
+                .build();
+    }
+
+    // length prefixed UTF-8, -1 for null (writeUTF is limited to 64k and can't store null)
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if(value == null){
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if(length < 0){
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    public interface IRestoreCallback {
+        void onRestored(SessionSnapshot snapshot);
+    }
+}
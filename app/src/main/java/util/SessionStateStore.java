@@ -0,0 +1,308 @@
+package util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The small key/value state of the playback session (last playlist, category, artist, media,
+ * queue position), shared by the activity and MediaService.
+ *
+ * Reads come from memory. Writes are batched: one {@link Editor#commit()} per logical update,
+ * and commits that land within {@link #WRITE_BEHIND_MS} of each other are written to disk once,
+ * as one compact binary file. Every disk write goes through AtomicFile (fsync, then rename), so
+ * a crash leaves either the old or the new state, never a torn file. {@link #flush()} writes
+ * anything pending right away, for when the process may be about to go.
+ *
+ * Replaces the per-field SharedPreferences apply() calls, the old values are migrated once.
+ */
+public class SessionStateStore {
+
+    private static final String TAG = "SessionStateStore";
+
+    private static final String FILE_NAME = "session_state.bin";
+    private static final int VERSION = 1;
+    private static final long WRITE_BEHIND_MS = 500;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte TYPE_STRING = 0;
+    private static final byte TYPE_INT = 1;
+
+    // the keys MyPreferenceManager used to keep in the default SharedPreferences
+    private static final String[] MIGRATED_STRING_KEYS = {
+            Constants.PLAYLIST_ID, Constants.NOW_PLAYING, Constants.LAST_CATEGORY,
+            Constants.LAST_ARTIST, Constants.LAST_ARTIST_IMAGE
+    };
+    private static final String[] MIGRATED_INT_KEYS = {Constants.MEDIA_QUEUE_POSITION};
+
+    private static SessionStateStore instance;
+
+    private final AtomicFile mFile;
+    private final ScheduledExecutorService mWriteExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final HashMap<String, Object> mValues = new HashMap<>();                                // String or Integer
+    private final Object mWriteLock = new Object();                                                 // one disk write at a time, in snapshot order
+    private boolean mDirty;
+    private boolean mWriteScheduled;
+
+    // stats
+    private int mCommits;
+    private int mCommitsSinceWrite;
+    private int mWrites;
+    private long mBytesWritten;
+
+    public static synchronized SessionStateStore getInstance(Context context){
+        if(instance == null){
+            instance = new SessionStateStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SessionStateStore(Context context) {
+        mFile = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+        if(!read()){
+            migrate(PreferenceManager.getDefaultSharedPreferences(context));
+        }
+    }
+
+    public synchronized String getString(String key, String defaultValue){
+        Object value = mValues.get(key);
+        return value instanceof String ? (String) value : defaultValue;
+    }
+
+    public synchronized int getInt(String key, int defaultValue){
+        Object value = mValues.get(key);
+        return value instanceof Integer ? (Integer) value : defaultValue;
+    }
+
+    public Editor edit(){
+        return new Editor();
+    }
+
+    /**
+     * Blocking, writes pending changes now instead of after the write-behind delay.
+     */
+    public void flush(){
+        writeIfDirty();
+    }
+
+    public synchronized int getCommitCount(){
+        return mCommits;
+    }
+
+    public synchronized int getWriteCount(){
+        return mWrites;
+    }
+
+    public synchronized long getBytesWritten(){
+        return mBytesWritten;
+    }
+
+    private synchronized void apply(HashMap<String, Object> changes){
+        boolean changed = false;
+        for(Map.Entry<String, Object> change: changes.entrySet()){
+            Object previous = mValues.put(change.getKey(), change.getValue());
+            changed |= previous == null || !previous.equals(change.getValue());
+        }
+        mCommits++;
+        if(!changed){
+            return;                                                                                 // same values, nothing to write
+        }
+        mCommitsSinceWrite++;
+        mDirty = true;
+        if(!mWriteScheduled){
+            mWriteScheduled = true;
+            mWriteExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    writeIfDirty();
+                }
+            }, WRITE_BEHIND_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // flush() (main thread) and the scheduled write (mWriteExecutor) can race. The write lock is
+    // held from encode to rename, so two AtomicFile writes never overlap and an older snapshot
+    // can't land after a newer one. Commits only take the instance lock, they don't wait on disk.
+    private void writeIfDirty(){
+        synchronized (mWriteLock){
+            byte[] bytes;
+            int coalesced;
+            synchronized (this){
+                mWriteScheduled = false;
+                if(!mDirty){
+                    return;
+                }
+                mDirty = false;
+                coalesced = mCommitsSinceWrite;
+                mCommitsSinceWrite = 0;
+                bytes = encode(mValues);
+            }
+            if(write(bytes)){
+                synchronized (this){
+                    mWrites++;
+                    mBytesWritten += bytes.length;
+                    Log.d(TAG, "write " + mWrites + ": " + bytes.length + " bytes, " + coalesced + " commits, "
+                            + mCommits + " commits / " + mBytesWritten + " bytes in total");
+                }
+            }
+        }
+    }
+
+    private boolean write(byte[] bytes){
+        FileOutputStream stream = null;
+        try {
+            stream = mFile.startWrite();
+            stream.write(bytes);
+            mFile.finishWrite(stream);                                                              // fsync + rename
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "write: failed to write session state", e);
+            if(stream != null){
+                mFile.failWrite(stream);
+            }
+            return false;
+        }
+    }
+
+    // false when there's no state file yet
+    private boolean read(){
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(mFile.openRead());
+            if(in.readInt() != VERSION){
+                return false;
+            }
+            int count = in.readInt();
+            for(int i = 0; i < count; i++){
+                String key = readString(in);
+                byte type = in.readByte();
+                if(type == TYPE_INT){
+                    mValues.put(key, in.readInt());
+                }
+                else{
+                    mValues.put(key, readString(in));
+                }
+            }
+            return true;
+        } catch (FileNotFoundException e) {
+            return false;
+        } catch (IOException e) {
+            Log.e(TAG, "read: failed to read session state", e);
+            mValues.clear();
+            return false;
+        } finally {
+            if(in != null){
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+
+    private void migrate(SharedPreferences preferences){
+        SharedPreferences.Editor cleanup = preferences.edit();
+        boolean migrated = false;
+        for(String key: MIGRATED_STRING_KEYS){
+            if(preferences.contains(key)){
+                mValues.put(key, preferences.getString(key, ""));
+                cleanup.remove(key);
+                migrated = true;
+            }
+        }
+        for(String key: MIGRATED_INT_KEYS){
+            if(preferences.contains(key)){
+                mValues.put(key, preferences.getInt(key, -1));
+                cleanup.remove(key);
+                migrated = true;
+            }
+        }
+        if(migrated && write(encode(mValues))){
+            cleanup.apply();                                                                        // only once the new file is on disk
+            Log.d(TAG, "migrate: moved " + mValues.size() + " values out of SharedPreferences");
+        }
+    }
+
+    private static byte[] encode(HashMap<String, Object> values){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(VERSION);
+            out.writeInt(values.size());
+            for(Map.Entry<String, Object> entry: values.entrySet()){
+                writeString(out, entry.getKey());
+                if(entry.getValue() instanceof Integer){
+                    out.writeByte(TYPE_INT);
+                    out.writeInt((Integer) entry.getValue());
+                }
+                else{
+                    out.writeByte(TYPE_STRING);
+                    writeString(out, (String) entry.getValue());
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);                                                     // in memory, can't happen
+        }
+        return bytes.toByteArray();
+    }
+
+    // length prefixed UTF-8, -1 for null
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if(value == null){
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if(length < 0){
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * One logical update, all puts are applied together on {@link #commit()}.
+     */
+    public class Editor {
+
+        private final HashMap<String, Object> mChanges = new HashMap<>();
+
+        public Editor putString(String key, String value){
+            mChanges.put(key, value == null ? "" : value);
+            return this;
+        }
+
+        public Editor putInt(String key, int value){
+            mChanges.put(key, value);
+            return this;
+        }
+
+        public void commit(){
+            apply(mChanges);
+        }
+    }
+}
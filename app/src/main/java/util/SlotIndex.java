@@ -0,0 +1,151 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Slots for the items of a list that is only appended to, where removing an item leaves a hole
+ * rather than moving the ones after it. Owners keep their per-item data in arrays indexed by
+ * slot, sized to {@link #capacity()}.
+ *
+ * A Fenwick tree over the slots (1 = still in the list) turns a slot into a list position and
+ * back, O(log n) once items were removed and O(1) while there are no holes. Once the slots are
+ * mostly holes the owner compacts them, O(n) paid for by the removals that made them.
+ *
+ * Shared by {@link QueueOrder} and {@link SessionQueue}. Not thread safe.
+ */
+class SlotIndex {
+
+    static final int MIN_CAPACITY = 16;
+
+    private int mCapacity = MIN_CAPACITY;
+    private boolean[] mLive = new boolean[MIN_CAPACITY];
+    private int[] mTree = new int[MIN_CAPACITY + 1];                                                // Fenwick, 1-based, over the slots
+
+    private int mSlots;                                                                             // slots handed out, removed ones included
+    private int mSize;                                                                              // items in the list
+
+    /**
+     * Starts over with slots 0..size-1 all live.
+     */
+    void reset(int size) {
+        ensureCapacity(size);
+        Arrays.fill(mLive, false);
+        Arrays.fill(mLive, 0, size, true);
+        mSlots = size;
+        mSize = size;
+        buildTree();
+    }
+
+    /**
+     * Hands out the next slot, at the end of the list. The capacity doubles when it runs out.
+     */
+    int add() {
+        if (mSlots == mCapacity) {
+            ensureCapacity(mSlots * 2);
+        }
+        int slot = mSlots++;
+        mLive[slot] = true;
+        fenwickAdd(slot, 1);
+        mSize++;
+        return slot;
+    }
+
+    void remove(int slot) {
+        mLive[slot] = false;
+        fenwickAdd(slot, -1);
+        mSize--;
+    }
+
+    /**
+     * True once the slots are mostly holes.
+     */
+    boolean needsCompaction() {
+        return mSlots - mSize > Math.max(mSize, MIN_CAPACITY);
+    }
+
+    /**
+     * Moves the live slots down to 0..size-1, in list order. Returns the new slot of every old
+     * one, -1 for the removed ones, for the owner to move its data along (a new slot is never
+     * above the old one, so moving them in ascending order is safe).
+     */
+    int[] compact() {
+        int[] newSlot = new int[mSlots];
+        int slot = 0;
+        for (int old = 0; old < mSlots; old++) {
+            newSlot[old] = mLive[old] ? slot++ : -1;
+        }
+        reset(slot);
+        return newSlot;
+    }
+
+    int capacity() {
+        return mCapacity;
+    }
+
+    int slots() {
+        return mSlots;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    // list position of a live slot: the live slots before it
+    int positionOf(int slot) {
+        if (mSlots == mSize) {
+            return slot;                                                                            // no holes
+        }
+        int count = 0;
+        for (int i = slot; i > 0; i -= i & -i) {
+            count += mTree[i];
+        }
+        return count;
+    }
+
+    // slot at a list position, the Fenwick select
+    int slotAt(int position) {
+        if (mSlots == mSize) {
+            return position;
+        }
+        int index = 0;
+        int remaining = position + 1;
+        for (int bit = Integer.highestOneBit(mCapacity); bit > 0; bit >>= 1) {
+            int next = index + bit;
+            if (next <= mCapacity && mTree[next] < remaining) {
+                index = next;
+                remaining -= mTree[next];
+            }
+        }
+        return index;                                                                               // 1-based node after the prefix, so the 0-based slot
+    }
+
+    private void fenwickAdd(int slot, int delta) {
+        for (int i = slot + 1; i <= mCapacity; i += i & -i) {
+            mTree[i] += delta;
+        }
+    }
+
+    // O(n): every node passes its sum on to its parent
+    private void buildTree() {
+        Arrays.fill(mTree, 0);
+        for (int i = 1; i <= mCapacity; i++) {
+            if (mLive[i - 1]) {
+                mTree[i]++;
+            }
+            int parent = i + (i & -i);
+            if (parent <= mCapacity) {
+                mTree[parent] += mTree[i];
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mCapacity) {
+            return;
+        }
+        mCapacity = Math.max(capacity, mCapacity * 2);
+        mLive = Arrays.copyOf(mLive, mCapacity);
+        mTree = new int[mCapacity + 1];
+        buildTree();                                                                                // node ranges depend on the capacity
+    }
+}
@@ -0,0 +1,31 @@
+package util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical copies of strings that repeat across a catalog: artist names, image URLs, the
+ * folder part of media URLs. Every track of an artist then points at the same String instead
+ * of carrying its own copy.
+ *
+ * Entries are never dropped, so only pool low-cardinality values (never titles or ids).
+ * Thread safe. Kept free of Android types so it can be exercised from plain JVM unit tests.
+ */
+public final class StringPool {
+
+    private static final ConcurrentHashMap<String, String> sPool = new ConcurrentHashMap<>();
+
+    private StringPool() {
+    }
+
+    public static String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String pooled = sPool.putIfAbsent(value, value);
+        return pooled == null ? value : pooled;
+    }
+
+    public static int size() {
+        return sPool.size();
+    }
+}
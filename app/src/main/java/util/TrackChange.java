@@ -0,0 +1,61 @@
+package util;
+
+/**
+ * One delta of a live playlist, the Android free equivalent of a fireStore DocumentChange.
+ * Indexes are -1 where they don't apply (no old index for ADDED, no new index for REMOVED).
+ */
+public final class TrackChange<T> {
+
+    public enum Type {ADDED, MODIFIED, REMOVED}
+
+    private final Type mType;
+    private final String mId;
+    private final T mItem;                                                                          // null for REMOVED
+    private final int mOldIndex;
+    private final int mNewIndex;
+
+    public TrackChange(Type type, String id, T item, int oldIndex, int newIndex) {
+        mType = type;
+        mId = id;
+        mItem = item;
+        mOldIndex = oldIndex;
+        mNewIndex = newIndex;
+    }
+
+    public static <T> TrackChange<T> added(String id, T item, int newIndex) {
+        return new TrackChange<>(Type.ADDED, id, item, -1, newIndex);
+    }
+
+    public static <T> TrackChange<T> modified(String id, T item, int oldIndex, int newIndex) {
+        return new TrackChange<>(Type.MODIFIED, id, item, oldIndex, newIndex);
+    }
+
+    public static <T> TrackChange<T> removed(String id, int oldIndex) {
+        return new TrackChange<>(Type.REMOVED, id, null, oldIndex, -1);
+    }
+
+    public Type getType() {
+        return mType;
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    public T getItem() {
+        return mItem;
+    }
+
+    public int getOldIndex() {
+        return mOldIndex;
+    }
+
+    public int getNewIndex() {
+        return mNewIndex;
+    }
+
+    @Override
+    public String toString() {
+        return mType + " " + mId + " " + mOldIndex + "->" + mNewIndex;
+    }
+}
@@ -0,0 +1,92 @@
+package util;
+
+import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.MediaDescriptionCompat;
+import android.support.v4.media.MediaMetadataCompat;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import Models.Track;
+
+/**
+ * The boundary between the app's catalog ({@link Track}) and the media session / browser IPC,
+ * which only speak MediaMetadataCompat and MediaItem. Convert as late as possible, one page or
+ * one track at a time.
+ */
+public final class TrackConverter {
+
+    private TrackConverter() {
+    }
+
+    public static MediaMetadataCompat toMetadata(Track track){
+        if(track == null){
+            return null;
+        }
+        MediaMetadataCompat.Builder builder = new MediaMetadataCompat.Builder();
+        putIfSet(builder, MediaMetadataCompat.METADATA_KEY_MEDIA_ID, track.getMediaId());
+        putIfSet(builder, MediaMetadataCompat.METADATA_KEY_ARTIST, track.getArtist());
+        putIfSet(builder, MediaMetadataCompat.METADATA_KEY_TITLE, track.getTitle());
+        putIfSet(builder, MediaMetadataCompat.METADATA_KEY_MEDIA_URI, track.getMediaUri());
+        putIfSet(builder, MediaMetadataCompat.METADATA_KEY_DISPLAY_DESCRIPTION, track.getDescription());
+        putIfSet(builder, MediaMetadataCompat.METADATA_KEY_DATE, track.getDate());
+        putIfSet(builder, MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON_URI, track.getIconUri());
+        return builder.build();
+    }
+
+    public static List<MediaMetadataCompat> toMetadata(List<Track> tracks){
+        List<MediaMetadataCompat> result = new ArrayList<>(tracks.size());
+        for(Track track: tracks){
+            result.add(toMetadata(track));
+        }
+        return result;
+    }
+
+    public static Track fromMetadata(MediaMetadataCompat media){
+        if(media == null){
+            return null;
+        }
+        return new Track.Builder()
+                .setMediaId(media.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID))
+                .setArtist(media.getString(MediaMetadataCompat.METADATA_KEY_ARTIST))
+                .setTitle(media.getString(MediaMetadataCompat.METADATA_KEY_TITLE))
+                .setMediaUri(media.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI))
+                .setDescription(media.getString(MediaMetadataCompat.METADATA_KEY_DISPLAY_DESCRIPTION))
+                .setDate(media.getString(MediaMetadataCompat.METADATA_KEY_DATE))
+                .setIconUri(media.getString(MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON_URI))
+                .build();
+    }
+
+    /**
+     * What MediaMetadataCompat.getDescription() gives for the same track, without the metadata.
+     */
+    public static MediaBrowserCompat.MediaItem toMediaItem(Track track){
+        MediaDescriptionCompat.Builder description = new MediaDescriptionCompat.Builder()
+                .setMediaId(track.getMediaId())
+                .setTitle(track.getTitle())
+                .setSubtitle(track.getArtist())
+                .setDescription(track.getDescription());
+        if(!TextUtils.isEmpty(track.getIconUri())){
+            description.setIconUri(android.net.Uri.parse(track.getIconUri()));
+        }
+        if(!TextUtils.isEmpty(track.getMediaUri())){
+            description.setMediaUri(android.net.Uri.parse(track.getMediaUri()));
+        }
+        return new MediaBrowserCompat.MediaItem(description.build(), MediaBrowserCompat.MediaItem.FLAG_PLAYABLE);
+    }
+
+    public static List<MediaBrowserCompat.MediaItem> toMediaItems(List<Track> tracks){
+        List<MediaBrowserCompat.MediaItem> result = new ArrayList<>(tracks.size());
+        for(Track track: tracks){
+            result.add(toMediaItem(track));
+        }
+        return result;
+    }
+
+    private static void putIfSet(MediaMetadataCompat.Builder builder, String key, String value){
+        if(value != null){
+            builder.putString(key, value);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package Models;
+
+import org.junit.Test;
+
+import util.StringPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link Track}. Its heap footprint against the Bundle layout of a MediaMetadataCompat
+ * is measured by the benchmark module's TrackFootprint.
+ */
+public class TrackTest {
+
+    private static final int ARTISTS = 50;
+
+    @Test
+    public void build_roundTripsEveryField() {
+        Track track = track(7);
+
+        assertEquals("media_7", track.getMediaId());
+        assertEquals("Episode 7", track.getTitle());
+        assertEquals("Artist 7", track.getArtist());
+        assertEquals("https://content.example.com/artist_7/episode_7.mp3", track.getMediaUri());
+        assertEquals("Description of episode 7", track.getDescription());
+        assertEquals("Mon Jan 08 10:00:00 GMT 2019", track.getDate());
+        assertEquals("https://images.example.com/artist_7.png", track.getIconUri());
+        assertEquals(track, track(7));
+        assertFalse(track.equals(track(8)));
+    }
+
+    @Test
+    public void build_keepsUrisWithoutAFolder() {
+        Track track = new Track.Builder().setMediaId("1").setMediaUri("episode.mp3").build();
+        assertEquals("episode.mp3", track.getMediaUri());
+        assertNull(new Track.Builder().setMediaId("2").build().getMediaUri());
+    }
+
+    @Test
+    public void repeatedValues_shareOneInstance() {
+        Track a = track(3);
+        Track b = track(3 + ARTISTS);                                                               // same artist, another episode
+
+        assertSame(a.getArtist(), b.getArtist());
+        assertSame(a.getIconUri(), b.getIconUri());
+        assertFalse(a.getTitle() == b.getTitle());                                                  // titles are never pooled
+        assertSame(StringPool.intern(new String("Artist 3")), a.getArtist());
+    }
+
+    // fresh strings every time, like values read from a document or a cursor
+    private static Track track(int i) {
+        int artist = i % ARTISTS;
+        return new Track.Builder()
+                .setMediaId(new String("media_" + i))
+                .setArtist(new String("Artist " + artist))
+                .setTitle(new String("Episode " + i))
+                .setMediaUri(new String("https://content.example.com/artist_" + artist + "/episode_" + i + ".mp3"))
+                .setDescription(new String("Description of episode " + i))
+                .setDate(new String("Mon Jan 0" + (i % 9 + 1) + " 10:00:00 GMT 2019"))
+                .setIconUri(new String("https://images.example.com/artist_" + artist + ".png"))
+                .build();
+    }
+}
@@ -0,0 +1,136 @@
+package Players;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link PlaybackClock} on a virtual clock. The old startTrackingPlayback() added a
+ * ticker per playFromMedia() call, these check the tick rate doesn't grow with skips.
+ */
+public class PlaybackClockTest {
+
+    private FakeScheduler mScheduler;
+    private PlaybackClock mClock;
+    private int mTicks;
+
+    @Before
+    public void setUp() {
+        mScheduler = new FakeScheduler();
+        mTicks = 0;
+        mClock = new PlaybackClock(mScheduler, new PlaybackClock.Listener() {
+            @Override
+            public void onTick() {
+                mTicks++;
+            }
+        });
+        mClock.setUiAttached(true);
+    }
+
+    @Test
+    public void tickRate_staysConstantAcross1000Skips() {
+        mClock.start();
+        mScheduler.advance(60_000);
+        int ticksBefore = mTicks;
+
+        // a skip publishes PLAYING again (start) and sometimes goes through a pause (stop + start)
+        for (int i = 0; i < 1000; i++) {
+            if (i % 2 == 0) {
+                mClock.stop();
+            }
+            mClock.start();
+            mScheduler.advance(10);
+        }
+        assertEquals(1, mScheduler.pending());
+
+        mTicks = 0;
+        mScheduler.advance(60_000);
+        assertEquals(ticksBefore, mTicks);
+        assertEquals(60_000 / PlaybackClock.UI_INTERVAL_MS, mTicks);
+        assertEquals(1, mScheduler.pending());
+    }
+
+    @Test
+    public void stop_cancelsThePendingTick() {
+        mClock.start();
+        mClock.stop();
+        mScheduler.advance(60_000);
+
+        assertEquals(0, mTicks);
+        assertEquals(0, mScheduler.pending());
+        assertFalse(mClock.isRunning());
+    }
+
+    @Test
+    public void withoutUi_clockThrottles() {
+        mClock.start();
+        mClock.setUiAttached(false);
+        mScheduler.advance(300_000);
+
+        assertEquals(300_000 / PlaybackClock.BACKGROUND_INTERVAL_MS, mTicks);
+
+        mClock.setUiAttached(true);
+        mTicks = 0;
+        mScheduler.advance(60_000);
+        assertEquals(60_000 / PlaybackClock.UI_INTERVAL_MS, mTicks);
+        assertEquals(1, mScheduler.pending());
+    }
+
+    @Test
+    public void setUiAttached_whileStopped_doesNotSchedule() {
+        mClock.setUiAttached(false);
+        mClock.setUiAttached(true);
+
+        assertEquals(0, mScheduler.pending());
+    }
+
+    // single threaded stand-in for a Handler, time only moves in advance()
+    private static class FakeScheduler implements PlaybackClock.Scheduler {
+
+        private final List<Runnable> mRunnables = new ArrayList<>();
+        private final List<Long> mDueTimes = new ArrayList<>();
+        private long mNow;
+
+        @Override
+        public void postDelayed(Runnable runnable, long delayMillis) {
+            mRunnables.add(runnable);
+            mDueTimes.add(mNow + delayMillis);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable runnable) {
+            for (int i = mRunnables.size() - 1; i >= 0; i--) {
+                if (mRunnables.get(i) == runnable) {
+                    mRunnables.remove(i);
+                    mDueTimes.remove(i);
+                }
+            }
+        }
+
+        int pending() {
+            return mRunnables.size();
+        }
+
+        void advance(long millis) {
+            long end = mNow + millis;
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < mDueTimes.size(); i++) {
+                    if (mDueTimes.get(i) <= end && (next == -1 || mDueTimes.get(i) < mDueTimes.get(next))) {
+                        next = i;
+                    }
+                }
+                if (next == -1) {
+                    break;
+                }
+                mNow = mDueTimes.remove(next);
+                mRunnables.remove(next).run();
+            }
+            mNow = end;
+        }
+    }
+}
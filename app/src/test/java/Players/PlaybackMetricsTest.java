@@ -0,0 +1,139 @@
+package Players;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link PlaybackMetrics} on a virtual clock, driven the way the session commands and
+ * the ExoPlayer states drive it.
+ */
+public class PlaybackMetricsTest {
+
+    private long mNow;
+    private PlaybackMetrics mMetrics;
+
+    @Before
+    public void setUp() {
+        mNow = 1_000;
+        mMetrics = new PlaybackMetrics(new PlaybackMetrics.Clock() {
+            @Override
+            public long now() {
+                return mNow;
+            }
+        });
+    }
+
+    @Test
+    public void playThenSkip_goToTheirOwnHistograms() {
+        mMetrics.onPlayRequested();
+        mNow += 300;
+        mMetrics.onBuffering();                                                                     // loading the first track isn't a rebuffer
+        mNow += 400;
+        mMetrics.onReady(true);
+
+        mNow += 60_000;
+        mMetrics.onSkipRequested();
+        mMetrics.onPlayRequested();                                                                 // onSkipToNext calls onPlay, the skip keeps timing
+        mNow += 5;
+        mMetrics.onBuffering();
+        mNow += 80;
+        mMetrics.onReady(true);
+
+        mNow += 1_000;
+        mMetrics.onPlayRequested();                                                                 // another track picked while one plays
+        mNow += 120;
+        mMetrics.onReady(true);
+
+        assertEquals(1, histogram("time_to_first_audio").getCount());
+        assertEquals(700, histogram("time_to_first_audio").getMax());
+        assertEquals(2, histogram("skip_to_audio").getCount());
+        assertEquals(100, histogram("skip_to_audio").getPercentile(50));                           // 85ms, reported as its bucket's bound
+        assertEquals(120, histogram("skip_to_audio").getMax());
+        assertEquals(0, mMetrics.getRebufferCount());
+    }
+
+    @Test
+    public void stallsWhilePlaying_areRebuffersButSeeksAreNot() {
+        mMetrics.onPlayRequested();
+        mMetrics.onReady(true);
+
+        mNow += 10_000;
+        mMetrics.onBuffering();
+        mNow += 1_500;
+        mMetrics.onReady(true);
+
+        mNow += 10_000;
+        mMetrics.onSeekRequested();
+        mNow += 10;
+        mMetrics.onBuffering();
+        mNow += 200;
+        mMetrics.onReady(true);
+
+        mNow += 10_000;
+        mMetrics.onBuffering();
+        mNow += 300;
+        mMetrics.onPlaybackHalted();                                                                // paused mid stall, it still counts
+
+        assertEquals(2, mMetrics.getRebufferCount());
+        assertEquals(1_800, histogram("rebuffer").getTotal());
+        assertEquals(1, histogram("seek").getCount());
+        assertEquals(210, histogram("seek").getMax());
+    }
+
+    @Test
+    public void abandonedRequests_recordNothing() {
+        mMetrics.onPlayRequested();
+        mNow += 5_000;
+        mMetrics.onPlaybackHalted();                                                                // paused before it ever played
+        mNow += 60_000;
+        mMetrics.onReady(true);
+
+        mMetrics.onSkipRequested();
+        mMetrics.onRequestIgnored();                                                                // gapless, already on that track
+        mNow += 60_000;
+        mMetrics.onBuffering();
+        mMetrics.onReady(true);
+
+        assertEquals(0, histogram("time_to_first_audio").getCount());
+        assertEquals(0, histogram("skip_to_audio").getCount());
+        assertEquals(1, mMetrics.getRebufferCount());
+    }
+
+    @Test
+    public void histogram_percentilesComeFromBuckets() {
+        PlaybackMetrics.Histogram histogram = new PlaybackMetrics.Histogram("test");
+        assertEquals(0, histogram.getPercentile(99));
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 10);                                                               // 10..1000ms
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(505, histogram.getMean());
+        assertEquals(500, histogram.getPercentile(50));
+        assertEquals(1_000, histogram.getPercentile(90));
+        assertEquals(1_000, histogram.getPercentile(100));
+        histogram.record(45_000);
+        assertEquals(45_000, histogram.getPercentile(100));                                         // past the last bound, the max
+
+        long total = 0;
+        for (long count : histogram.getBucketCounts()) {
+            total += count;
+        }
+        assertEquals(101, total);
+
+        mMetrics.onPlayRequested();
+        mMetrics.onReady(true);
+        mMetrics.reset();
+        assertEquals(0, histogram("time_to_first_audio").getCount());
+    }
+
+    private PlaybackMetrics.Histogram histogram(String name) {
+        for (PlaybackMetrics.Histogram histogram : mMetrics.getHistograms()) {
+            if (histogram.getName().equals(name)) {
+                return histogram;
+            }
+        }
+        throw new AssertionError(name);
+    }
+}
@@ -0,0 +1,123 @@
+package services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ArtworkLoader}. The delivery executor stands in for the main looper, it's
+ * only drained once the worker is idle, like a busy main thread during a burst of skips.
+ */
+public class ArtworkLoaderTest {
+
+    private ExecutorService mWorker;
+    private Queue<Runnable> mMainQueue;
+    private ArtworkLoader<String> mLoader;
+    private List<String> mNotifications;                                                           // artwork of every notification posted
+
+    @Before
+    public void setUp() {
+        mWorker = Executors.newSingleThreadExecutor();
+        mMainQueue = new ArrayDeque<>();
+        mNotifications = new ArrayList<>();
+        mLoader = new ArtworkLoader<>(new ArtworkLoader.Fetcher<String>() {
+            @Override
+            public String fetch(String uri) {
+                try {
+                    Thread.sleep(2);                                                                // a download
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+                return "bitmap:" + uri;
+            }
+        }, mWorker, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                synchronized (mMainQueue) {
+                    mMainQueue.add(command);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void hundredRapidSkips_postOneNotificationWithTheLastArtwork() throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            mLoader.load("artwork_" + i, new ArtworkLoader.Callback<String>() {
+                @Override
+                public void onArtworkLoaded(String uri, String artwork) {
+                    assertEquals("bitmap:" + uri, artwork);
+                    mNotifications.add(artwork);
+                }
+            });
+        }
+        drain();
+
+        assertEquals(1, mNotifications.size());
+        assertEquals("bitmap:artwork_99", mNotifications.get(0));
+        assertEquals(100, mLoader.getRequestedCount());
+        assertEquals(1, mLoader.getDeliveredCount());
+    }
+
+    @Test
+    public void slowSkips_deliverEveryTrack() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            mLoader.load("artwork_" + i, new ArtworkLoader.Callback<String>() {
+                @Override
+                public void onArtworkLoaded(String uri, String artwork) {
+                    mNotifications.add(artwork);
+                }
+            });
+            Thread.sleep(50);
+            runMainQueue();
+        }
+        drain();
+
+        assertEquals(3, mNotifications.size());
+        assertEquals("bitmap:artwork_2", mNotifications.get(2));
+    }
+
+    @Test
+    public void cancel_dropsTheResult() throws InterruptedException {
+        mLoader.load("artwork_0", new ArtworkLoader.Callback<String>() {
+            @Override
+            public void onArtworkLoaded(String uri, String artwork) {
+                mNotifications.add(artwork);
+            }
+        });
+        mLoader.cancel();
+        drain();
+
+        assertTrue(mNotifications.isEmpty());
+    }
+
+    private void drain() throws InterruptedException {
+        mWorker.shutdown();
+        assertTrue(mWorker.awaitTermination(5, TimeUnit.SECONDS));
+        runMainQueue();
+    }
+
+    private void runMainQueue() {
+        while (true) {
+            Runnable next;
+            synchronized (mMainQueue) {
+                next = mMainQueue.poll();
+            }
+            if (next == null) {
+                return;
+            }
+            next.run();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link CatalogIndex}. CatalogBenchmark times it against the nested-loop scan
+ * that MediaLibrary.getPlaylistMedia used before.
+ */
+public class CatalogIndexTest {
+
+    @Test
+    public void resolve_keepsRequestedOrderAndSkipsUnknownIds() {
+        CatalogIndex<String> index = new CatalogIndex<>();
+        index.put("1", "artist_a", "Podcasts", "one");
+        index.put("2", "artist_a", "Podcasts", "two");
+        index.put("3", "artist_b", "Music", "three");
+
+        List<String> result = index.resolve(Arrays.asList("3", "missing", "1", "2"));
+
+        assertEquals(Arrays.asList("three", "one", "two"), result);
+    }
+
+    @Test
+    public void secondaryIndexes_groupByArtistAndCategory() {
+        CatalogIndex<String> index = new CatalogIndex<>();
+        index.put("1", "artist_a", "Podcasts", "one");
+        index.put("2", "artist_b", "Podcasts", "two");
+        index.put("3", "artist_a", null, "three");
+
+        assertEquals(Arrays.asList("one", "three"), index.getByArtist("artist_a"));
+        assertEquals(Arrays.asList("one", "two"), index.getByCategory("Podcasts"));
+        assertTrue(index.getByArtist("nobody").isEmpty());
+    }
+
+    @Test
+    public void put_replacesItemInEverySecondaryIndex() {
+        CatalogIndex<String> index = new CatalogIndex<>();
+        index.put("1", "artist_a", "Podcasts", "one");
+        index.put("1", "artist_b", "Music", "one (moved)");
+
+        assertEquals(1, index.size());
+        assertEquals("one (moved)", index.get("1"));
+        assertTrue(index.getByArtist("artist_a").isEmpty());
+        assertTrue(index.getByCategory("Podcasts").isEmpty());
+        assertEquals(Arrays.asList("one (moved)"), index.getByArtist("artist_b"));
+
+        assertEquals("one (moved)", index.remove("1"));
+        assertNull(index.get("1"));
+        assertTrue(index.getByCategory("Music").isEmpty());
+    }
+}
@@ -0,0 +1,177 @@
+package util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link LivePlaylist} against a scripted repository. Every batch the observer gets is
+ * replayed on a mirror list, the way CategoryFragment replays them on its adapter, and the
+ * mirror has to end up equal to the playlist.
+ */
+public class LivePlaylistTest {
+
+    private FakeRepository mRepository;
+    private LivePlaylist<String> mPlaylist;
+    private List<String> mMirror;
+    private int mBatches;
+    private List<TrackChange<String>> mLastApplied;
+
+    @Before
+    public void setUp() {
+        mRepository = new FakeRepository();
+        mPlaylist = new LivePlaylist<>(mRepository, new LivePlaylist.IItemKey<String>() {
+            @Override
+            public String getId(String item) {
+                return item.split(":")[0];                                                          // items are "id:version"
+            }
+        });
+        mMirror = new ArrayList<>();
+        mBatches = 0;
+        mPlaylist.setObserver(new LivePlaylist.IObserver<String>() {
+            @Override
+            public void onChanged(List<TrackChange<String>> applied, boolean fullBatch) {
+                mBatches++;
+                mLastApplied = applied;
+                for (TrackChange<String> change : applied) {
+                    switch (change.getType()) {
+                        case ADDED:
+                            mMirror.add(change.getNewIndex(), change.getItem());
+                            break;
+                        case MODIFIED:
+                            mMirror.add(change.getNewIndex(), mMirror.remove(change.getOldIndex()));
+                            mMirror.set(change.getNewIndex(), change.getItem());
+                            break;
+                        case REMOVED:
+                            mMirror.remove(change.getOldIndex());
+                            break;
+                    }
+                }
+            }
+
+            @Override
+            public void onSyncFailed(Exception e) {
+                fail(e.toString());
+            }
+        });
+    }
+
+    @Test
+    public void deltas_areAppliedIncrementally() {
+        mPlaylist.start();
+        mRepository.emit(TrackChange.added("a", "a:1", 0), TrackChange.added("b", "b:1", 1));
+        mRepository.emit(TrackChange.added("c", "c:1", 1));                                        // a c b
+        mRepository.emit(TrackChange.modified("a", "a:2", 0, 2));                                  // c b a
+        mRepository.emit(TrackChange.<String>removed("b", 1));                                     // c a
+
+        assertEquals(Arrays.asList("c:1", "a:2"), mPlaylist.getItems());
+        assertEquals(mPlaylist.getItems(), mMirror);
+        assertEquals(4, mBatches);
+        assertEquals(1, mPlaylist.indexOf("a"));
+    }
+
+    @Test
+    public void stop_unsubscribesAndIgnoresLateBatches() {
+        mPlaylist.start();
+        mRepository.emit(TrackChange.added("a", "a:1", 0));
+        mPlaylist.stop();
+
+        assertFalse(mRepository.hasListener());
+        mRepository.emitToRemoved(TrackChange.added("b", "b:1", 1));                               // raced the remove()
+
+        assertEquals(Arrays.asList("a:1"), mPlaylist.getItems());
+        assertEquals(1, mBatches);
+    }
+
+    @Test
+    public void restart_reconcilesChangesMissedWhileHidden() {
+        mPlaylist.seed(Arrays.asList("a:1", "b:1", "c:1"));
+        mMirror.addAll(mPlaylist.getItems());
+
+        // hidden: b was deleted and d added, the first batch after start is the full playlist
+        mPlaylist.start();
+        mRepository.emit(TrackChange.added("a", "a:1", 0), TrackChange.added("c", "c:2", 1),
+                TrackChange.added("d", "d:1", 2));
+
+        assertEquals(Arrays.asList("a:1", "c:2", "d:1"), mPlaylist.getItems());
+        assertEquals(mPlaylist.getItems(), mMirror);
+
+        mPlaylist.stop();
+        mPlaylist.start();
+        mRepository.emit();                                                                         // playlist emptied
+        assertTrue(mPlaylist.getItems().isEmpty());
+        assertTrue(mMirror.isEmpty());
+    }
+
+    @Test
+    public void identicalFullBatch_reportsNoChanges() {
+        mPlaylist.start();
+        mRepository.emit(TrackChange.added("a", "a:1", 0), TrackChange.added("b", "b:1", 1));
+        assertEquals(2, mLastApplied.size());
+
+        // shown again: the listener replays the same snapshot
+        mPlaylist.stop();
+        mPlaylist.start();
+        mRepository.emit(TrackChange.added("a", "a:1", 0), TrackChange.added("b", "b:1", 1));
+
+        assertEquals(2, mBatches);                                                                  // a full batch is still reported
+        assertTrue(mLastApplied.isEmpty());
+        assertEquals(Arrays.asList("a:1", "b:1"), mMirror);
+
+        mRepository.emit(TrackChange.modified("b", "b:1", 1, 0));                                   // moved, same item
+        assertEquals(1, mLastApplied.size());
+        assertEquals(Arrays.asList("b:1", "a:1"), mMirror);
+    }
+
+    @Test
+    public void start_isIdempotent() {
+        mPlaylist.start();
+        mPlaylist.start();
+
+        assertEquals(1, mRepository.getListenCount());
+    }
+
+    // emits scripted batches to whoever listens, synchronously like a main thread callback
+    private static class FakeRepository implements PlaylistRepository<String> {
+
+        private IChangeListener<String> mListener;
+        private IChangeListener<String> mRemovedListener;
+        private int mListenCount;
+
+        @Override
+        public Registration listen(final IChangeListener<String> listener) {
+            mListener = listener;
+            mListenCount++;
+            return new Registration() {
+                @Override
+                public void remove() {
+                    mRemovedListener = mListener;
+                    mListener = null;
+                }
+            };
+        }
+
+        @SafeVarargs
+        final void emit(TrackChange<String>... changes) {
+            mListener.onChanges(Arrays.asList(changes));
+        }
+
+        @SafeVarargs
+        final void emitToRemoved(TrackChange<String>... changes) {
+            mRemovedListener.onChanges(Arrays.asList(changes));
+        }
+
+        boolean hasListener() {
+            return mListener != null;
+        }
+
+        int getListenCount() {
+            return mListenCount;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link MediaIdIndex}, checked against the linear scan that
+ * PlaylistRecyclerAdapter.getIndexOfItem used before.
+ */
+public class MediaIdIndexTest {
+
+    private static final int PLAYLIST_SIZE = 10_000;
+    private static final int LOOKUPS = 1_000;
+
+    @Test
+    public void mutations_keepPositionsInSync() {
+        MediaIdIndex index = new MediaIdIndex();
+        index.set(Arrays.asList("a", "b", "c", "d"));
+
+        index.insert(1, "x");                                                                       // a x b c d
+        assertEquals(1, index.indexOf("x"));
+        assertEquals(4, index.indexOf("d"));
+
+        assertEquals("b", index.remove(2));                                                         // a x c d
+        assertEquals(-1, index.indexOf("b"));
+        assertEquals(2, index.indexOf("c"));
+
+        index.move(0, 3);                                                                           // x c d a
+        assertEquals(3, index.indexOf("a"));
+        assertEquals(0, index.indexOf("x"));
+        assertEquals(2, index.indexOf("d"));
+
+        index.add("e");
+        assertEquals(4, index.indexOf("e"));
+        assertEquals(-1, index.indexOf(null));
+        assertEquals(5, index.size());
+    }
+
+    @Test
+    public void duplicates_resolveToTheFirstCopy() {
+        MediaIdIndex index = new MediaIdIndex();
+        index.set(Arrays.asList("a", "b", "a"));
+        assertEquals(0, index.indexOf("a"));
+
+        index.remove(0);                                                                            // b a
+        assertEquals(1, index.indexOf("a"));
+        assertEquals(0, index.indexOf("b"));
+    }
+
+    @Test
+    public void randomMutations_matchALinearScan() {
+        Random random = new Random(42);
+        MediaIdIndex index = new MediaIdIndex();
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            int op = random.nextInt(3);
+            if (op == 0 || list.isEmpty()) {
+                String id = "media_" + random.nextInt(300);
+                int position = random.nextInt(list.size() + 1);
+                list.add(position, id);
+                index.insert(position, id);
+            } else if (op == 1) {
+                int position = random.nextInt(list.size());
+                assertEquals(list.remove(position), index.remove(position));
+            } else {
+                int from = random.nextInt(list.size());
+                int to = random.nextInt(list.size());
+                list.add(to, list.remove(from));
+                index.move(from, to);
+            }
+            String probe = "media_" + random.nextInt(300);
+            assertEquals(list.indexOf(probe), index.indexOf(probe));
+        }
+    }
+
+    @Test
+    public void largePlaylist_matchesALinearScan() {
+        List<String> ids = new ArrayList<>(PLAYLIST_SIZE);
+        for (int i = 0; i < PLAYLIST_SIZE; i++) {
+            ids.add("media_" + i);
+        }
+        MediaIdIndex index = new MediaIdIndex();
+        index.set(ids);
+
+        // what updateUI() asks for: the now playing id, anywhere in the list
+        Random random = new Random(PLAYLIST_SIZE);
+        for (int i = 0; i < LOOKUPS; i++) {
+            String probe = ids.get(random.nextInt(PLAYLIST_SIZE));
+            assertEquals(linearScan(ids, probe), index.indexOf(probe));
+        }
+        assertEquals(-1, index.indexOf("media_" + PLAYLIST_SIZE));
+    }
+
+    // the previous getIndexOfItem
+    private static int linearScan(List<String> ids, String mediaId) {
+        for (int i = 0; i < ids.size(); i++) {
+            if (ids.get(i).equals(mediaId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
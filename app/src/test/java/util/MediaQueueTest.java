@@ -0,0 +1,60 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import Models.Track;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link MediaQueue}: the queue, its pinning in the metadata cache and the search index.
+ */
+public class MediaQueueTest {
+
+    @Test
+    public void setMediaItems_pinsTheNewQueueAndUnpinsTheOldOne() {
+        MediaQueue queue = new MediaQueue(1024 * 1024);
+        queue.setMediaItems(Arrays.asList(track("a"), track("b")));
+        queue.setMediaItems(Arrays.asList(track("c")));
+
+        assertEquals(1, queue.size());
+        assertEquals("c", queue.getQueue().get(0).getMediaId());
+        assertTrue(queue.getMetadataCache().isPinned("c"));
+        assertFalse(queue.getMetadataCache().isPinned("a"));
+        assertEquals("a", queue.getTrack("a").getMediaId());                                        // still cached, only unpinned
+        assertEquals(1, queue.getSearchIndex().search("title a", 10).size());                       // and still searchable
+    }
+
+    @Test
+    public void setMediaItems_keepsItsOwnCopyOfTheQueue() {
+        MediaQueue queue = new MediaQueue(1024 * 1024);
+        List<Track> tracks = new ArrayList<>(Arrays.asList(track("a"), track("b"), track("c")));
+        queue.setMediaItems(tracks);
+        tracks.clear();
+
+        assertEquals(3, queue.size());
+        assertEquals(Arrays.asList(track("b"), track("c")), queue.getQueue(1, 10));
+        assertTrue(queue.getQueue(5, 10).isEmpty());                                                // a page past the end
+    }
+
+    @Test
+    public void pinnedQueue_survivesAZeroBudget() {
+        MediaQueue queue = new MediaQueue(0);
+        queue.setMediaItems(Arrays.asList(track("a"), track("b")));
+
+        assertNotNull(queue.getTrack("a"));
+        assertNotNull(queue.getTrack("b"));
+    }
+
+    private static Track track(String id) {
+        return new Track.Builder()
+                .setMediaId(id)
+                .setTitle("Title " + id)
+                .setArtist("Artist")
+                .build();
+    }
+}
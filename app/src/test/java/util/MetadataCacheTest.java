@@ -0,0 +1,114 @@
+package util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link MetadataCache}, values are strings sized by their length.
+ */
+public class MetadataCacheTest {
+
+    private MetadataCache<String> mCache;
+
+    @Before
+    public void setUp() {
+        mCache = new MetadataCache<>(100, new MetadataCache.ISizer<String>() {
+            @Override
+            public long sizeOf(String value) {
+                return value.length();
+            }
+        });
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed_byBytes() {
+        mCache.put("a", repeat(40));
+        mCache.put("b", repeat(40));
+        mCache.get("a");                                                                            // b is now the eldest
+        mCache.put("c", repeat(40));
+
+        assertNull(mCache.get("b"));
+        assertNotNull(mCache.get("a"));
+        assertNotNull(mCache.get("c"));
+        assertEquals(80, mCache.getSizeBytes());
+        assertEquals(1, mCache.getEvictionCount());
+    }
+
+    @Test
+    public void pinnedItems_surviveEvictionAndTrim() {
+        mCache.put("queue_1", repeat(40));
+        mCache.put("queue_2", repeat(40));
+        mCache.setPinned(Arrays.asList("queue_1", "queue_2"));
+        mCache.put("other", repeat(40));
+
+        assertNull(mCache.get("other"));
+        mCache.trimToSize(0);                                                                       // onTrimMemory(COMPLETE)
+        assertNotNull(mCache.get("queue_1"));
+        assertNotNull(mCache.get("queue_2"));
+        assertEquals(80, mCache.getSizeBytes());
+
+        mCache.setPinned(Collections.<String>emptyList());                                         // new queue elsewhere
+        mCache.trimToSize(40);
+        assertEquals(1, mCache.getCount());
+    }
+
+    @Test
+    public void pinnedQueueFarOverTheBudget_staysCachedAndOnlyEvictsUnpinned() {
+        int queueSize = 50000;                                                                      // 2 MB against 100 bytes, minutes with a quadratic eviction
+        List<String> queue = new ArrayList<>(queueSize);
+        for (int i = 0; i < queueSize; i++) {
+            queue.add("queue_" + i);
+        }
+        mCache.put("other_1", repeat(40));
+        mCache.put("other_2", repeat(40));
+
+        mCache.setPinned(queue);                                                                    // pin first, like MyApplication.setMediaItems
+        for (String id : queue) {
+            mCache.put(id, repeat(40));
+        }
+
+        assertEquals(queueSize, mCache.getCount());
+        assertEquals(queueSize * 40L, mCache.getSizeBytes());
+        assertEquals(2, mCache.getEvictionCount());                                                 // the two unpinned ones, nothing else
+        assertNull(mCache.get("other_1"));
+        assertNotNull(mCache.get("queue_0"));
+        assertNotNull(mCache.get("queue_" + (queueSize - 1)));
+
+        mCache.setPinned(queue.subList(0, 2));                                                      // a short queue, the rest becomes evictable
+        assertEquals(2, mCache.getCount());
+        assertEquals(80, mCache.getSizeBytes());
+        assertNotNull(mCache.get("queue_1"));
+    }
+
+    @Test
+    public void replacingAnItem_updatesTheSize() {
+        mCache.put("a", repeat(10));
+        mCache.put("a", repeat(30));
+
+        assertEquals(30, mCache.getSizeBytes());
+        assertEquals(1, mCache.getCount());
+    }
+
+    @Test
+    public void stats_countHitsAndMisses() {
+        mCache.put("a", "x");
+        mCache.get("a");
+        mCache.get("missing");
+
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+    }
+
+    private static String repeat(int length) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+}
@@ -0,0 +1,94 @@
+package util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link PrefetchScheduler}. Tasks only record that they started, the test decides
+ * when each one finishes, like a fireStore get coming back.
+ */
+public class PrefetchSchedulerTest {
+
+    private PrefetchScheduler mScheduler;
+    private List<String> mStarted;
+    private List<Runnable> mInFlight;
+
+    @Before
+    public void setUp() {
+        mScheduler = new PrefetchScheduler(2);
+        mStarted = new ArrayList<>();
+        mInFlight = new ArrayList<>();
+    }
+
+    @Test
+    public void concurrency_isBounded() {
+        for (int i = 0; i < 10; i++) {
+            mScheduler.schedule("artists/" + i, PrefetchScheduler.PRIORITY_LOW, task("artists/" + i));
+        }
+        assertEquals(2, mScheduler.getRunningCount());
+        assertEquals(8, mScheduler.getQueuedCount());
+
+        while (!mInFlight.isEmpty()) {
+            assertTrue(mScheduler.getRunningCount() <= 2);
+            mInFlight.remove(0).run();
+        }
+        assertEquals(10, mScheduler.getCompletedCount());
+        assertEquals("artists/9", mStarted.get(9));
+    }
+
+    @Test
+    public void highPriority_startsBeforeQueuedLowPriority() {
+        mScheduler.schedule("artists/a", PrefetchScheduler.PRIORITY_LOW, task("artists/a"));
+        mScheduler.schedule("artists/b", PrefetchScheduler.PRIORITY_LOW, task("artists/b"));
+        mScheduler.schedule("artists/c", PrefetchScheduler.PRIORITY_LOW, task("artists/c"));
+        mScheduler.schedule("content/x", PrefetchScheduler.PRIORITY_HIGH, task("content/x"));
+        mScheduler.schedule("artists/d", PrefetchScheduler.PRIORITY_LOW, task("artists/d"));
+        mScheduler.schedule("artists/d", PrefetchScheduler.PRIORITY_HIGH, task("artists/d"));   // moved up
+
+        mInFlight.remove(0).run();
+        mInFlight.remove(0).run();
+
+        assertEquals("content/x", mStarted.get(2));
+        assertEquals("artists/d", mStarted.get(3));
+    }
+
+    @Test
+    public void duplicateKeys_areScheduledOnce() {
+        assertTrue(mScheduler.schedule("content/x", PrefetchScheduler.PRIORITY_HIGH, task("content/x")));
+        assertFalse(mScheduler.schedule("content/x", PrefetchScheduler.PRIORITY_HIGH, task("content/x")));
+        assertEquals(1, mScheduler.getDeduplicatedCount());
+
+        mInFlight.remove(0).run();
+        assertFalse(mScheduler.isPending("content/x"));
+        assertTrue(mScheduler.schedule("content/x", PrefetchScheduler.PRIORITY_HIGH, task("content/x")));
+    }
+
+    @Test
+    public void cancelPending_keepsRunningTasks() {
+        for (int i = 0; i < 5; i++) {
+            mScheduler.schedule("content/" + i, PrefetchScheduler.PRIORITY_LOW, task("content/" + i));
+        }
+        mScheduler.cancelPending("content/");
+        assertEquals(0, mScheduler.getQueuedCount());
+
+        mInFlight.remove(0).run();
+        mInFlight.remove(0).run();
+        assertEquals(2, mStarted.size());
+        assertEquals(0, mScheduler.getRunningCount());
+    }
+
+    private PrefetchScheduler.ITask task(final String key) {
+        return new PrefetchScheduler.ITask() {
+            @Override
+            public void run(Runnable done) {
+                mStarted.add(key);
+                mInFlight.add(done);
+            }
+        };
+    }
+}
@@ -0,0 +1,205 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link QueueOrder}, checked against a plain list of the queue. The timing of skips,
+ * adds and removes on a 100k item queue is in the benchmark module's QueueBenchmark.
+ */
+public class QueueOrderTest {
+
+    private static final int QUEUE_SIZE = 100000;
+    private static final int OPERATIONS = 200000;
+
+    @Test
+    public void linearOrder_followsTheQueueAndRepeatModes() {
+        QueueOrder order = new QueueOrder(new Random(1));
+        order.reset(3, 1);
+
+        assertEquals(2, order.next());
+        assertEquals(-1, order.next());                                                             // end of the queue
+        assertEquals(2, order.getCurrent());
+        assertEquals(1, order.previous());
+        assertEquals(0, order.previous());
+        assertEquals(-1, order.previous());
+
+        order.setRepeatMode(QueueOrder.REPEAT_ALL);
+        assertEquals(2, order.previous());
+        assertEquals(0, order.next());
+        assertArrayEquals(new int[]{1, 2}, order.peek(5));                                          // never the current item again
+
+        order.setRepeatMode(QueueOrder.REPEAT_ONE);
+        assertEquals(0, order.peek(5).length);
+        assertEquals(1, order.next());                                                              // a skip still moves on
+    }
+
+    @Test
+    public void shuffle_playsEveryItemOnceStartingWithTheCurrent() {
+        QueueOrder order = new QueueOrder(new Random(2));
+        order.reset(1000, 500);
+        order.setShuffled(true);
+        assertEquals(500, order.getCurrent());
+
+        List<Integer> played = playToTheEnd(order);
+        assertEquals(999, played.size());
+        Set<Integer> distinct = new HashSet<>(played);
+        distinct.add(500);
+        assertEquals(1000, distinct.size());
+        assertFalse(isSorted(played));
+
+        // back through the same order
+        for (int i = played.size() - 2; i >= 0; i--) {
+            assertEquals((int) played.get(i), order.previous());
+        }
+        assertEquals(500, order.previous());
+        assertEquals(-1, order.previous());
+
+        order.setShuffled(false);
+        assertEquals(501, order.next());
+    }
+
+    @Test
+    public void shuffle_addedItemsStillPlayThisTimeRound() {
+        QueueOrder order = new QueueOrder(new Random(3));
+        order.reset(100, 0);
+        order.setShuffled(true);
+        for (int i = 0; i < 50; i++) {
+            order.next();
+        }
+        for (int i = 0; i < 20; i++) {
+            order.append();
+        }
+        List<Integer> rest = playToTheEnd(order);
+        assertEquals(49 + 20, rest.size());
+        for (int position = 100; position < 120; position++) {
+            assertTrue(rest.contains(position));
+        }
+        assertFalse(rest.subList(rest.size() - 20, rest.size()).equals(Arrays.asList(
+                100, 101, 102, 103, 104, 105, 106, 107, 108, 109,
+                110, 111, 112, 113, 114, 115, 116, 117, 118, 119)));                                // spread out, not tacked on the end
+    }
+
+    @Test
+    public void randomEdits_matchAPlainList() {
+        Random random = new Random(4);
+        QueueOrder order = new QueueOrder(new Random(5));
+        List<Integer> queue = new ArrayList<>();                                                    // item ids, what MediaService keeps
+        int nextId = 0;
+        for (; nextId < 200; nextId++) {
+            queue.add(nextId);
+        }
+        order.reset(queue.size(), 0);
+        int current = 0;
+        order.setRepeatMode(QueueOrder.REPEAT_ALL);
+
+        for (int step = 0; step < 20000; step++) {
+            switch (random.nextInt(6)) {
+                case 0:
+                    queue.add(nextId++);
+                    order.append();
+                    break;
+                case 1:
+                    if (queue.size() > 1) {
+                        int position = random.nextInt(queue.size());
+                        queue.remove(position);
+                        order.remove(position);
+                        if (position < current) {
+                            current--;
+                        }
+                        current = Math.min(current, queue.size() - 1);
+                    }
+                    break;
+                case 2:
+                    current = random.nextInt(queue.size());
+                    order.jumpTo(current);
+                    break;
+                case 3:
+                    order.setShuffled(random.nextInt(4) != 0);
+                    break;
+                default:
+                    current = order.next();
+            }
+            assertEquals(current, order.getCurrent());
+        }
+
+        // a full lap from the current item is the whole queue, and previous() undoes it
+        int[] lap = order.peek(queue.size());
+        assertEquals(queue.size() - 1, lap.length);
+        Set<Integer> seen = new HashSet<>();
+        seen.add(current);
+        for (int position : lap) {
+            assertTrue(position >= 0 && position < queue.size());
+            seen.add(position);
+        }
+        assertEquals(queue.size(), seen.size());
+        for (int position : lap) {
+            assertEquals(position, order.next());
+        }
+        for (int i = lap.length - 2; i >= 0; i--) {
+            assertEquals(lap[i], order.previous());
+        }
+    }
+
+    @Test
+    public void hundredThousandItems_shuffleStillCoversTheQueueAfterChurn() {
+        Random random = new Random(6);
+        QueueOrder order = new QueueOrder(new Random(7));
+        order.reset(QUEUE_SIZE, 0);
+        order.setShuffled(true);
+        order.setRepeatMode(QueueOrder.REPEAT_ALL);
+        churn(order, random, OPERATIONS);                                                           // through a few compactions
+
+        int start = order.getCurrent();
+        boolean[] seen = new boolean[order.size()];
+        for (int i = 0; i < order.size(); i++) {
+            int position = order.next();
+            assertFalse("played twice: " + position, seen[position]);
+            seen[position] = true;
+        }
+        assertEquals(start, order.getCurrent());                                                    // one lap, back where it started
+    }
+
+    // skips mostly, an add or a remove now and then, the size stays about the same
+    private static void churn(QueueOrder order, Random random, int count) {
+        for (int i = 0; i < count; i++) {
+            int dice = random.nextInt(10);
+            if (dice == 0) {
+                order.append();
+            } else if (dice == 1) {
+                order.remove(random.nextInt(order.size()));
+            } else if (dice == 2) {
+                order.jumpTo(random.nextInt(order.size()));
+            } else if (dice == 3) {
+                order.previous();
+            } else {
+                order.next();
+            }
+        }
+    }
+
+    private static List<Integer> playToTheEnd(QueueOrder order) {
+        List<Integer> played = new ArrayList<>();
+        for (int position = order.next(); position != -1; position = order.next()) {
+            played.add(position);
+        }
+        return played;
+    }
+
+    private static boolean isSorted(List<Integer> positions) {
+        for (int i = 1; i < positions.size(); i++) {
+            if (positions.get(i) < positions.get(i - 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,90 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import Models.Track;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SearchIndex}. Query timing over a large catalog is in the benchmark module's
+ * CatalogBenchmark.
+ */
+public class SearchIndexTest {
+
+    @Test
+    public void search_matchesPrefixesOfEveryTerm() {
+        SearchIndex index = new SearchIndex();
+        index.add(track("1", "Learning Android Fast", "Mitch Tabian", "Kotlin and Java"));
+        index.add(track("2", "Java Interview", "Justin Mitchel", "Backend talk"));
+        index.add(track("3", "Caf\u00e9 Stories", "Jim Wilson", "Coffee and code"));
+
+        assertEquals(ids("1", "2"), ids(index.search("mitch", 10)));
+        assertEquals(ids("1"), ids(index.search("andr mitch", 10)));
+        assertEquals(ids("3"), ids(index.search("CAFE", 10)));                                      // case and accents don't matter
+        assertTrue(index.search("java wilson", 10).isEmpty());                                      // every term has to match
+        assertTrue(index.search("  ", 10).isEmpty());
+    }
+
+    @Test
+    public void search_ranksTitleOverArtistOverDescription() {
+        SearchIndex index = new SearchIndex();
+        index.add(track("desc", "Episode one", "Someone", "All about java"));
+        index.add(track("artist", "Episode two", "Java Jones", "Nothing here"));
+        index.add(track("title", "Java basics", "Someone", "Nothing here"));
+        index.add(track("prefix", "Javascript", "Someone", "Nothing here"));
+
+        assertEquals(ids("title", "artist", "prefix", "desc"), ids(index.search("java", 10)));
+        assertEquals(ids("title"), ids(index.search("java", 1)));
+        assertEquals(ids("artist"), ids(index.search("java", SearchIndex.FIELD_ARTIST, 10)));
+    }
+
+    @Test
+    public void addAndRemove_keepTheIndexCurrent() {
+        SearchIndex index = new SearchIndex();
+        index.add(track("1", "Old title", "Artist", ""));
+        index.add(track("1", "New title", "Artist", ""));                                           // replaced
+        assertTrue(index.search("old", 10).isEmpty());
+        assertEquals(ids("1"), ids(index.search("new", 10)));
+        assertEquals(1, index.size());
+
+        index.remove("1");
+        assertTrue(index.search("new", 10).isEmpty());
+        assertEquals(0, index.size());
+
+        // enough churn to compact
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 2000; i++) {
+                index.add(track("t" + i, "Title " + round + " number" + i, "Artist", ""));
+            }
+        }
+        assertEquals(2000, index.size());
+        assertEquals(ids("t7"), ids(index.search("2 number7", 1)));
+        assertTrue(index.search("1 number7", 10).isEmpty());
+    }
+
+    private static Track track(String id, String title, String artist, String description) {
+        return new Track.Builder()
+                .setMediaId(id)
+                .setTitle(title)
+                .setArtist(artist)
+                .setDescription(description)
+                .build();
+    }
+
+    private static List<String> ids(String... ids) {
+        return Arrays.asList(ids);
+    }
+
+    private static List<String> ids(List<Track> tracks) {
+        List<String> ids = new ArrayList<>();
+        for (Track track : tracks) {
+            ids.add(track.getMediaId());
+        }
+        return ids;
+    }
+}
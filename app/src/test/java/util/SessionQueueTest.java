@@ -0,0 +1,105 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SessionQueue}, checked against a plain list of the queue.
+ */
+public class SessionQueueTest {
+
+    @Test
+    public void remove_keepsTheQueueIdsOfTheItemsAfterIt() {
+        SessionQueue<String> queue = new SessionQueue<>();
+        long a = queue.add("a", "A");
+        long b = queue.add("b", "B");
+        long c = queue.add("c", "C");
+
+        assertEquals(1, queue.remove("b"));
+        assertEquals(2, queue.size());
+        assertEquals("C", queue.get(1));
+        assertEquals(c, queue.getQueueId(1));                                                       // not renumbered to its new position
+        assertEquals(1, queue.indexOfQueueId(c));
+        assertEquals(0, queue.indexOfQueueId(a));
+        assertEquals(-1, queue.indexOfQueueId(b));
+        assertEquals(-1, queue.remove("b"));
+    }
+
+    @Test
+    public void remove_takesTheFirstOfATrackQueuedTwice() {
+        SessionQueue<String> queue = new SessionQueue<>();
+        queue.add("a", "first");
+        queue.add("b", "B");
+        long second = queue.add("a", "second");
+
+        assertEquals(0, queue.remove("a"));
+        assertEquals("second", queue.get(1));
+        assertEquals(1, queue.indexOfQueueId(second));
+        assertEquals(1, queue.remove("a"));
+        assertEquals(-1, queue.remove("a"));
+    }
+
+    @Test
+    public void clear_neverHandsOutAnOldQueueIdAgain() {
+        SessionQueue<String> queue = new SessionQueue<>();
+        long old = queue.add("a", "A");
+        queue.clear();
+        assertTrue(queue.isEmpty());
+
+        long fresh = queue.add("a", "A");
+        assertFalse(old == fresh);
+        assertEquals(-1, queue.indexOfQueueId(old));                                                // a skip from the old queue goes nowhere
+        assertEquals(0, queue.indexOfQueueId(fresh));
+    }
+
+    @Test
+    public void randomAddsAndRemoves_matchAPlainList() {
+        Random random = new Random(3);
+        SessionQueue<String> queue = new SessionQueue<>();
+        List<String> mediaIds = new ArrayList<>();
+        List<Long> queueIds = new ArrayList<>();
+
+        for (int i = 0; i < 20000; i++) {
+            if (mediaIds.isEmpty() || random.nextInt(3) != 0) {
+                String mediaId = "track_" + random.nextInt(500);                                    // some queued more than once
+                queueIds.add(queue.add(mediaId, mediaId.toUpperCase()));
+                mediaIds.add(mediaId);
+            } else {
+                String mediaId = mediaIds.get(random.nextInt(mediaIds.size()));
+                int expected = mediaIds.indexOf(mediaId);
+                assertEquals(expected, queue.remove(mediaId));
+                mediaIds.remove(expected);
+                queueIds.remove(expected);
+            }
+            if (i % 1000 == 0) {
+                assertMatches(queue, mediaIds, queueIds);
+            }
+        }
+        while (!mediaIds.isEmpty()) {                                                               // down through the compactions
+            String mediaId = mediaIds.get(random.nextInt(mediaIds.size()));
+            int expected = mediaIds.indexOf(mediaId);
+            assertEquals(expected, queue.remove(mediaId));
+            mediaIds.remove(expected);
+            queueIds.remove(expected);
+            if (mediaIds.size() % 97 == 0) {
+                assertMatches(queue, mediaIds, queueIds);
+            }
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    private static void assertMatches(SessionQueue<String> queue, List<String> mediaIds, List<Long> queueIds) {
+        assertEquals(mediaIds.size(), queue.size());
+        for (int position = 0; position < mediaIds.size(); position++) {
+            assertEquals(mediaIds.get(position), queue.getMediaId(position));
+            assertEquals(mediaIds.get(position).toUpperCase(), queue.get(position));
+            assertEquals((long) queueIds.get(position), queue.getQueueId(position));
+            assertEquals(position, queue.indexOfQueueId(queueIds.get(position)));
+        }
+    }
+}
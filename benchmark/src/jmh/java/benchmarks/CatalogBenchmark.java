@@ -0,0 +1,112 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import Models.Track;
+import util.CatalogIndex;
+import util.SearchIndex;
+
+/**
+ * MediaLibrary's lookups (CatalogIndex under it): a track by media id, a playlist's ids resolved
+ * to tracks, an artist's tracks. And a SearchIndex query, what onSearch / onPlayFromSearch run.
+ * The nested-loop scan MediaLibrary.getPlaylistMedia used before is the baseline for resolving.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CatalogBenchmark {
+
+    private static final int PLAYLIST_SIZE = 50;                                                    // a page of a playlist
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private List<Track> mTracks;
+    private CatalogIndex<Track> mCatalog;
+    private SearchIndex mSearchIndex;
+    private String[] mIds;
+    private String[] mArtists;
+    private String[] mQueries;
+    private List<List<String>> mPlaylists;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        List<Track> tracks = Catalogs.tracks(size, 42);
+        mTracks = tracks;
+        mCatalog = new CatalogIndex<>(size);
+        mSearchIndex = new SearchIndex();
+        for (int i = 0; i < size; i++) {
+            Track track = tracks.get(i);
+            mCatalog.put(track.getMediaId(), track.getArtist(), Catalogs.category(i), track);
+        }
+        mSearchIndex.addAll(tracks);
+
+        // lookups in a random order, so they aren't served from a warm cache line
+        Random random = new Random(7);
+        mIds = new String[1024];
+        mArtists = new String[1024];
+        mQueries = new String[1024];
+        for (int i = 0; i < mIds.length; i++) {
+            Track track = tracks.get(random.nextInt(size));
+            mIds[i] = track.getMediaId();
+            mArtists[i] = track.getArtist();
+            String[] words = track.getTitle().split(" ");
+            mQueries[i] = i % 2 == 0 ? track.getArtist() : words[0] + " " + words[1].substring(0, 2);
+        }
+        mPlaylists = new ArrayList<>();
+        for (int p = 0; p < 64; p++) {
+            List<String> playlist = new ArrayList<>(PLAYLIST_SIZE);
+            for (int i = 0; i < PLAYLIST_SIZE; i++) {
+                playlist.add(Catalogs.mediaId(random.nextInt(size)));
+            }
+            mPlaylists.add(playlist);
+        }
+    }
+
+    @Benchmark
+    public Track getById() {
+        return mCatalog.get(mIds[mNext++ & 1023]);
+    }
+
+    @Benchmark
+    public List<Track> resolvePlaylist() {
+        return mCatalog.resolve(mPlaylists.get(mNext++ & 63));
+    }
+
+    // the previous MediaLibrary.getPlaylistMedia: one full catalog scan per requested id
+    @Benchmark
+    public List<Track> resolvePlaylistNestedLoop() {
+        List<Track> result = new ArrayList<>();
+        for (String id : mPlaylists.get(mNext++ & 63)) {
+            for (Track track : mTracks) {
+                if (id.equals(track.getMediaId())) {
+                    result.add(track);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<Track> getByArtist() {
+        return mCatalog.getByArtist(mArtists[mNext++ & 1023]);
+    }
+
+    @Benchmark
+    public List<Track> search() {
+        return mSearchIndex.search(mQueries[mNext++ & 1023], 50);
+    }
+}
@@ -0,0 +1,90 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import Models.Track;
+
+/**
+ * Generated catalogs shaped like the Firestore one: an artist per ~50 tracks sharing an icon,
+ * media files under a handful of folders, titles and descriptions made of a few thousand
+ * random words. Seeded, every fork benchmarks the same catalog.
+ */
+final class Catalogs {
+
+    private static final int WORDS = 4000;
+    private static final int TRACKS_PER_ARTIST = 50;
+    private static final int FOLDERS = 16;
+
+    private Catalogs() {
+    }
+
+    static List<Track> tracks(int size, long seed) {
+        Random random = new Random(seed);
+        String[] words = new String[WORDS];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = word(random);
+        }
+        String[] artists = new String[Math.max(1, size / TRACKS_PER_ARTIST)];
+        for (int i = 0; i < artists.length; i++) {
+            artists[i] = capitalize(word(random)) + " " + capitalize(word(random));
+        }
+
+        List<Track> tracks = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int artist = random.nextInt(artists.length);
+            tracks.add(new Track.Builder()
+                    .setMediaId(mediaId(i))
+                    .setTitle(sentence(random, words, 3 + random.nextInt(5)))
+                    .setArtist(artists[artist])
+                    .setMediaUri("https://firebasestorage.googleapis.com/v0/b/audio/o/folder" + random.nextInt(FOLDERS)
+                            + "/" + i + ".mp3")
+                    .setDescription(sentence(random, words, 10 + random.nextInt(15)))
+                    .setDate("2020-04-" + (10 + random.nextInt(19)))
+                    .setIconUri("https://firebasestorage.googleapis.com/v0/b/audio/o/artists/" + artist + ".jpg")
+                    .build());
+        }
+        return tracks;
+    }
+
+    static String mediaId(int i) {
+        return "media_" + i;
+    }
+
+    // the category a track sits in, what MediaLibrary groups by next to the artist
+    static String category(int i) {
+        return "category_" + (i % 12);
+    }
+
+    static List<String> mediaIds(List<Track> tracks) {
+        List<String> ids = new ArrayList<>(tracks.size());
+        for (Track track : tracks) {
+            ids.add(track.getMediaId());
+        }
+        return ids;
+    }
+
+    private static String word(Random random) {
+        char[] word = new char[3 + random.nextInt(7)];
+        for (int i = 0; i < word.length; i++) {
+            word[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(word);
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    private static String sentence(Random random, String[] words, int length) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                sentence.append(' ');
+            }
+            sentence.append(words[random.nextInt(words.length)]);
+        }
+        return sentence.toString();
+    }
+}
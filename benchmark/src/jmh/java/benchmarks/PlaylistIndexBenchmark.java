@@ -0,0 +1,62 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import util.MediaIdIndex;
+
+/**
+ * PlaylistRecyclerAdapter.getIndexOfItem (a MediaIdIndex lookup, every track change highlights
+ * a row), and rebuilding the index when a new list is committed to the adapter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PlaylistIndexBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private MediaIdIndex mIndex;
+    private List<String> mIds;
+    private String[] mLookups;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        mIds = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            mIds.add(Catalogs.mediaId(i));
+        }
+        mIndex = new MediaIdIndex();
+        mIndex.set(mIds);
+
+        Random random = new Random(7);
+        mLookups = new String[1024];
+        for (int i = 0; i < mLookups.length; i++) {
+            mLookups[i] = i % 16 == 0 ? "not_in_playlist_" + i : mIds.get(random.nextInt(size));   // the now playing track can be from another playlist
+        }
+    }
+
+    @Benchmark
+    public int getIndexOfItem() {
+        return mIndex.indexOf(mLookups[mNext++ & 1023]);
+    }
+
+    @Benchmark
+    public MediaIdIndex submitList() {
+        mIndex.set(mIds);
+        return mIndex;
+    }
+}
@@ -0,0 +1,83 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import util.QueueOrder;
+import util.SessionQueue;
+
+/**
+ * MediaSessionCallback's queue: skipping through a shuffled queue, and onAddQueueItem /
+ * onRemoveQueueItem. The SessionQueue is mPlaylist (the item is its media id, the callback keeps
+ * the description), a remove finds the item by media id like the callback does, then drops it
+ * from both. mIds only picks a random queued track to remove.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class QueueBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private QueueOrder mOrder;
+    private SessionQueue<String> mPlaylist;
+    private List<String> mIds;
+    private Random mRandom;
+    private int mNextId;
+
+    @Setup
+    public void setUp() {
+        mIds = new ArrayList<>(size);
+        mPlaylist = new SessionQueue<>();
+        for (mNextId = 0; mNextId < size; mNextId++) {
+            String mediaId = Catalogs.mediaId(mNextId);
+            mIds.add(mediaId);
+            mPlaylist.add(mediaId, mediaId);
+        }
+        mOrder = new QueueOrder(new Random(42));
+        mOrder.setRepeatMode(QueueOrder.REPEAT_ALL);
+        mOrder.reset(size, 0);
+        mOrder.setShuffled(true);
+        mRandom = new Random(7);
+    }
+
+    @Benchmark
+    public int skipToNext() {
+        return mOrder.next();
+    }
+
+    @Benchmark
+    public int skipToPrevious() {
+        return mOrder.previous();
+    }
+
+    // one add and one remove, so the queue keeps its size across iterations
+    @Benchmark
+    public int addThenRemove() {
+        String added = Catalogs.mediaId(mNextId++);
+        mIds.add(added);
+        mPlaylist.add(added, added);
+        mOrder.append();
+
+        // swap-remove, so picking the track isn't the O(n) part
+        int pick = mRandom.nextInt(mIds.size());
+        String removed = mIds.get(pick);
+        mIds.set(pick, mIds.get(mIds.size() - 1));
+        mIds.remove(mIds.size() - 1);
+        int position = mPlaylist.remove(removed);
+        mOrder.remove(position);
+        return position;
+    }
+}
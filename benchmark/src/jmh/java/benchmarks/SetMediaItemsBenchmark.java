@@ -0,0 +1,55 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import Models.Track;
+import util.MediaQueue;
+
+/**
+ * MyApplication.setMediaItems (MediaQueue under it): copy the queue, pin its ids, put every
+ * track in the metadata cache, index it for search. Once into an empty app (the first playlist)
+ * and once more with the same playlist (re-opening it, the common case).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SetMediaItemsBenchmark {
+
+    private static final long METADATA_CACHE_BYTES = 2 * 1024 * 1024;                              // same as MyApplication
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private List<Track> mTracks;
+    private MediaQueue mLoaded;
+
+    @Setup
+    public void setUp() {
+        mTracks = Catalogs.tracks(size, 42);
+        mLoaded = new MediaQueue(METADATA_CACHE_BYTES);
+        mLoaded.setMediaItems(mTracks);
+    }
+
+    @Benchmark
+    public MediaQueue firstLoad() {
+        MediaQueue queue = new MediaQueue(METADATA_CACHE_BYTES);
+        queue.setMediaItems(mTracks);
+        return queue;
+    }
+
+    @Benchmark
+    public MediaQueue reload() {
+        mLoaded.setMediaItems(mTracks);
+        return mLoaded;
+    }
+}
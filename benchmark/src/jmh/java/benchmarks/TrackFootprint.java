@@ -0,0 +1,93 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import Models.Track;
+
+/**
+ * Heap retained per track, built both ways: as Tracks, and as the Bundle layout a
+ * MediaMetadataCompat keeps (an ArrayMap: int[] of key hashes plus an Object[] of keys and
+ * values), each track with its own copy of every string like a Firestore or cursor read gives it.
+ *
+ * A one-off main rather than a JMH benchmark, the gc profiler counts what an operation
+ * allocates and not what it keeps. Run it with ./gradlew -Pbenchmarks :benchmark:trackFootprint
+ */
+public final class TrackFootprint {
+
+    private static final int CATALOG_SIZE = 100000;
+    private static final int ARTISTS = 50;
+    private static final String[] KEYS = {                                                         // the MediaMetadataCompat keys
+            "android.media.metadata.MEDIA_ID", "android.media.metadata.ARTIST", "android.media.metadata.TITLE",
+            "android.media.metadata.MEDIA_URI", "android.media.metadata.DISPLAY_DESCRIPTION",
+            "android.media.metadata.DATE", "android.media.metadata.DISPLAY_ICON_URI"
+    };
+
+    private TrackFootprint() {
+    }
+
+    public static void main(String[] args) {
+        long before = usedHeap();
+        List<Object[]> bundles = new ArrayList<>(CATALOG_SIZE);
+        for (int i = 0; i < CATALOG_SIZE; i++) {
+            bundles.add(bundle(i));
+        }
+        long bundleBytes = usedHeap() - before;
+        System.out.println(bundles.size() + " bundles: " + bundleBytes / CATALOG_SIZE + " B/track");
+        bundles = null;
+
+        before = usedHeap();
+        List<Track> tracks = new ArrayList<>(CATALOG_SIZE);
+        for (int i = 0; i < CATALOG_SIZE; i++) {
+            tracks.add(track(i));
+        }
+        long trackBytes = usedHeap() - before;
+        System.out.println(tracks.size() + " tracks: " + trackBytes / CATALOG_SIZE + " B/track ("
+                + trackBytes * 100 / bundleBytes + "% of the bundles)");
+    }
+
+    // fresh strings every time, like values read from a document or a cursor
+    private static Track track(int i) {
+        int artist = i % ARTISTS;
+        return new Track.Builder()
+                .setMediaId(new String("media_" + i))
+                .setArtist(new String("Artist " + artist))
+                .setTitle(new String("Episode " + i))
+                .setMediaUri(new String("https://content.example.com/artist_" + artist + "/episode_" + i + ".mp3"))
+                .setDescription(new String("Description of episode " + i))
+                .setDate(new String("Mon Jan 0" + (i % 9 + 1) + " 10:00:00 GMT 2019"))
+                .setIconUri(new String("https://images.example.com/artist_" + artist + ".png"))
+                .build();
+    }
+
+    private static Object[] bundle(int i) {
+        int artist = i % ARTISTS;
+        String[] values = {
+                "media_" + i, "Artist " + artist, "Episode " + i,
+                "https://content.example.com/artist_" + artist + "/episode_" + i + ".mp3",
+                "Description of episode " + i, "Mon Jan 0" + (i % 9 + 1) + " 10:00:00 GMT 2019",
+                "https://images.example.com/artist_" + artist + ".png"
+        };
+        int[] hashes = new int[KEYS.length];
+        Object[] array = new Object[KEYS.length * 2];
+        for (int k = 0; k < KEYS.length; k++) {
+            hashes[k] = KEYS[k].hashCode();
+            array[k * 2] = KEYS[k];
+            array[k * 2 + 1] = new String(values[k]);
+        }
+        return new Object[]{hashes, array};                                                         // stands in for MediaMetadataCompat -> Bundle -> ArrayMap
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}